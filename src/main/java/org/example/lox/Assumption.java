@@ -0,0 +1,35 @@
+package org.example.lox;
+
+/**
+ * The speculation that a global keeps the first value it's defined with.
+ * Defining or assigning it again invalidates it for good, and the
+ * {@link Expr.Global} nodes that embed the value go back to looking the name
+ * up. Until the global is first defined it's not valid either.
+ */
+class Assumption
+{
+    final String name;
+    Object value = null;
+    boolean valid = false;
+    private boolean defined = false;
+
+    Assumption(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Called each time the global is defined or assigned
+     */
+    void changed(Object value)
+    {
+        if (defined) {
+            this.value = null;
+            valid = false;
+            return;
+        }
+        this.value = value;
+        valid = true;
+        defined = true;
+    }
+}
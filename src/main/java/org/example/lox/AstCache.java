@@ -0,0 +1,747 @@
+package org.example.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * A binary copy of a resolved script or module, kept next to it as a .loxc
+ * file so later runs of the same source skip scanning, parsing and
+ * resolving, see --cache. The file starts with a hash of the source, and is
+ * only used while that still matches.
+ * <p>
+ * The paths the file imports come first. Then nodes are written in prefix
+ * order, a tag each, and followed by what the resolver recorded about them.
+ * Tokens and strings are written the first time they're seen and by index
+ * after that, so nodes that shared a token share it again once read.
+ */
+class AstCache
+{
+    private static final int MAGIC = 0x4c4f5843;
+    private static final int VERSION = 2;
+    private static final int HASH_LENGTH = 32;
+
+    // Tags, 0 is null
+    private static final byte ASSIGN = 1;
+    private static final byte BINARY = 2;
+    private static final byte CALL = 3;
+    private static final byte GET = 4;
+    private static final byte GROUPING = 5;
+    private static final byte LITERAL = 6;
+    private static final byte LOGICAL = 7;
+    private static final byte SET = 8;
+    private static final byte SUPER = 9;
+    private static final byte THIS = 10;
+    private static final byte UNARY = 11;
+    private static final byte VARIABLE = 12;
+    private static final byte BLOCK = 20;
+    private static final byte CLASS = 21;
+    private static final byte EXPRESSION = 22;
+    private static final byte FUNCTION = 23;
+    private static final byte IF = 24;
+    private static final byte WHILE = 25;
+    private static final byte PRINT = 26;
+    private static final byte RETURN = 27;
+    private static final byte VAR = 28;
+
+    private static final byte NIL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private AstCache() {}
+
+    static Path file(Path script)
+    {
+        return script.resolveSibling(script.getFileName() + "c");
+    }
+
+    static byte[] hash(Path script)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(script, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * The module cached for the source with this hash, with its resolution
+     * recorded in the interpreter, or null when there's no cache for it
+     */
+    static Modules.Module load(Path script, byte[] hash, Interpreter interpreter)
+    {
+        Path file = file(script);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            byte[] cached = new byte[HASH_LENGTH];
+            in.get(cached);
+            if (!Arrays.equals(cached, hash)) {
+                return null;
+            }
+            Reader reader = new Reader(in, interpreter);
+            return new Modules.Module(reader.imports(), reader.statements());
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException error) {
+            // Unreadable or cut short, compile instead.
+            return null;
+        }
+    }
+
+    /**
+     * Save a resolved module for the source with this hash. The cache is
+     * written aside and moved in place, so a run never reads half of one.
+     */
+    static void store(Path script, byte[] hash, Modules.Module module, Interpreter interpreter)
+    {
+        try {
+            Path file = file(script);
+            Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, encode(hash, module, interpreter, token -> token.line));
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        catch (IOException error) {
+            // The cache only saves time, the run goes on without it.
+        }
+    }
+
+    /**
+     * The cache of a resolved module, with the line of each token as given
+     */
+    static byte[] encode(byte[] hash, Modules.Module module, Interpreter interpreter, ToIntFunction<Token> lines)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new Writer(new DataOutputStream(bytes), interpreter, lines);
+        try {
+            writer.out.writeInt(MAGIC);
+            writer.out.writeInt(VERSION);
+            writer.out.write(hash);
+            writer.varint(module.imports().size());
+            module.imports().forEach(writer::token);
+            writer.statements(module.statements());
+            writer.out.flush();
+        }
+        catch (IOException error) {
+            // Written to memory.
+            throw new UncheckedIOException(error);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static class Writer
+            implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+    {
+        private final DataOutputStream out;
+        private final Interpreter interpreter;
+        private final Map<Token, Integer> tokens = new IdentityHashMap<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final ToIntFunction<Token> lines;
+
+        Writer(DataOutputStream out, Interpreter interpreter, ToIntFunction<Token> lines)
+        {
+            this.out = out;
+            this.interpreter = interpreter;
+            this.lines = lines;
+        }
+
+        void statements(List<? extends Stmt> statements)
+        {
+            varint(statements.size());
+            for (Stmt statement : statements) {
+                statement.accept(this);
+            }
+        }
+
+        private void statement(Stmt statement)
+        {
+            if (statement == null) {
+                tag(0);
+                return;
+            }
+            statement.accept(this);
+        }
+
+        private void expression(Expr expression)
+        {
+            if (expression == null) {
+                tag(0);
+                return;
+            }
+            expression.accept(this);
+        }
+
+        /**
+         * The depth and declaration the resolver bound a name to
+         */
+        private void local(Expr expr)
+        {
+            Integer depth = interpreter.depth(expr);
+            varint(depth == null ? 0 : depth + 1);
+            token(interpreter.declaration(expr));
+        }
+
+        private void token(Token token)
+        {
+            if (token == null) {
+                varint(0);
+                return;
+            }
+            Integer index = tokens.get(token);
+            if (index != null) {
+                varint(index + 2);
+                return;
+            }
+            tokens.put(token, tokens.size());
+            varint(1);
+            tag(token.type.ordinal());
+            string(token.lexeme);
+            varint(lines.applyAsInt(token));
+        }
+
+        private void string(String string)
+        {
+            Integer index = strings.get(string);
+            if (index != null) {
+                varint(index + 1);
+                return;
+            }
+            strings.put(string, strings.size());
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            varint(0);
+            varint(utf8.length);
+            try {
+                out.write(utf8);
+            }
+            catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void tag(int tag)
+        {
+            try {
+                out.writeByte(tag);
+            }
+            catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void varint(int value)
+        {
+            while ((value & ~0x7f) != 0) {
+                tag((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            tag(value);
+        }
+
+        private void function(Stmt.Function stmt)
+        {
+            if (LazyBody.pending(stmt)) {
+                throw new IllegalStateException("Lazy bodies aren't cached.");
+            }
+            token(stmt.name);
+            varint(stmt.params.size());
+            stmt.params.forEach(this::token);
+            statements(stmt.body);
+            tag(interpreter.isLifted(stmt) ? 1 : 0);
+        }
+
+        private Void unparsed()
+        {
+            throw new IllegalStateException("Only trees from the parser are cached.");
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr)
+        {
+            tag(ASSIGN);
+            token(expr.name);
+            expression(expr.value);
+            local(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr)
+        {
+            tag(BINARY);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr)
+        {
+            tag(CALL);
+            expression(expr.callee);
+            token(expr.paren);
+            varint(expr.arguments.size());
+            expr.arguments.forEach(this::expression);
+            tag(interpreter.isTailCall(expr) ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr)
+        {
+            tag(GET);
+            expression(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr)
+        {
+            tag(GROUPING);
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr)
+        {
+            tag(LITERAL);
+            if (expr.value == null) {
+                tag(NIL);
+            }
+            else if (expr.value instanceof Boolean value) {
+                tag(value ? TRUE : FALSE);
+            }
+            else if (expr.value instanceof Double value) {
+                tag(NUMBER);
+                try {
+                    out.writeDouble(value);
+                }
+                catch (IOException error) {
+                    throw new UncheckedIOException(error);
+                }
+            }
+            else {
+                tag(STRING);
+                string((String) expr.value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr)
+        {
+            tag(LOGICAL);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr)
+        {
+            tag(SET);
+            expression(expr.object);
+            token(expr.name);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr)
+        {
+            tag(SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            local(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr)
+        {
+            tag(THIS);
+            token(expr.keyword);
+            local(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr)
+        {
+            tag(UNARY);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr)
+        {
+            tag(VARIABLE);
+            token(expr.name);
+            local(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr)
+        {
+            return unparsed();
+        }
+
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr)
+        {
+            return unparsed();
+        }
+
+        @Override
+        public Void visitNumericBinaryExpr(Expr.NumericBinary expr)
+        {
+            return unparsed();
+        }
+
+        @Override
+        public Void visitNumericUnaryExpr(Expr.NumericUnary expr)
+        {
+            return unparsed();
+        }
+
+        @Override
+        public Void visitClassGuardExpr(Expr.ClassGuard expr)
+        {
+            return unparsed();
+        }
+
+        @Override
+        public Void visitGlobalExpr(Expr.Global expr)
+        {
+            return unparsed();
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt)
+        {
+            tag(BLOCK);
+            statements(stmt.statements);
+            tag(interpreter.isElided(stmt) ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt)
+        {
+            tag(CLASS);
+            token(stmt.name);
+            expression(stmt.superclass);
+            varint(stmt.methods.size());
+            stmt.methods.forEach(this::function);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt)
+        {
+            tag(EXPRESSION);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt)
+        {
+            tag(FUNCTION);
+            function(stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt)
+        {
+            tag(IF);
+            expression(stmt.condition);
+            statement(stmt.thenBranch);
+            statement(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt)
+        {
+            tag(WHILE);
+            expression(stmt.condition);
+            statement(stmt.body);
+            expression(stmt.increment);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt)
+        {
+            tag(PRINT);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt)
+        {
+            tag(RETURN);
+            token(stmt.keyword);
+            expression(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt)
+        {
+            tag(VAR);
+            token(stmt.name);
+            expression(stmt.initializer);
+            return null;
+        }
+    }
+
+    private static class Reader
+    {
+        private final ByteBuffer in;
+        private final Interpreter interpreter;
+        private final List<Token> tokens = new ArrayList<>();
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(ByteBuffer in, Interpreter interpreter)
+        {
+            this.in = in;
+            this.interpreter = interpreter;
+        }
+
+        List<Token> imports()
+        {
+            int count = varint();
+            List<Token> imports = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                imports.add(token());
+            }
+            return imports;
+        }
+
+        List<Stmt> statements()
+        {
+            int count = varint();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        private Stmt statement()
+        {
+            byte tag = in.get();
+            switch (tag) {
+                case 0:
+                    return null;
+                case BLOCK: {
+                    Stmt.Block block = new Stmt.Block(statements());
+                    if (in.get() != 0) {
+                        interpreter.elide(block);
+                    }
+                    return block;
+                }
+                case CLASS: {
+                    Token name = token();
+                    Expr.Variable superclass = (Expr.Variable) expression();
+                    int count = varint();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        methods.add(function());
+                    }
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case EXPRESSION:
+                    return new Stmt.Expression(expression());
+                case FUNCTION:
+                    return function();
+                case IF:
+                    return new Stmt.If(expression(), statement(), statement());
+                case WHILE:
+                    return new Stmt.While(expression(), statement(), expression());
+                case PRINT:
+                    return new Stmt.Print(expression());
+                case RETURN:
+                    return new Stmt.Return(token(), expression());
+                case VAR:
+                    return new Stmt.Var(token(), expression());
+                default:
+                    throw new IllegalArgumentException("Unknown statement tag " + tag);
+            }
+        }
+
+        private Stmt.Function function()
+        {
+            Token name = token();
+            int count = varint();
+            List<Token> params = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                params.add(token());
+            }
+            Stmt.Function function = new Stmt.Function(name, params, statements());
+            if (in.get() != 0) {
+                interpreter.lift(function);
+            }
+            return function;
+        }
+
+        private Expr expression()
+        {
+            byte tag = in.get();
+            switch (tag) {
+                case 0:
+                    return null;
+                case ASSIGN:
+                    return local(new Expr.Assign(token(), expression()));
+                case BINARY:
+                    return new Expr.Binary(expression(), token(), expression());
+                case CALL: {
+                    Expr callee = expression();
+                    Token paren = token();
+                    int count = varint();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(expression());
+                    }
+                    Expr.Call call = new Expr.Call(callee, paren, arguments);
+                    if (in.get() != 0) {
+                        interpreter.tailCall(call);
+                    }
+                    return call;
+                }
+                case GET:
+                    return new Expr.Get(expression(), token());
+                case GROUPING:
+                    return new Expr.Grouping(expression());
+                case LITERAL:
+                    return new Expr.Literal(literal());
+                case LOGICAL:
+                    return new Expr.Logical(expression(), token(), expression());
+                case SET:
+                    return new Expr.Set(expression(), token(), expression());
+                case SUPER:
+                    return local(new Expr.Super(token(), token()));
+                case THIS:
+                    return local(new Expr.This(token()));
+                case UNARY:
+                    return new Expr.Unary(token(), expression());
+                case VARIABLE:
+                    return local(new Expr.Variable(token()));
+                default:
+                    throw new IllegalArgumentException("Unknown expression tag " + tag);
+            }
+        }
+
+        private Expr local(Expr expr)
+        {
+            int depth = varint();
+            if (depth > 0) {
+                interpreter.resolve(expr, depth - 1);
+            }
+            Token declaration = token();
+            if (declaration != null) {
+                interpreter.bind(expr, declaration);
+            }
+            return expr;
+        }
+
+        private Object literal()
+        {
+            byte tag = in.get();
+            return switch (tag) {
+                case NIL -> null;
+                case TRUE -> true;
+                case FALSE -> false;
+                case NUMBER -> in.getDouble();
+                case STRING -> string();
+                default -> throw new IllegalArgumentException("Unknown literal tag " + tag);
+            };
+        }
+
+        private Token token()
+        {
+            int index = varint();
+            if (index == 0) {
+                return null;
+            }
+            if (index > 1) {
+                return tokens.get(index - 2);
+            }
+            TokenType type = TYPES[in.get()];
+            String lexeme = string();
+            Token token = new Token(type, lexeme, TokenArrays.literal(type, lexeme), varint());
+            tokens.add(token);
+            return token;
+        }
+
+        private String string()
+        {
+            int index = varint();
+            if (index > 0) {
+                return strings.get(index - 1);
+            }
+            byte[] utf8 = new byte[varint()];
+            in.get(utf8);
+            String string = new String(utf8, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        private int varint()
+        {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte next = in.get();
+                value |= (next & 0x7f) << shift;
+                if (next >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
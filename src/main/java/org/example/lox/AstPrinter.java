@@ -1,13 +1,20 @@
 package org.example.lox;
 
+import java.util.List;
+
 public class AstPrinter
-        implements Expr.Visitor<String>
+        implements Expr.Visitor<String>, Stmt.Visitor<String>
 {
     String print(Expr expr)
     {
         return expr.accept(this);
     }
 
+    String print(Stmt stmt)
+    {
+        return stmt.accept(this);
+    }
+
     @Override
     public String visitAssignExpr(Expr.Assign expr)
     {
@@ -24,7 +31,7 @@ public class AstPrinter
     @Override
     public String visitCallExpr(Expr.Call expr)
     {
-        return parenthesize(expr.paren.lexeme, (Expr[]) expr.arguments.toArray());
+        return parenthesize("call " + print(expr.callee), expr.arguments.toArray(new Expr[0]));
     }
 
     @Override
@@ -87,7 +94,112 @@ public class AstPrinter
     @Override
     public String visitVariableExpr(Expr.Variable expr)
     {
-        return null;
+        return expr.name.lexeme;
+    }
+
+    @Override
+    public String visitInlineExpr(Expr.Inline expr)
+    {
+        return parenthesize("inline " + expr.function.lexeme, expr.body);
+    }
+
+    @Override
+    public String visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        return parenthesize(expr.operator.lexeme + "#", expr.left, expr.right);
+    }
+
+    @Override
+    public String visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        return parenthesize(expr.operator.lexeme + "#", expr.right);
+    }
+
+    @Override
+    public String visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        return parenthesize("guard " + expr.klass.lexeme, expr.callee);
+    }
+
+    @Override
+    public String visitGlobalExpr(Expr.Global expr)
+    {
+        return expr.variable.name.lexeme;
+    }
+
+    @Override
+    public String visitBlockStmt(Stmt.Block stmt)
+    {
+        return parenthesize("block", stmt.statements);
+    }
+
+    @Override
+    public String visitClassStmt(Stmt.Class stmt)
+    {
+        String name = "class " + stmt.name.lexeme;
+        if (stmt.superclass != null) {
+            name += " < " + stmt.superclass.name.lexeme;
+        }
+        return parenthesize(name, stmt.methods);
+    }
+
+    @Override
+    public String visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return parenthesize(";", stmt.expression);
+    }
+
+    @Override
+    public String visitFunctionStmt(Stmt.Function stmt)
+    {
+        StringBuilder name = new StringBuilder("fun ").append(stmt.name.lexeme).append("(");
+        for (int i = 0; i < stmt.params.size(); i++) {
+            name.append(i == 0 ? "" : " ").append(stmt.params.get(i).lexeme);
+        }
+        if (LazyBody.pending(stmt)) {
+            return "(" + name.append(") ...)");
+        }
+        return parenthesize(name.append(")").toString(), stmt.body);
+    }
+
+    @Override
+    public String visitIfStmt(Stmt.If stmt)
+    {
+        String branches = print(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            branches += " " + print(stmt.elseBranch);
+        }
+        return "(if " + print(stmt.condition) + " " + branches + ")";
+    }
+
+    @Override
+    public String visitWhileStmt(Stmt.While stmt)
+    {
+        if (stmt.increment != null) {
+            return "(while " + print(stmt.condition) + " " + print(stmt.body) + " " + print(stmt.increment) + ")";
+        }
+        return "(while " + print(stmt.condition) + " " + print(stmt.body) + ")";
+    }
+
+    @Override
+    public String visitPrintStmt(Stmt.Print stmt)
+    {
+        return parenthesize("print", stmt.expression);
+    }
+
+    @Override
+    public String visitReturnStmt(Stmt.Return stmt)
+    {
+        return stmt.value == null ? "(return)" : parenthesize("return", stmt.value);
+    }
+
+    @Override
+    public String visitVarStmt(Stmt.Var stmt)
+    {
+        if (stmt.initializer == null) {
+            return "(var " + stmt.name.lexeme + ")";
+        }
+        return parenthesize("var " + stmt.name.lexeme, stmt.initializer);
     }
 
     private String parenthesize(String name, Expr... exprs)
@@ -104,6 +216,20 @@ public class AstPrinter
         return builder.toString();
     }
 
+    private String parenthesize(String name, List<? extends Stmt> stmts)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("(").append(name);
+        for (Stmt stmt : stmts) {
+            builder.append(" ");
+            builder.append(stmt.accept(this));
+        }
+        builder.append(")");
+
+        return builder.toString();
+    }
+
     public static void main(String[] args)
     {
         Expr expression = new Expr.Binary(
@@ -114,6 +240,6 @@ public class AstPrinter
                 new Expr.Grouping(
                         new Expr.Literal(45.67)));
 
-        System.out.println(new AstPrinter().visit(expression));
+        System.out.println(new AstPrinter().print(expression));
     }
 }
@@ -0,0 +1,363 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of the optimization passes that run between the {@link Resolver} and
+ * the {@link Interpreter}. Every visit returns the node itself when none of
+ * its children changed, and otherwise a copy that keeps the resolver's
+ * annotations, so untouched code stays bound exactly as it was resolved.
+ * Returning null from a statement visit removes the statement.
+ */
+abstract class AstRewriter
+        implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt>
+{
+    protected final Interpreter interpreter;
+
+    AstRewriter(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    List<Stmt> rewrite(List<Stmt> statements)
+    {
+        List<Stmt> result = null;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            Stmt rewritten = rewrite(statement);
+            if (rewritten != statement && result == null) {
+                result = new ArrayList<>(statements.subList(0, i));
+            }
+            if (result != null && rewritten != null) {
+                result.add(rewritten);
+            }
+        }
+        return result == null ? statements : result;
+    }
+
+    Stmt rewrite(Stmt stmt)
+    {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    Expr rewrite(Expr expr)
+    {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    protected <T extends Expr> T copy(Expr from, T to)
+    {
+        interpreter.copyAnnotations(from, to);
+        return to;
+    }
+
+    protected <T extends Stmt> T copy(Stmt from, T to)
+    {
+        interpreter.copyAnnotations(from, to);
+        return to;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr)
+    {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) {
+            return expr;
+        }
+        return copy(expr, new Expr.Assign(expr.name, value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr)
+    {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return copy(expr, new Expr.Binary(left, expr.operator, right));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr)
+    {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = rewriteExprs(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) {
+            return expr;
+        }
+        return copy(expr, new Expr.Call(callee, expr.paren, arguments));
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr)
+    {
+        Expr object = rewrite(expr.object);
+        if (object == expr.object) {
+            return expr;
+        }
+        return copy(expr, new Expr.Get(object, expr.name));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr)
+    {
+        Expr expression = rewrite(expr.expression);
+        if (expression == expr.expression) {
+            return expr;
+        }
+        return copy(expr, new Expr.Grouping(expression));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr)
+    {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr)
+    {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return copy(expr, new Expr.Logical(left, expr.operator, right));
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr)
+    {
+        Expr object = rewrite(expr.object);
+        Expr value = rewrite(expr.value);
+        if (object == expr.object && value == expr.value) {
+            return expr;
+        }
+        return copy(expr, new Expr.Set(object, expr.name, value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr)
+    {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr)
+    {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr)
+    {
+        Expr right = rewrite(expr.right);
+        if (right == expr.right) {
+            return expr;
+        }
+        return copy(expr, new Expr.Unary(expr.operator, right));
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr)
+    {
+        Expr compare = rewrite(expr.compare);
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (compare == expr.compare && left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return copy(expr, new Expr.Ternary(compare, expr.question, left, expr.colon, right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr)
+    {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr)
+    {
+        Expr call = rewrite(expr.call);
+        Expr body = rewrite(expr.body);
+        if (!(call instanceof Expr.Call rewritten)) {
+            // Whatever the call became is a valid replacement for the whole inline.
+            return call;
+        }
+        if (rewritten == expr.call && body == expr.body) {
+            return expr;
+        }
+        return copy(expr, new Expr.Inline(rewritten, expr.function, body));
+    }
+
+    @Override
+    public Expr visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return copy(expr, new Expr.NumericBinary(left, expr.operator, right));
+    }
+
+    @Override
+    public Expr visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        Expr right = rewrite(expr.right);
+        if (right == expr.right) {
+            return expr;
+        }
+        return copy(expr, new Expr.NumericUnary(expr.operator, right));
+    }
+
+    @Override
+    public Expr visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        Expr callee = rewrite(expr.callee);
+        if (callee == expr.callee) {
+            return expr;
+        }
+        return copy(expr, new Expr.ClassGuard(callee, expr.klass));
+    }
+
+    @Override
+    public Expr visitGlobalExpr(Expr.Global expr)
+    {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt)
+    {
+        List<Stmt> statements = rewrite(stmt.statements);
+        if (statements == stmt.statements) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.Block(statements));
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt)
+    {
+        List<Stmt.Function> methods = null;
+        for (int i = 0; i < stmt.methods.size(); i++) {
+            Stmt.Function method = stmt.methods.get(i);
+            Stmt.Function rewritten = (Stmt.Function) rewrite(method);
+            if (rewritten != method && methods == null) {
+                methods = new ArrayList<>(stmt.methods.subList(0, i));
+            }
+            if (methods != null) {
+                methods.add(rewritten);
+            }
+        }
+        if (methods == null) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.Class(stmt.name, stmt.superclass, methods));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt)
+    {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.Expression(expression));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt)
+    {
+        if (LazyBody.pending(stmt)) {
+            return stmt;
+        }
+        List<Stmt> body = rewrite(stmt.body);
+        if (body == stmt.body) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.Function(stmt.name, stmt.params, body));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt)
+    {
+        Expr condition = rewrite(stmt.condition);
+        Stmt thenBranch = rewrite(stmt.thenBranch);
+        Stmt elseBranch = rewrite(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.If(condition, orEmpty(thenBranch), elseBranch));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt)
+    {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = rewrite(stmt.body);
+        Expr increment = rewrite(stmt.increment);
+        if (condition == stmt.condition && body == stmt.body && increment == stmt.increment) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.While(condition, orEmpty(body), increment));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt)
+    {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.Print(expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt)
+    {
+        Expr value = rewrite(stmt.value);
+        if (value == stmt.value) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.Return(stmt.keyword, value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt)
+    {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        return copy(stmt, new Stmt.Var(stmt.name, initializer));
+    }
+
+    private List<Expr> rewriteExprs(List<Expr> exprs)
+    {
+        List<Expr> result = null;
+        for (int i = 0; i < exprs.size(); i++) {
+            Expr expr = exprs.get(i);
+            Expr rewritten = rewrite(expr);
+            if (rewritten != expr && result == null) {
+                result = new ArrayList<>(exprs.subList(0, i));
+            }
+            if (result != null) {
+                result.add(rewritten);
+            }
+        }
+        return result == null ? exprs : result;
+    }
+
+    /**
+     * A removed branch or loop body still needs a statement in its place
+     */
+    private static Stmt orEmpty(Stmt stmt)
+    {
+        return stmt == null ? new Stmt.Expression(new Expr.Literal(null)) : stmt;
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collect the locals that a function other than the one declaring them
+ * assigns, so that any call might change them
+ */
+class CapturedAssignments
+        extends AstRewriter
+{
+    private final Set<Token> declarations = new HashSet<>();
+    // The function each local is declared in, null at the top level
+    private final Map<Token, Stmt.Function> owners = new HashMap<>();
+    private Stmt.Function function = null;
+
+    private CapturedAssignments(Interpreter interpreter)
+    {
+        super(interpreter);
+    }
+
+    static Set<Token> scan(Interpreter interpreter, List<Stmt> statements)
+    {
+        CapturedAssignments assignments = new CapturedAssignments(interpreter);
+        assignments.rewrite(statements);
+        return assignments.declarations;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr)
+    {
+        Token declaration = interpreter.declaration(expr);
+        if (declaration != null && owners.get(declaration) != function) {
+            declarations.add(declaration);
+        }
+        return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt)
+    {
+        owners.put(stmt.name, function);
+        Stmt.Function enclosing = function;
+        function = stmt;
+        for (Token param : stmt.params) {
+            owners.put(param, stmt);
+        }
+        try {
+            return super.visitFunctionStmt(stmt);
+        }
+        finally {
+            function = enclosing;
+        }
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt)
+    {
+        owners.put(stmt.name, function);
+        return super.visitVarStmt(stmt);
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Flat code of a function body or a script, run by the {@link LoxVM}
+ */
+class Chunk
+{
+    final String name;
+    int[] code = new int[16];
+    int count = 0;
+    final List<Object> constants = new ArrayList<>();
+
+    Chunk(String name)
+    {
+        this.name = name;
+    }
+
+    void write(int value)
+    {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[count++] = value;
+    }
+
+    void write(OpCode op)
+    {
+        write(op.ordinal());
+    }
+
+    int addConstant(Object value)
+    {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+}
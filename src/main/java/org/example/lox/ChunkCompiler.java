@@ -0,0 +1,395 @@
+package org.example.lox;
+
+import java.util.List;
+
+/**
+ * Flatten resolved statements into a {@link Chunk}, so that the {@link LoxVM}
+ * runs them without recursing on the Java stack.
+ */
+class ChunkCompiler
+        implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+{
+    private final Interpreter interpreter;
+    private Chunk chunk;
+
+    ChunkCompiler(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    Chunk compile(String name, List<Stmt> statements)
+    {
+        Chunk enclosing = chunk;
+        chunk = new Chunk(name);
+        try {
+            for (Stmt statement : statements) {
+                compile(statement);
+            }
+            emitConstant(null);
+            emit(OpCode.RETURN);
+            return chunk;
+        }
+        finally {
+            chunk = enclosing;
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr)
+    {
+        compile(expr.value);
+
+        Integer distance = interpreter.depth(expr);
+        if (distance != null) {
+            emit(OpCode.SET_LOCAL, distance, constant(expr.name));
+        }
+        else {
+            emit(OpCode.SET_GLOBAL, constant(expr.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr)
+    {
+        compile(expr.left);
+        compile(expr.right);
+        emit(OpCode.BINARY, constant(expr.operator));
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr)
+    {
+        compileCall(expr, OpCode.CALL);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr)
+    {
+        compile(expr.object);
+        emit(OpCode.GET_PROPERTY, constant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr)
+    {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr)
+    {
+        emitConstant(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr)
+    {
+        compile(expr.left);
+
+        // Keep the left operand as the result if it short-circuits.
+        int end = emitJump(expr.operator.type == TokenType.OR ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.right);
+        patchJump(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr)
+    {
+        compile(expr.object);
+        emit(OpCode.CHECK_INSTANCE, constant(expr.name));
+        compile(expr.value);
+        emit(OpCode.SET_PROPERTY, constant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr)
+    {
+        emit(OpCode.GET_SUPER, interpreter.depth(expr), constant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr)
+    {
+        compileVariable(expr, expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr)
+    {
+        compile(expr.right);
+        emit(OpCode.UNARY, constant(expr.operator));
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr)
+    {
+        compile(expr.compare);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.left);
+        int end = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emit(OpCode.POP);
+        compile(expr.right);
+        patchJump(end);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr)
+    {
+        compileVariable(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr)
+    {
+        Expr.Call call = expr.call;
+        int fallback;
+        if (call.callee instanceof Expr.Get get) {
+            compile(get.object);
+            emit(OpCode.GUARD_METHOD, constant(get.name), constant(expr.function), -1);
+        }
+        else {
+            compile(call.callee);
+            emit(OpCode.GUARD_FUNCTION, constant(expr.function), -1);
+        }
+        fallback = chunk.count - 1;
+
+        // The guard popped the callee, the body stands in for the call.
+        compile(expr.body);
+        int end = emitJump(OpCode.JUMP);
+
+        // Otherwise it left the callee on the stack for a regular call.
+        patchJump(fallback);
+        for (Expr argument : call.arguments) {
+            compile(argument);
+        }
+        emit(OpCode.CALL, call.arguments.size(), constant(call.paren));
+        patchJump(end);
+        return null;
+    }
+
+    @Override
+    public Void visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        compile(expr.left);
+        compile(expr.right);
+        emit(OpCode.NUMERIC_BINARY, constant(expr.operator));
+        return null;
+    }
+
+    @Override
+    public Void visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        compile(expr.right);
+        emit(OpCode.NUMERIC_NEGATE);
+        return null;
+    }
+
+    @Override
+    public Void visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        compile(expr.callee);
+        emit(OpCode.CLASS_GUARD, constant(expr.klass));
+        return null;
+    }
+
+    @Override
+    public Void visitGlobalExpr(Expr.Global expr)
+    {
+        emit(OpCode.GET_ASSUMED, chunk.addConstant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        boolean scoped = !interpreter.isElided(stmt);
+        if (scoped) {
+            emit(OpCode.PUSH_SCOPE);
+        }
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        if (scoped) {
+            emit(OpCode.POP_SCOPE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt)
+    {
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+        }
+        emit(OpCode.CLASS, chunk.addConstant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt)
+    {
+        emit(OpCode.FUNCTION, chunk.addConstant(stmt));
+        emit(OpCode.DEFINE, chunk.addConstant(stmt.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        compile(stmt.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+        int end = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emit(OpCode.POP);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        patchJump(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        int start = chunk.count;
+        compile(stmt.condition);
+        int exit = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(OpCode.POP);
+        }
+        emit(OpCode.JUMP, start);
+        patchJump(exit);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt)
+    {
+        if (stmt.value instanceof Expr.Call call && interpreter.isTailCall(call)) {
+            // Falls through to RETURN when the callee isn't a LoxFunction.
+            compileCall(call, OpCode.TAIL_CALL);
+        }
+        else if (stmt.value != null) {
+            compile(stmt.value);
+        }
+        else {
+            emitConstant(null);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        }
+        else {
+            emitConstant(null);
+        }
+        emit(OpCode.DEFINE, chunk.addConstant(stmt.name.lexeme));
+        return null;
+    }
+
+    // ================= Helper
+    private void compile(Stmt stmt)
+    {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr)
+    {
+        expr.accept(this);
+    }
+
+    private void compileCall(Expr.Call call, OpCode op)
+    {
+        compile(call.callee);
+        for (Expr argument : call.arguments) {
+            compile(argument);
+        }
+        emit(op, call.arguments.size(), constant(call.paren));
+    }
+
+    private void compileVariable(Expr expr, Token name)
+    {
+        Integer distance = interpreter.depth(expr);
+        if (distance != null) {
+            emit(OpCode.GET_LOCAL, distance, chunk.addConstant(name.lexeme));
+        }
+        else {
+            emit(OpCode.GET_GLOBAL, constant(name));
+        }
+    }
+
+    private int constant(Token token)
+    {
+        return chunk.addConstant(token);
+    }
+
+    private void emitConstant(Object value)
+    {
+        emit(OpCode.CONSTANT, chunk.addConstant(value));
+    }
+
+    private void emit(OpCode op, int... operands)
+    {
+        chunk.write(op);
+        for (int operand : operands) {
+            chunk.write(operand);
+        }
+    }
+
+    /**
+     * Emit a jump and return the position of its target, to be patched later
+     */
+    private int emitJump(OpCode op)
+    {
+        emit(op, -1);
+        return chunk.count - 1;
+    }
+
+    private void patchJump(int offset)
+    {
+        chunk.code[offset] = chunk.count;
+    }
+}
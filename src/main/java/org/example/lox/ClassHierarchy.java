@@ -0,0 +1,181 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bind method calls to the only method they can reach, found from every
+ * class declared in the program. A call on any receiver is bound when a
+ * single class declares a method by that name. A call on this is also bound
+ * when no subclass of the enclosing class overrides the method it inherits.
+ * Methods of classes declared inside functions are never bound, as each run
+ * of the declaration makes a different class.
+ * <p>
+ * At run time a bound call still checks that the receiver's class inherits
+ * the method from its class, with no override in between, and has no field
+ * by that name, see {@link LoxInstance#reaches}. A class defined later in
+ * the REPL that overrides the method drops the binding.
+ */
+class ClassHierarchy
+        extends AstRewriter
+{
+    private final List<Stmt.Class> classes = new ArrayList<>();
+    private final Map<String, Stmt.Class> topLevel = new HashMap<>();
+    private final Map<Stmt.Class, Stmt.Class> superclasses = new HashMap<>();
+    private final Map<String, List<Stmt.Function>> implementations = new HashMap<>();
+    // Declared by a class inside a function
+    private final Set<String> unbindable = new HashSet<>();
+    // Whether every superclass is a known top-level class, so subclasses are all known
+    private boolean closed = true;
+
+    private Stmt.Class currentClass = null;
+
+    ClassHierarchy(Interpreter interpreter)
+    {
+        super(interpreter);
+    }
+
+    List<Stmt> devirtualize(List<Stmt> statements)
+    {
+        Set<String> declaredTwice = new HashSet<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Class klass && topLevel.put(klass.name.lexeme, klass) != null) {
+                declaredTwice.add(klass.name.lexeme);
+            }
+        }
+        topLevel.keySet().removeAll(declaredTwice);
+        topLevel.keySet().removeAll(GlobalAssignments.scan(interpreter, statements));
+
+        new AstRewriter(interpreter)
+        {
+            private int depth = 0;
+
+            @Override
+            public Stmt visitClassStmt(Stmt.Class stmt)
+            {
+                declare(stmt, depth > 0);
+                depth++;
+                try {
+                    return super.visitClassStmt(stmt);
+                }
+                finally {
+                    depth--;
+                }
+            }
+
+            @Override
+            public Stmt visitFunctionStmt(Stmt.Function stmt)
+            {
+                depth++;
+                try {
+                    return super.visitFunctionStmt(stmt);
+                }
+                finally {
+                    depth--;
+                }
+            }
+        }.rewrite(statements);
+
+        rewrite(statements);
+        return statements;
+    }
+
+    private void declare(Stmt.Class klass, boolean nested)
+    {
+        classes.add(klass);
+        for (Stmt.Function method : klass.methods) {
+            implementations.computeIfAbsent(method.name.lexeme, name -> new ArrayList<>()).add(method);
+            if (nested) {
+                unbindable.add(method.name.lexeme);
+            }
+        }
+        if (klass.superclass != null) {
+            Stmt.Class superclass = interpreter.depth(klass.superclass) == null
+                    ? topLevel.get(klass.superclass.name.lexeme)
+                    : null;
+            if (superclass == null) {
+                closed = false;
+            }
+            superclasses.put(klass, superclass);
+        }
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt)
+    {
+        Stmt.Class enclosingClass = currentClass;
+        currentClass = stmt;
+        try {
+            return super.visitClassStmt(stmt);
+        }
+        finally {
+            currentClass = enclosingClass;
+        }
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr)
+    {
+        if (expr.callee instanceof Expr.Get get && !interpreter.isTailCall(expr)) {
+            Stmt.Function method = target(get);
+            // A call with the wrong number of arguments still fails when it runs.
+            if (method != null && method.params.size() == expr.arguments.size()) {
+                interpreter.bindCall(expr, method);
+            }
+        }
+        return super.visitCallExpr(expr);
+    }
+
+    private Stmt.Function target(Expr.Get get)
+    {
+        String name = get.name.lexeme;
+        List<Stmt.Function> methods = implementations.get(name);
+        if (methods == null || name.equals("init") || unbindable.contains(name)) {
+            return null;
+        }
+        if (methods.size() == 1) {
+            return methods.get(0);
+        }
+        if (!(get.object instanceof Expr.This) || currentClass == null || !closed) {
+            return null;
+        }
+
+        // The receiver is an instance of the enclosing class or of a subclass.
+        for (Stmt.Class klass : classes) {
+            if (klass != currentClass && inherits(klass, currentClass) && declares(klass, name) != null) {
+                return null;
+            }
+        }
+        for (Stmt.Class klass = currentClass; klass != null; klass = superclasses.get(klass)) {
+            Stmt.Function method = declares(klass, name);
+            if (method != null) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private boolean inherits(Stmt.Class klass, Stmt.Class ancestor)
+    {
+        for (Stmt.Class current = klass; current != null; current = superclasses.get(current)) {
+            if (current == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Stmt.Function declares(Stmt.Class klass, String name)
+    {
+        for (Stmt.Function method : klass.methods) {
+            if (method.name.lexeme.equals(name)) {
+                return method;
+            }
+        }
+        return null;
+    }
+}
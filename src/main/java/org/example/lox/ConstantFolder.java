@@ -0,0 +1,158 @@
+package org.example.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluate operators whose operands are literals once, ahead of time, and
+ * replace reads of locals that are never reassigned by their literal value.
+ * Folding goes through the interpreter's own {@link Interpreter#binary} and
+ * {@link Interpreter#unary}, and anything that would raise a runtime error,
+ * like a division by zero, is left in place to fail when it runs.
+ */
+class ConstantFolder
+        extends AstRewriter
+{
+    // Local declarations with a literal initializer that are never assigned
+    private final Map<Token, Object> constants = new HashMap<>();
+    private final Set<Token> assigned = new HashSet<>();
+
+    ConstantFolder(Interpreter interpreter)
+    {
+        super(interpreter);
+    }
+
+    List<Stmt> fold(List<Stmt> statements)
+    {
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr)
+            {
+                assigned.add(interpreter.declaration(expr));
+                return super.visitAssignExpr(expr);
+            }
+        }.rewrite(statements);
+
+        return rewrite(statements);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr)
+    {
+        Expr binary = super.visitBinaryExpr(expr);
+        if (binary instanceof Expr.Binary folding
+                && folding.left instanceof Expr.Literal left
+                && folding.right instanceof Expr.Literal right) {
+            try {
+                return literal(interpreter.binary(folding.operator, left.value, right.value));
+            }
+            catch (Interpreter.RuntimeError error) {
+                return binary;
+            }
+        }
+        return binary;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr)
+    {
+        Expr unary = super.visitUnaryExpr(expr);
+        if (unary instanceof Expr.Unary folding && folding.right instanceof Expr.Literal right) {
+            try {
+                return literal(interpreter.unary(folding.operator, right.value));
+            }
+            catch (Interpreter.RuntimeError error) {
+                return unary;
+            }
+        }
+        return unary;
+    }
+
+    @Override
+    public Expr visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        Expr binary = super.visitNumericBinaryExpr(expr);
+        if (binary instanceof Expr.NumericBinary folding
+                && folding.left instanceof Expr.Literal left
+                && folding.right instanceof Expr.Literal right) {
+            try {
+                return literal(interpreter.numericBinary(folding.operator, (double) left.value, (double) right.value));
+            }
+            catch (Interpreter.RuntimeError error) {
+                return binary;
+            }
+        }
+        return binary;
+    }
+
+    @Override
+    public Expr visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        Expr unary = super.visitNumericUnaryExpr(expr);
+        if (unary instanceof Expr.NumericUnary folding && folding.right instanceof Expr.Literal right) {
+            return literal(-(double) right.value);
+        }
+        return unary;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr)
+    {
+        Expr expression = rewrite(expr.expression);
+        if (expression instanceof Expr.Literal) {
+            return expression;
+        }
+        return expression == expr.expression ? expr : copy(expr, new Expr.Grouping(expression));
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr)
+    {
+        Expr logical = super.visitLogicalExpr(expr);
+        if (logical instanceof Expr.Logical folding && folding.left instanceof Expr.Literal left) {
+            // Same short circuit as visitLogicalExpr: the left value, or whatever the right evaluates to.
+            boolean truthy = interpreter.isTruthy(left.value);
+            if (folding.operator.type == TokenType.OR) {
+                return truthy ? left : folding.right;
+            }
+            return truthy ? folding.right : left;
+        }
+        return logical;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr)
+    {
+        Token declaration = interpreter.declaration(expr);
+        if (declaration != null && constants.containsKey(declaration)) {
+            return literal(constants.get(declaration));
+        }
+        return expr;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt)
+    {
+        Stmt var = super.visitVarStmt(stmt);
+        Expr initializer = ((Stmt.Var) var).initializer;
+        if (!assigned.contains(stmt.name)) {
+            // Only locals are ever looked up here, globals have no declaration binding.
+            if (initializer == null) {
+                constants.put(stmt.name, null);
+            }
+            else if (initializer instanceof Expr.Literal literal) {
+                constants.put(stmt.name, literal.value);
+            }
+        }
+        return var;
+    }
+
+    private Expr literal(Object value)
+    {
+        return new Expr.Literal(value);
+    }
+}
@@ -0,0 +1,156 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Prune code that can never run or whose result is never observed: branches
+ * of ifs on a literal condition, while loops on a falsy literal, statements
+ * after an unconditional return, unused locals with an initializer that
+ * can't have side effects, and blocks left empty. Blocks and functions around the code that remains
+ * are kept as they are, so the resolver's depths for it stay valid.
+ */
+class DeadCodeEliminator
+        extends AstRewriter
+{
+    // Declarations that some expression reads or assigns
+    private final Set<Token> referenced = new HashSet<>();
+    private int scopeDepth = 0;
+
+    DeadCodeEliminator(Interpreter interpreter)
+    {
+        super(interpreter);
+    }
+
+    List<Stmt> eliminate(List<Stmt> statements)
+    {
+        // Removing a local can leave the ones its initializer read unused, so repeat until nothing changes.
+        List<Stmt> previous;
+        do {
+            previous = statements;
+            referenced.clear();
+            collectReferences(statements);
+            statements = rewrite(statements);
+        }
+        while (statements != previous);
+        return statements;
+    }
+
+    private void collectReferences(List<Stmt> statements)
+    {
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr)
+            {
+                referenced.add(interpreter.declaration(expr));
+                return super.visitAssignExpr(expr);
+            }
+
+            @Override
+            public Expr visitVariableExpr(Expr.Variable expr)
+            {
+                referenced.add(interpreter.declaration(expr));
+                return expr;
+            }
+        }.rewrite(statements);
+    }
+
+    @Override
+    List<Stmt> rewrite(List<Stmt> statements)
+    {
+        List<Stmt> result = super.rewrite(statements);
+        for (int i = 0; i < result.size() - 1; i++) {
+            if (terminates(result.get(i))) {
+                return new ArrayList<>(result.subList(0, i + 1));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt)
+    {
+        scopeDepth++;
+        try {
+            Stmt block = super.visitBlockStmt(stmt);
+            // Nothing left inside that could depend on its scope.
+            return ((Stmt.Block) block).statements.isEmpty() ? null : block;
+        }
+        finally {
+            scopeDepth--;
+        }
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt)
+    {
+        scopeDepth++;
+        try {
+            return super.visitFunctionStmt(stmt);
+        }
+        finally {
+            scopeDepth--;
+        }
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt)
+    {
+        Stmt rewritten = super.visitIfStmt(stmt);
+        if (rewritten instanceof Stmt.If ifStmt && ifStmt.condition instanceof Expr.Literal condition) {
+            // Keeps a branch's block as is, only the if around it goes away.
+            return interpreter.isTruthy(condition.value) ? ifStmt.thenBranch : ifStmt.elseBranch;
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt)
+    {
+        Stmt rewritten = super.visitWhileStmt(stmt);
+        if (rewritten instanceof Stmt.While whileStmt && whileStmt.condition instanceof Expr.Literal condition
+                && !interpreter.isTruthy(condition.value)) {
+            return null;
+        }
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt)
+    {
+        // Globals can be read by later REPL lines, only locals are known to be unused.
+        if (scopeDepth > 0 && !referenced.contains(stmt.name) && sideEffectFree(stmt.initializer)) {
+            return null;
+        }
+        return super.visitVarStmt(stmt);
+    }
+
+    private boolean sideEffectFree(Expr expr)
+    {
+        if (expr == null || expr instanceof Expr.Literal) {
+            return true;
+        }
+        if (expr instanceof Expr.Grouping grouping) {
+            return sideEffectFree(grouping.expression);
+        }
+        // Reading a resolved local can't fail, a global may be undefined.
+        return (expr instanceof Expr.Variable || expr instanceof Expr.This) && interpreter.depth(expr) != null;
+    }
+
+    private static boolean terminates(Stmt stmt)
+    {
+        if (stmt instanceof Stmt.Return) {
+            return true;
+        }
+        if (stmt instanceof Stmt.Block block) {
+            return !block.statements.isEmpty() && terminates(block.statements.get(block.statements.size() - 1));
+        }
+        if (stmt instanceof Stmt.If ifStmt) {
+            return ifStmt.elseBranch != null && terminates(ifStmt.thenBranch) && terminates(ifStmt.elseBranch);
+        }
+        return false;
+    }
+}
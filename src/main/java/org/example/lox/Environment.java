@@ -1,6 +1,8 @@
 package org.example.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Environment
@@ -18,10 +20,33 @@ public class Environment
     }
 
     private final Map<String, Object> values = new HashMap<>();
+    // Callbacks run whenever the name is defined or assigned in this environment
+    private Map<String, List<Runnable>> watchers = null;
 
     void define(String name, Object value)
     {
         values.put(name, value);
+        changed(name);
+    }
+
+    void watch(String name, Runnable onChange)
+    {
+        if (watchers == null) {
+            watchers = new HashMap<>();
+        }
+        watchers.computeIfAbsent(name, key -> new ArrayList<>()).add(onChange);
+    }
+
+    private void changed(String name)
+    {
+        if (watchers != null && watchers.containsKey(name)) {
+            watchers.get(name).forEach(Runnable::run);
+        }
+    }
+
+    boolean defines(String name)
+    {
+        return values.containsKey(name);
     }
 
     Object get(Token name)
@@ -42,6 +67,7 @@ public class Environment
     {
         if (values.containsKey(name.lexeme)) {
             values.put(name.lexeme, value);
+            changed(name.lexeme);
             return;
         }
 
@@ -17,6 +17,11 @@ abstract class Expr {
     R visitUnaryExpr(Unary expr);
     R visitTernaryExpr(Ternary expr);
     R visitVariableExpr(Variable expr);
+    R visitInlineExpr(Inline expr);
+    R visitNumericBinaryExpr(NumericBinary expr);
+    R visitNumericUnaryExpr(NumericUnary expr);
+    R visitClassGuardExpr(ClassGuard expr);
+    R visitGlobalExpr(Global expr);
 
     default R visit(Expr expr) {
         return expr.accept(this);
@@ -210,6 +215,80 @@ abstract class Expr {
 
     final Token name;
   }
+  static class Inline extends Expr {
+    Inline(Expr.Call call, Token function, Expr body) {
+      this.call = call;
+      this.function = function;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInlineExpr(this);
+    }
+
+    final Expr.Call call;
+    final Token function;
+    final Expr body;
+  }
+  static class NumericBinary extends Expr {
+    NumericBinary(Expr left, Token operator, Expr right) {
+      this.left = left;
+      this.operator = operator;
+      this.right = right;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumericBinaryExpr(this);
+    }
+
+    final Expr left;
+    final Token operator;
+    final Expr right;
+  }
+  static class NumericUnary extends Expr {
+    NumericUnary(Token operator, Expr right) {
+      this.operator = operator;
+      this.right = right;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumericUnaryExpr(this);
+    }
+
+    final Token operator;
+    final Expr right;
+  }
+  static class ClassGuard extends Expr {
+    ClassGuard(Expr callee, Token klass) {
+      this.callee = callee;
+      this.klass = klass;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitClassGuardExpr(this);
+    }
+
+    final Expr callee;
+    final Token klass;
+  }
+  static class Global extends Expr {
+    Global(Expr.Variable variable, Assumption assumption) {
+      this.variable = variable;
+      this.assumption = assumption;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitGlobalExpr(this);
+    }
+
+    final Expr.Variable variable;
+    final Assumption assumption;
+  }
 
   abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,278 @@
+package org.example.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Time scanning and parsing a large generated script, with the token list
+ * and with the token arrays, and report what each allocates. Parser
+ * throughput is measured on a script of long expressions too, and startup,
+ * up to the optimized tree, with and without lazy bodies. Then compare
+ * the peak heap of parsing the script from a file read whole and from the
+ * {@link StreamingScanner}, and compiling the script from its file with
+ * loading it from an {@link AstCache}. Last, the latency of the
+ * {@link IncrementalFrontEnd} after single-line edits to a 10k line script.
+ */
+class FrontEndBenchmark
+{
+    private static final int ROUNDS = 10;
+
+    // Keeps each result reachable so the work isn't optimized away
+    private static Object result;
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        String source = generate(lines);
+        System.out.println("[front end] " + lines + " lines, " + source.length() / 1024 + " KiB");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean last = round == ROUNDS - 1;
+            measure("scan list", last, () -> new Scanner(source).scanTokens());
+            measure("scan arrays", last, () -> new Scanner(source).scanArrays());
+            measure("parse list", last, () -> new Parser(new Scanner(source).scanTokens()).parse());
+            measure("parse arrays", last, () -> new Parser(new Scanner(source).scanArrays()).parse());
+        }
+
+        String expressions = generateExpressions(lines);
+        TokenArrays tokens = new Scanner(expressions).scanArrays();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = System.nanoTime();
+            measure("parse expressions", round == ROUNDS - 1, () -> new Parser(tokens).parse());
+            best = Math.min(best, System.nanoTime() - before);
+        }
+        // The best round, collections make single ones noisy
+        System.out.printf("[parse expressions] %.1f M tokens/s%n", tokens.size() / (best / 1e9) / 1e6);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean last = round == ROUNDS - 1;
+            measure("startup eager", last, () -> startup(source, false));
+            measure("startup lazy", last, () -> startup(source, true));
+        }
+
+        Path file = Files.createTempFile("front-end", ".lox");
+        try {
+            Files.writeString(file, source);
+            result = null;
+            for (int round = 0; round < 3; round++) {
+                boolean last = round == 2;
+                peak("parse file read whole", last, () -> {
+                    String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                    return new Parser(new Scanner(text).scanArrays()).parse();
+                });
+                peak("parse file streamed", last, () -> {
+                    try (StreamingScanner scanner = new StreamingScanner(file)) {
+                        return new Parser(scanner).parse();
+                    }
+                });
+            }
+
+            byte[] hash = AstCache.hash(file);
+            Interpreter cached = new Interpreter();
+            AstCache.store(file, hash, new Modules.Module(List.of(), compile(file, cached)), cached);
+            System.out.println("[cache] " + Files.size(AstCache.file(file)) / 1024 + " KiB");
+            for (int round = 0; round < ROUNDS; round++) {
+                boolean last = round == ROUNDS - 1;
+                measure("compile file", last, () -> compile(file, new Interpreter()));
+                measure("load cache", last, () -> AstCache.load(file, hash, new Interpreter()));
+            }
+        }
+        finally {
+            Files.deleteIfExists(AstCache.file(file));
+            Files.delete(file);
+        }
+
+        incremental(generate(10_000));
+    }
+
+    /**
+     * Edit one line of the script at a time, in place or by inserting one
+     * that moves the rest, and time updating a session against compiling
+     * the edited script whole
+     */
+    private static void incremental(String script)
+    {
+        List<String> lines = new ArrayList<>(Arrays.asList(script.split("\n", -1)));
+        List<Integer> targets = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).equals("  var total = 0;")) {
+                targets.add(i);
+            }
+        }
+        IncrementalFrontEnd session = new IncrementalFrontEnd(new Interpreter());
+        session.update(script);
+
+        Random random = new Random(1);
+        int edits = 200;
+        long inPlace = 0;
+        long inserted = 0;
+        long whole = 0;
+        long reparsed = 0;
+        for (int i = 0; i < edits; i++) {
+            int target = targets.get(random.nextInt(targets.size()));
+            lines.set(target, "  var total = 1;");
+            String edited = String.join("\n", lines);
+            lines.set(target, "  var total = 0;");
+            String reverted = String.join("\n", lines);
+            lines.add(target + 1, "  total = total + 1;");
+            String grown = String.join("\n", lines);
+            lines.remove(target + 1);
+
+            long before = System.nanoTime();
+            result = session.update(edited);
+            inPlace += System.nanoTime() - before;
+            reparsed += session.reparsed;
+            result = session.update(reverted);
+            before = System.nanoTime();
+            result = session.update(grown);
+            inserted += System.nanoTime() - before;
+            reparsed += session.reparsed;
+            result = session.update(reverted);
+            before = System.nanoTime();
+            result = new IncrementalFrontEnd(new Interpreter()).update(edited);
+            whole += System.nanoTime() - before;
+        }
+        System.out.printf("[incremental] %d lines, %.1f declarations parsed per edit%n", lines.size(), reparsed / (2.0 * edits));
+        System.out.printf("[incremental in place] %.2f ms per edit%n", inPlace / 1e6 / edits);
+        System.out.printf("[incremental inserted line] %.2f ms per edit%n", inserted / 1e6 / edits);
+        System.out.printf("[compile whole] %.2f ms per edit%n", whole / 1e6 / edits);
+    }
+
+    /**
+     * A script of top-level functions and classes with the statements and
+     * expressions programs usually have
+     */
+    static String generate(int lines)
+    {
+        StringBuilder source = new StringBuilder();
+        int written = 0;
+        for (int i = 0; written < lines; i++) {
+            source.append("fun f").append(i).append("(a, b) {\n")
+                    .append("  var total = 0;\n")
+                    .append("  for (var i = 0; i < a; i = i + 1) {\n")
+                    .append("    if (i * 2 >= b and !(i == 3)) total = total + (i - b) / 2.5;\n")
+                    .append("    else total = total - 1;\n")
+                    .append("  }\n")
+                    .append("  print \"f").append(i).append(" done\";\n")
+                    .append("  return total;\n")
+                    .append("}\n")
+                    .append("class C").append(i).append(" {\n")
+                    .append("  init(x) { this.x = x; this.next = nil; }\n")
+                    .append("  sum(other) { return this.x + other.x + f").append(i).append("(this.x, 3); }\n")
+                    .append("}\n")
+                    .append("var c").append(i).append(" = C").append(i).append("(").append(i).append(");\n");
+            written += 14;
+        }
+        return source.toString();
+    }
+
+    /**
+     * Everything before the script runs, none of its functions are called
+     */
+    private static Object startup(String source, boolean lazy)
+    {
+        Parser parser = new Parser(new Scanner(source).scanArrays());
+        parser.lazy = lazy;
+        List<Stmt> statements = parser.parse();
+        Interpreter interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        return new Optimizer(interpreter, Inliner.DEFAULT_BUDGET, false, false).optimize(statements);
+    }
+
+    /**
+     * Scan, parse and resolve a file, what a cache hit skips
+     */
+    private static List<Stmt> compile(Path file, Interpreter interpreter)
+    {
+        try (StreamingScanner scanner = new StreamingScanner(file)) {
+            List<Stmt> statements = new Parser(scanner).parse();
+            new Resolver(interpreter).resolve(statements);
+            return statements;
+        }
+        catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * A script of statements that each mix most operators, and of nested
+     * calls, properties and groupings
+     */
+    static String generateExpressions(int lines)
+    {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            switch (i % 4) {
+                case 0 -> source.append("var v").append(i).append(" = a * -b + c / (d - ").append(i)
+                        .append(") >= e or !f and g != h == i < j;\n");
+                case 1 -> source.append("x.y = o.p(q, r + 1)(s).t * u.v - w / 2;\n");
+                case 2 -> source.append("print ((((a + b) * c) - d) / e) + f(g(h(i(j)))) <= \"s").append(i).append("\";\n");
+                default -> source.append("a = b = c = !!-d or e and f or g and -h * (i + j);\n");
+            }
+        }
+        return source.toString();
+    }
+
+    private interface FileWork
+    {
+        Object run()
+                throws IOException;
+    }
+
+    /**
+     * Report the most heap in use at once while the work runs, above what was
+     * in use before. The peak is only noticed at collections, so this is
+     * most telling with a small young generation.
+     */
+    private static void peak(String name, boolean report, FileWork work)
+            throws IOException
+    {
+        System.gc();
+        long before = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                before += pool.getUsage().getUsed();
+                pool.resetPeakUsage();
+            }
+        }
+        long elapsed = System.nanoTime();
+        Object parsed = work.run();
+        elapsed = System.nanoTime() - elapsed;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        if (report) {
+            System.out.printf("[%s] %.1f ms, %d KiB peak heap%n", name, elapsed / 1e6, (peak - before) / 1024);
+        }
+        result = parsed;
+    }
+
+    private static void measure(String name, boolean report, Supplier<Object> work)
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long before = System.nanoTime();
+        result = work.get();
+        long elapsed = System.nanoTime() - before;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        if (report) {
+            System.out.printf("[%s] %.1f ms, %d KiB allocated%n", name, elapsed / 1e6, allocated / 1024);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.example.lox;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collect the names of the globals that are assigned anywhere in a program.
+ * For a body that isn't parsed yet that's every name it assigns.
+ */
+class GlobalAssignments
+        extends AstRewriter
+{
+    private final Set<String> names = new HashSet<>();
+
+    private GlobalAssignments(Interpreter interpreter)
+    {
+        super(interpreter);
+    }
+
+    static Set<String> scan(Interpreter interpreter, List<Stmt> statements)
+    {
+        GlobalAssignments assignments = new GlobalAssignments(interpreter);
+        assignments.rewrite(statements);
+        return assignments.names;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt)
+    {
+        if (LazyBody.pending(stmt)) {
+            // Not resolved yet, any name it assigns may be a global.
+            names.addAll(((LazyBody) stmt.body).assigned);
+        }
+        return super.visitFunctionStmt(stmt);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr)
+    {
+        if (interpreter.depth(expr) == null) {
+            names.add(expr.name.lexeme);
+        }
+        return super.visitAssignExpr(expr);
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.lox;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Embed the value of the globals a program reads but never assigns, such as
+ * its functions and classes, in the nodes that read them. Each read holds an
+ * {@link Assumption} that the global keeps its value, which any later
+ * definition or assignment, from this program or a later REPL line, breaks.
+ */
+class GlobalSpeculation
+        extends AstRewriter
+{
+    private Set<String> assigned;
+
+    GlobalSpeculation(Interpreter interpreter)
+    {
+        super(interpreter);
+    }
+
+    List<Stmt> speculate(List<Stmt> statements)
+    {
+        assigned = GlobalAssignments.scan(interpreter, statements);
+        return rewrite(statements);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr)
+    {
+        if (interpreter.depth(expr) != null || assigned.contains(expr.name.lexeme)) {
+            return expr;
+        }
+        return copy(expr, new Expr.Global(expr, interpreter.assume(expr.name.lexeme)));
+    }
+}
@@ -0,0 +1,186 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keep a script parsed and resolved while it's edited, for tools that
+ * submit the whole source again after every change. The new tokens are
+ * diffed with the previous ones, and only the top-level declarations the
+ * change touches are parsed and resolved again. The others are reused with
+ * their resolution and their tokens, which keep the lines they had when
+ * they were scanned, see {@link #line}. Top-level names are globals, looked
+ * up when the code runs, so no other declaration's resolution depends on a
+ * changed one. This is what --incremental runs.
+ */
+class IncrementalFrontEnd
+{
+    private final Interpreter interpreter;
+    // The last version without errors, null before the first
+    private TokenArrays tokens = null;
+    // Where the declarations after the imports start
+    private int header = 0;
+    private List<Token> imports = List.of();
+    private List<Stmt> statements = List.of();
+    // The token each statement starts at
+    private List<Integer> starts = List.of();
+    // Declarations parsed by the last update
+    int reparsed = 0;
+
+    /**
+     * What a new version would make of the last one, kept once it proved
+     * to have no errors
+     */
+    private record Version(TokenArrays tokens, int header, List<Token> imports, List<Stmt> statements,
+            List<Integer> starts, List<Stmt> parsed, List<Stmt> replaced) {}
+
+    IncrementalFrontEnd(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    List<Token> imports()
+    {
+        return imports;
+    }
+
+    /**
+     * The line a token of the last version is on, which moves as lines are
+     * added or removed above it
+     */
+    int line(Token token)
+    {
+        return tokens == null ? token.line : tokens.line(token);
+    }
+
+    /**
+     * The resolved statements of a new version of the script, or null after
+     * reporting its errors. The version after that is compared with the
+     * last one that had none.
+     */
+    List<Stmt> update(String source)
+    {
+        List<TokenArrays> scanned = new ArrayList<>(1);
+        List<Lox.Report> errors = Lox.collectErrors(() -> scanned.add(new Scanner(source).scanArrays()));
+        List<Version> versions = new ArrayList<>(1);
+        if (errors.isEmpty()) {
+            TokenArrays next = scanned.get(0);
+            errors = Lox.collectErrors(() -> {
+                try {
+                    versions.add(tokens == null ? parseAll(next) : reparse(next));
+                }
+                catch (Interpreter.RuntimeError error) {
+                    // The parser gives up at its first syntax error, which was collected.
+                }
+            });
+        }
+        if (!errors.isEmpty()) {
+            if (!versions.isEmpty()) {
+                interpreter.forget(versions.get(0).parsed());
+            }
+            for (Lox.Report error : errors) {
+                System.err.println(error.message());
+            }
+            Lox.hadError = true;
+            return null;
+        }
+
+        Version version = versions.get(0);
+        // The interpreter would keep the annotations of the replaced ones.
+        interpreter.forget(version.replaced());
+        tokens = version.tokens();
+        header = version.header();
+        imports = version.imports();
+        statements = version.statements();
+        starts = version.starts();
+        reparsed = version.parsed().size();
+        return statements;
+    }
+
+    private Version parseAll(TokenArrays next)
+    {
+        Parser parser = new Parser(next);
+        parser.header();
+        int declarations = parser.position();
+        List<Integer> nextStarts = new ArrayList<>();
+        List<Stmt> parsed = parser.declarations(declarations, next.size(), nextStarts);
+        new Resolver(interpreter).resolve(parsed);
+        return new Version(next, declarations, parser.imports, parsed, nextStarts, parsed, statements);
+    }
+
+    private Version reparse(TokenArrays next)
+    {
+        int n = next.size();
+        int m = tokens.size();
+        int prefix = 0;
+        while (prefix < n - 1 && prefix < m - 1
+                && next.same(prefix, tokens, prefix) && next.line(prefix) == tokens.line(prefix)) {
+            prefix++;
+        }
+        if (prefix <= header) {
+            // The imports changed, or what follows them.
+            return parseAll(next);
+        }
+        // Lines added by the change, the same for every token after it. The
+        // EOFs always match, blank lines at the end only move them.
+        int lines = next.line(n - 2) - tokens.line(m - 2);
+        int suffix = 1;
+        while (suffix < n - prefix && suffix < m - prefix
+                && next.same(n - 1 - suffix, tokens, m - 1 - suffix)
+                && next.line(n - 1 - suffix) - tokens.line(m - 1 - suffix) == lines) {
+            suffix++;
+        }
+        int shift = n - m;
+
+        // A statement parses the same while its tokens and the one after are.
+        int before = 0;
+        while (before < statements.size() && start(before + 1) < prefix) {
+            before++;
+        }
+        int after = before;
+        while (after < statements.size() && start(after) < m - suffix) {
+            after++;
+        }
+
+        // Parse from the first changed statement until the parser reaches
+        // the start of an unchanged one.
+        Parser parser = new Parser(next);
+        List<Stmt> middle = new ArrayList<>();
+        List<Integer> middleStarts = new ArrayList<>();
+        int position = start(before);
+        for (; ; ) {
+            int until = after < statements.size() ? start(after) + shift : n - 1;
+            middle.addAll(parser.declarations(position, until, middleStarts));
+            position = parser.position();
+            while (after < statements.size() && start(after) + shift < position) {
+                after++;
+            }
+            if (after == statements.size() || start(after) + shift == position) {
+                break;
+            }
+        }
+        new Resolver(interpreter).resolve(middle);
+
+        // The statements kept move to the new tokens.
+        next.adopt(tokens, 0, 0, start(before));
+        next.adopt(tokens, start(after), start(after) + shift, m - 1 - start(after));
+        List<Stmt> nextStatements = new ArrayList<>(statements.subList(0, before));
+        nextStatements.addAll(middle);
+        nextStatements.addAll(statements.subList(after, statements.size()));
+        List<Integer> nextStarts = new ArrayList<>(starts.subList(0, before));
+        nextStarts.addAll(middleStarts);
+        for (int i = after; i < statements.size(); i++) {
+            nextStarts.add(start(i) + shift);
+        }
+        return new Version(next, header, imports, nextStatements, nextStarts, middle, statements.subList(before, after));
+    }
+
+    /**
+     * The token a statement of the last version starts at, the EOF past the
+     * last one
+     */
+    private int start(int statement)
+    {
+        return statement < starts.size() ? starts.get(statement) : tokens.size() - 1;
+    }
+}
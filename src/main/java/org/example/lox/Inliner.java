@@ -0,0 +1,234 @@
+package org.example.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Substitute the body of small functions and methods at their call sites.
+ * Candidates are the top-level functions that are declared once and never
+ * assigned, and the methods of top-level classes whose name no other class
+ * declares, with a body that is a single return of at most {@link #budget}
+ * nodes. The call stays in the tree as the guard of an {@link Expr.Inline},
+ * which runs it as usual if the callee is a different function at run time.
+ */
+class Inliner
+        extends AstRewriter
+{
+    static final int DEFAULT_BUDGET = 16;
+
+    private final int budget;
+    private final Map<String, Stmt.Function> functions = new HashMap<>();
+    private final Map<String, Stmt.Function> methods = new HashMap<>();
+    // Local declarations that are assigned after they're initialized
+    private final Set<Token> assigned = new HashSet<>();
+    // Functions whose body is being inlined, so recursion stops at the first call
+    private final Set<Stmt.Function> inlining = new HashSet<>();
+
+    Inliner(Interpreter interpreter, int budget)
+    {
+        super(interpreter);
+        this.budget = budget;
+    }
+
+    List<Stmt> inline(List<Stmt> statements)
+    {
+        Set<String> declaredTwice = new HashSet<>();
+        Set<String> declared = new HashSet<>();
+        Set<String> methodsTwice = new HashSet<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function function) {
+                functions.put(function.name.lexeme, function);
+            }
+            else if (statement instanceof Stmt.Class klass) {
+                for (Stmt.Function method : klass.methods) {
+                    if (methods.put(method.name.lexeme, method) != null) {
+                        methodsTwice.add(method.name.lexeme);
+                    }
+                }
+            }
+            Token name = declaredName(statement);
+            if (name != null && !declared.add(name.lexeme)) {
+                declaredTwice.add(name.lexeme);
+            }
+        }
+        functions.keySet().removeAll(declaredTwice);
+        functions.keySet().removeAll(GlobalAssignments.scan(interpreter, statements));
+        functions.values().removeIf(function -> returned(function) == null);
+        methods.keySet().removeAll(methodsTwice);
+        methods.remove("init");
+        methods.values().removeIf(method -> returned(method) == null);
+
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr)
+            {
+                assigned.add(interpreter.declaration(expr));
+                return super.visitAssignExpr(expr);
+            }
+        }.rewrite(statements);
+
+        return rewrite(statements);
+    }
+
+    static Token declaredName(Stmt statement)
+    {
+        if (statement instanceof Stmt.Function function) {
+            return function.name;
+        }
+        if (statement instanceof Stmt.Var var) {
+            return var.name;
+        }
+        if (statement instanceof Stmt.Class klass) {
+            return klass.name;
+        }
+        return null;
+    }
+
+    /**
+     * The expression a function returns, if that's all it does and it fits the budget
+     */
+    private Expr returned(Stmt.Function function)
+    {
+        if (!LazyBody.pending(function)
+                && function.body.size() == 1
+                && function.body.get(0) instanceof Stmt.Return ret
+                && ret.value != null
+                && new NodeCounter().count(ret.value) <= budget) {
+            return ret.value;
+        }
+        return null;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr)
+    {
+        Expr rewritten = super.visitCallExpr(expr);
+        if (!(rewritten instanceof Expr.Call call)) {
+            return rewritten;
+        }
+
+        Stmt.Function function = null;
+        Expr receiver = null;
+        if (call.callee instanceof Expr.Variable variable && interpreter.depth(variable) == null) {
+            function = functions.get(variable.name.lexeme);
+        }
+        else if (call.callee instanceof Expr.Get get && trivial(get.object)) {
+            function = methods.get(get.name.lexeme);
+            receiver = get.object;
+        }
+        if (function == null || inlining.contains(function) || function.params.size() != call.arguments.size()) {
+            return call;
+        }
+
+        Map<Token, Expr> arguments = new HashMap<>();
+        for (int i = 0; i < call.arguments.size(); i++) {
+            Expr argument = call.arguments.get(i);
+            if (!trivial(argument)) {
+                return call;
+            }
+            arguments.put(function.params.get(i), argument);
+        }
+
+        Substitution substitution = new Substitution(arguments, receiver);
+        Expr body = substitution.rewrite(returned(function));
+        if (substitution.failed) {
+            return call;
+        }
+
+        inlining.add(function);
+        try {
+            body = rewrite(body);
+        }
+        finally {
+            inlining.remove(function);
+        }
+        return new Expr.Inline(call, function.name, body);
+    }
+
+    /**
+     * An expression the inlined body can read any number of times and get
+     * the same value without side effects, as the call would have
+     */
+    private boolean trivial(Expr expr)
+    {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) {
+            return true;
+        }
+        return expr instanceof Expr.Variable
+                && interpreter.depth(expr) != null
+                && !assigned.contains(interpreter.declaration(expr));
+    }
+
+    /**
+     * Rewrite a body for the scope of the call site: parameters become the
+     * arguments and this becomes the receiver. Globals read the same from
+     * anywhere, but any other local, super or assignment rules it out.
+     */
+    private class Substitution
+            extends AstRewriter
+    {
+        private final Map<Token, Expr> arguments;
+        private final Expr receiver;
+        boolean failed = false;
+
+        Substitution(Map<Token, Expr> arguments, Expr receiver)
+        {
+            super(Inliner.this.interpreter);
+            this.arguments = arguments;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            if (interpreter.depth(expr) == null) {
+                return expr;
+            }
+            Expr argument = arguments.get(interpreter.declaration(expr));
+            if (argument == null) {
+                failed = true;
+                return expr;
+            }
+            return duplicate(argument);
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr)
+        {
+            if (receiver == null) {
+                failed = true;
+                return expr;
+            }
+            return duplicate(receiver);
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr)
+        {
+            failed = true;
+            return expr;
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr)
+        {
+            failed = true;
+            return expr;
+        }
+
+        private Expr duplicate(Expr expr)
+        {
+            if (expr instanceof Expr.Variable variable) {
+                return copy(variable, new Expr.Variable(variable.name));
+            }
+            if (expr instanceof Expr.This self) {
+                return copy(self, new Expr.This(self.keyword));
+            }
+            return new Expr.Literal(((Expr.Literal) expr).value);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.example.lox;
+
+import org.example.lox.ir.BasicBlock;
+import org.example.lox.ir.ControlFlowGraph;
+import org.example.lox.ir.Instruction;
+import org.example.lox.ir.Op;
+
+/**
+ * What the {@link IrExecutor} learned about the arithmetic of one graph. While
+ * profiling it only watches the phis, the values loops carry around, and
+ * notes which only ever held exact integers. Once the graph warmed up those
+ * are speculated to, with the constants, copies, additions, subtractions and
+ * multiplications computed from them alone, and run as longs. A value that
+ * stops fitting deoptimizes the graph back to doubles for good.
+ */
+class IntegerSpeculation
+{
+    // Edges into phis taken on the graph before deciding what to speculate
+    static final int WARMUP_EDGES = 1_000;
+    // Past this doubles skip integers, so longs would compute something else
+    static final long MAX_EXACT = 1L << 53;
+
+    // How the executor runs each value once speculating, by id
+    static final byte DOUBLE = 0;
+    static final byte CONSTANT = 1;
+    static final byte COPY = 2;
+    static final byte PHI = 3;
+    static final byte ADD = 4;
+    static final byte SUBTRACT = 5;
+    static final byte MULTIPLY = 6;
+    // Comparisons with a long on either side, whose results stay booleans
+    static final byte LESS = 7;
+    static final byte LESS_EQUAL = 8;
+    static final byte GREATER = 9;
+    static final byte GREATER_EQUAL = 10;
+    static final byte EQUAL = 11;
+    static final byte NOT_EQUAL = 12;
+    // Jumps, and branches on one of those comparisons
+    static final byte JUMP = 13;
+    static final byte BRANCH = 14;
+
+    private final ControlFlowGraph graph;
+    private final boolean[] seen;
+    private final boolean[] inexact;
+    private int edges = 0;
+    private boolean[] speculated = null;
+    private byte[] kinds = null;
+    // The operands of each value, the first and the second, by id
+    private int[] lefts = null;
+    private int[] rights = null;
+    // The speculated constants, as longs, by id
+    private long[] constants = null;
+    // Each block as four ints per instruction, see code()
+    private int[][] code = null;
+    private boolean failed = false;
+
+    IntegerSpeculation(ControlFlowGraph graph)
+    {
+        this.graph = graph;
+        this.seen = new boolean[graph.valueCount()];
+        this.inexact = new boolean[graph.valueCount()];
+    }
+
+    boolean profiling()
+    {
+        return speculated == null && !failed;
+    }
+
+    /**
+     * Note the value a phi took over an edge
+     */
+    void observe(Instruction phi, Object value)
+    {
+        seen[phi.id()] = true;
+        inexact[phi.id()] |= !exact(value);
+    }
+
+    void tookEdge()
+    {
+        if (++edges >= WARMUP_EDGES) {
+            decide();
+        }
+    }
+
+    /**
+     * The values to run as longs, indexed by id, or null when there are none
+     * or the speculation failed
+     */
+    boolean[] speculated()
+    {
+        return failed ? null : speculated;
+    }
+
+    /**
+     * How to run each value while speculating, see {@link #DOUBLE} and
+     * the others
+     */
+    byte[] kinds()
+    {
+        return kinds;
+    }
+
+    int[] lefts()
+    {
+        return lefts;
+    }
+
+    int[] rights()
+    {
+        return rights;
+    }
+
+    long[] constants()
+    {
+        return constants;
+    }
+
+    /**
+     * The instructions of each block, by block id, as its kind, its id and
+     * the ids of its two operands. An operand that stays a double has the
+     * complement of its id instead.
+     */
+    int[][] code()
+    {
+        return code;
+    }
+
+    void fail()
+    {
+        failed = true;
+    }
+
+    /**
+     * Whether a value is a double that a long holds without changing what
+     * any arithmetic on it computes, which excludes -0
+     */
+    static boolean exact(Object value)
+    {
+        return value instanceof Double number
+                && Math.abs(number) <= MAX_EXACT
+                && number == Math.rint(number)
+                && Double.doubleToRawLongBits(number) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    private void decide()
+    {
+        speculated = new boolean[graph.valueCount()];
+        kinds = new byte[graph.valueCount()];
+        lefts = new int[graph.valueCount()];
+        rights = new int[graph.valueCount()];
+        for (BasicBlock block : graph.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                int id = instruction.id();
+                if (instruction.op() == Op.PHI) {
+                    speculated[id] = seen[id] && !inexact[id];
+                }
+                else if (instruction.op() == Op.CONSTANT) {
+                    speculated[id] = exact(instruction.attribute());
+                }
+            }
+        }
+
+        // Arithmetic on speculated values, until no more follows. Phis can
+        // come before what flows into them over a back edge.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : graph.blocks()) {
+                for (Instruction instruction : block.instructions()) {
+                    int id = instruction.id();
+                    byte kind = kind(instruction);
+                    if (!speculated[id] && (kind == COPY || kind == ADD || kind == SUBTRACT || kind == MULTIPLY)
+                            && instruction.operands().stream().allMatch(operand -> speculated[operand.id()])) {
+                        speculated[id] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        boolean any = false;
+        for (BasicBlock block : graph.blocks()) {
+            for (Instruction instruction : block.instructions()) {
+                int id = instruction.id();
+                byte kind = kind(instruction);
+                if (instruction.operands().size() > 0) {
+                    lefts[id] = instruction.operand(0).id();
+                }
+                if (instruction.operands().size() > 1) {
+                    rights[id] = instruction.operand(1).id();
+                }
+                if (speculated[id]) {
+                    kinds[id] = kind;
+                    // Constants alone aren't worth it.
+                    any |= kind == PHI;
+                }
+                else if (kind >= LESS && kind <= GREATER_EQUAL) {
+                    boolean left = speculated[instruction.operand(0).id()];
+                    boolean right = speculated[instruction.operand(1).id()];
+                    kinds[id] = left || right ? kind : DOUBLE;
+                }
+                else if (kind >= EQUAL) {
+                    // Equality tells 0 from -0, only compare two longs.
+                    boolean both = speculated[instruction.operand(0).id()] && speculated[instruction.operand(1).id()];
+                    kinds[id] = both ? kind : DOUBLE;
+                }
+            }
+        }
+        if (!any) {
+            failed = true;
+            return;
+        }
+
+        constants = new long[graph.valueCount()];
+        code = new int[graph.blockCount()][];
+        for (BasicBlock block : graph.blocks()) {
+            int[] words = new int[block.instructions().size() * 4];
+            int pc = 0;
+            for (Instruction instruction : block.instructions()) {
+                int id = instruction.id();
+                byte kind = kinds[id];
+                if (kind == CONSTANT) {
+                    constants[id] = (long) (double) (Double) instruction.attribute();
+                }
+                else if (instruction.op() == Op.JUMP) {
+                    kind = JUMP;
+                }
+                else if (instruction.op() == Op.BRANCH && kinds[lefts[id]] >= LESS) {
+                    kind = BRANCH;
+                }
+                words[pc] = kind;
+                words[pc + 1] = id;
+                words[pc + 2] = speculated[lefts[id]] ? lefts[id] : ~lefts[id];
+                words[pc + 3] = speculated[rights[id]] ? rights[id] : ~rights[id];
+                pc += 4;
+            }
+            code[block.id()] = words;
+        }
+    }
+
+    private static byte kind(Instruction instruction)
+    {
+        return switch (instruction.op()) {
+            case CONSTANT -> CONSTANT;
+            case COPY -> COPY;
+            case PHI -> PHI;
+            case BINARY -> switch (((Token) instruction.origin()).type) {
+                case PLUS -> ADD;
+                case MINUS -> SUBTRACT;
+                case STAR -> MULTIPLY;
+                case LESS -> LESS;
+                case LESS_EQUAL -> LESS_EQUAL;
+                case GREATER -> GREATER;
+                case GREATER_EQUAL -> GREATER_EQUAL;
+                case EQUAL_EQUAL -> EQUAL;
+                case BANG_EQUAL -> NOT_EQUAL;
+                default -> DOUBLE;
+            };
+            default -> DOUBLE;
+        };
+    }
+}
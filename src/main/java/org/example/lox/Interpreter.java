@@ -1,13 +1,39 @@
 package org.example.lox;
 
+import org.example.lox.ir.ControlFlowGraph;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Interpreter
         implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 {
     private final Map<Expr, Integer> locals = new HashMap<>();
+    private final Map<Expr, Token> declarations = new HashMap<>();
+    private final Set<Expr.Call> tailCalls = new HashSet<>();
+    private final Set<Stmt.Function> pureFunctions = new HashSet<>();
+    // Method calls bound to the only method they reach, see ClassHierarchy
+    private final Map<Expr.Call, Stmt.Function> boundCalls = new HashMap<>();
+    private final Set<Stmt.Function> boundMethods = new HashSet<>();
+    private final Map<Stmt.Function, Binding> bindings = new HashMap<>();
+    // Local functions that close over nothing, with the one instance each shares
+    private final Map<Stmt.Function, LoxFunction> lifted = new HashMap<>();
+    // Cleared by --no-opt, every run of a local function declaration then creates one
+    boolean liftFunctions = true;
+    // Blocks that run in the enclosing environment, see Resolver#visitBlockStmt
+    private final Set<Stmt.Block> elidedBlocks = new HashSet<>();
+    private final Set<String> watchedPureNames = new HashSet<>();
+    // One per global some node assumes is constant, see GlobalSpeculation
+    private final Map<String, Assumption> assumptions = new HashMap<>();
+    final List<MemoTable> memoTables = new ArrayList<>();
+    // Functions that run from their SSA graph, see IrExecutor
+    private final Map<Stmt.Function, ControlFlowGraph> graphs = new HashMap<>();
+    final IrExecutor irExecutor = new IrExecutor(this);
+    static final int MEMO_CAPACITY = 4096;
     final Environment globals = new Environment();
     private Environment environment = globals;
 
@@ -47,10 +73,68 @@ public class Interpreter
     @Override
     public Object visitBinaryExpr(Expr.Binary expr)
     {
+        if (expr.left instanceof Expr.Get || expr.right instanceof Expr.Get) {
+            return fieldBinary(expr);
+        }
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return binary(expr.operator, left, right);
+    }
 
-        switch (expr.operator.type) {
+    /**
+     * A binary expression reading a field, without boxing the fields stored
+     * as numbers. The inference can't prove a field is a number, so this
+     * checks how it's stored when it runs.
+     */
+    private Object fieldBinary(Expr.Binary expr)
+    {
+        Object left = null;
+        double leftNumber = 0;
+        boolean leftUnboxed = false;
+        if (expr.left instanceof Expr.Get get) {
+            LoxInstance instance = instance(get);
+            leftNumber = instance.getNumber(get.name);
+            leftUnboxed = LoxInstance.isNumber(leftNumber);
+            if (!leftUnboxed) {
+                left = instance.get(get.name);
+            }
+        }
+        else {
+            left = evaluate(expr.left);
+        }
+
+        Object right = null;
+        double rightNumber = 0;
+        boolean rightUnboxed = false;
+        if (expr.right instanceof Expr.Get get) {
+            LoxInstance instance = instance(get);
+            rightNumber = instance.getNumber(get.name);
+            rightUnboxed = LoxInstance.isNumber(rightNumber);
+            if (!rightUnboxed) {
+                right = instance.get(get.name);
+            }
+        }
+        else {
+            right = evaluate(expr.right);
+        }
+
+        if (left instanceof Double number) {
+            leftNumber = number;
+            leftUnboxed = true;
+        }
+        if (right instanceof Double number) {
+            rightNumber = number;
+            rightUnboxed = true;
+        }
+        if (leftUnboxed && rightUnboxed) {
+            return numericBinary(expr.operator, leftNumber, rightNumber);
+        }
+        return binary(expr.operator, leftUnboxed ? (Object) leftNumber : left, rightUnboxed ? (Object) rightNumber : right);
+    }
+
+    Object binary(Token operator, Object left, Object right)
+    {
+        switch (operator.type) {
             case BANG_EQUAL -> {
                 return !isEqual(left, right);
             }
@@ -58,23 +142,23 @@ public class Interpreter
                 return isEqual(left, right);
             }
             case LESS_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left <= (double) right;
             }
             case LESS -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left < (double) right;
             }
             case GREATER_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left >= (double) right;
             }
             case GREATER -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left > (double) right;
             }
             case MINUS -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left - (double) right;
             }
             case PLUS -> {
@@ -86,14 +170,14 @@ public class Interpreter
                 }
             }
             case SLASH -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 if ((double) right == 0) {
-                    throw new RuntimeError(expr.operator, "Divided by the /0");
+                    throw new RuntimeError(operator, "Divided by the /0");
                 }
                 return (double) left / (double) right;
             }
             case STAR -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left * (double) right;
             }
         }
@@ -104,31 +188,75 @@ public class Interpreter
     @Override
     public Object visitCallExpr(Expr.Call expr)
     {
+        Stmt.Function bound = boundCalls.get(expr);
+        if (bound != null) {
+            return callBound(expr, (Expr.Get) expr.callee, bound);
+        }
+
         Object callee = evaluate(expr.callee);
 
         List<Object> arguments = expr.arguments.stream()
                 .map(this::evaluate)
                 .toList();
 
+        return checkCallable(expr.paren, callee, arguments.size()).call(this, arguments);
+    }
+
+    /**
+     * Call the method a call was bound to without looking it up, as long as
+     * the receiver reaches it, the arity was checked when it was bound
+     */
+    private Object callBound(Expr.Call expr, Expr.Get get, Stmt.Function bound)
+    {
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance instance)) {
+            throw new RuntimeError(get.name, "Only instances have properties");
+        }
+        Binding binding = bindings.get(bound);
+        if (binding != null && instance.reaches(binding.owner(), get.name.lexeme)) {
+            LoxFunction method = binding.method().bind(instance);
+            List<Object> arguments = expr.arguments.stream()
+                    .map(this::evaluate)
+                    .toList();
+            return method.call(this, arguments);
+        }
+
+        Object callee = instance.get(get.name);
+        List<Object> arguments = expr.arguments.stream()
+                .map(this::evaluate)
+                .toList();
+        return checkCallable(expr.paren, callee, arguments.size()).call(this, arguments);
+    }
+
+    LoxCallable checkCallable(Token paren, Object callee, int argumentCount)
+    {
         if (!(callee instanceof LoxCallable function)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    argumentCount + ".");
         }
 
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr)
+    {
+        return instance(expr).get(expr.name);
+    }
+
+    /**
+     * The instance whose property is read
+     */
+    private LoxInstance instance(Expr.Get expr)
     {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance loxInstance) {
-            return loxInstance.get(expr.name);
+            return loxInstance;
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties");
@@ -143,6 +271,12 @@ public class Interpreter
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
 
+        if (expr.value instanceof Expr.NumericBinary || expr.value instanceof Expr.NumericUnary) {
+            double number = evaluateNumber(expr.value);
+            ((LoxInstance) object).setNumber(expr.name, number);
+            return number;
+        }
+
         Object value = evaluate(expr.value);
         ((LoxInstance) object).set(expr.name, value);
         return value;
@@ -187,7 +321,7 @@ public class Interpreter
         throw new RuntimeError(operator, "Operands must be numbers. %s, %s".formatted(left, right));
     }
 
-    private boolean isEqual(Object a, Object b)
+    boolean isEqual(Object a, Object b)
     {
         if (a == null && b == null) {
             return true;
@@ -214,7 +348,7 @@ public class Interpreter
     @Override
     public Object visitLogicalExpr(Expr.Logical expr)
     {
-        Object left = evaluate(expr);
+        Object left = evaluate(expr.left);
 
         if (expr.operator.type == TokenType.OR) {
             if (isTruthy(left)) {
@@ -226,16 +360,21 @@ public class Interpreter
                 return left;
             }
         }
-        return evaluate(expr);
+        return evaluate(expr.right);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr)
     {
         Object right = evaluate(expr.right);
-        switch (expr.operator.type) {
+        return unary(expr.operator, right);
+    }
+
+    Object unary(Token operator, Object right)
+    {
+        switch (operator.type) {
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(operator, right);
                 return -((double) right);
             case BANG:
 //                return !((boolean) right);
@@ -245,7 +384,7 @@ public class Interpreter
         return null;
     }
 
-    private boolean isTruthy(Object object)
+    boolean isTruthy(Object object)
     {
         if (object == null) {
             return false;
@@ -269,6 +408,129 @@ public class Interpreter
         return lookUpVariable(expr.name, expr);
     }
 
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr)
+    {
+        Expr.Call call = expr.call;
+        Object callee;
+        if (call.callee instanceof Expr.Get get) {
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance instance)) {
+                throw new RuntimeError(get.name, "Only instances have properties");
+            }
+            LoxFunction method = instance.method(get.name.lexeme);
+            if (method != null && method.declaration.name == expr.function) {
+                return evaluate(expr.body);
+            }
+            callee = instance.get(get.name);
+        }
+        else {
+            callee = evaluate(call.callee);
+            if (callee instanceof LoxFunction function && function.declaration.name == expr.function) {
+                return evaluate(expr.body);
+            }
+        }
+
+        // The binding changed since it was inlined, call whatever it is now.
+        List<Object> arguments = call.arguments.stream()
+                .map(this::evaluate)
+                .toList();
+        return checkCallable(call.paren, callee, arguments.size()).call(this, arguments);
+    }
+
+    @Override
+    public Object visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        return numericBinary(expr.operator, evaluateNumber(expr.left), evaluateNumber(expr.right));
+    }
+
+    @Override
+    public Object visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        return -evaluateNumber(expr.right);
+    }
+
+    @Override
+    public Object visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        return evaluate(expr.callee) instanceof LoxClass klass && klass.declaration.name == expr.klass;
+    }
+
+    @Override
+    public Object visitGlobalExpr(Expr.Global expr)
+    {
+        Assumption assumption = expr.assumption;
+        return assumption.valid ? assumption.value : globals.get(expr.variable.name);
+    }
+
+    /**
+     * Evaluate an expression the type inference proved to be a number,
+     * without boxing the intermediate results of nested arithmetic
+     */
+    private double evaluateNumber(Expr expr)
+    {
+        if (expr instanceof Expr.NumericBinary binary) {
+            return arithmetic(binary.operator, evaluateNumber(binary.left), evaluateNumber(binary.right));
+        }
+        if (expr instanceof Expr.NumericUnary unary) {
+            return -evaluateNumber(unary.right);
+        }
+        if (expr instanceof Expr.Literal literal) {
+            return (double) literal.value;
+        }
+        return (double) evaluate(expr);
+    }
+
+    /**
+     * The same as {@link #binary} on two numbers, without the operand checks
+     */
+    Object numericBinary(Token operator, double left, double right)
+    {
+        switch (operator.type) {
+            case BANG_EQUAL -> {
+                return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+            }
+            case EQUAL_EQUAL -> {
+                return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            }
+            case LESS_EQUAL -> {
+                return left <= right;
+            }
+            case LESS -> {
+                return left < right;
+            }
+            case GREATER_EQUAL -> {
+                return left >= right;
+            }
+            case GREATER -> {
+                return left > right;
+            }
+        }
+        return arithmetic(operator, left, right);
+    }
+
+    private double arithmetic(Token operator, double left, double right)
+    {
+        switch (operator.type) {
+            case MINUS -> {
+                return left - right;
+            }
+            case PLUS -> {
+                return left + right;
+            }
+            case SLASH -> {
+                if (right == 0) {
+                    throw new RuntimeError(operator, "Divided by the /0");
+                }
+                return left / right;
+            }
+            case STAR -> {
+                return left * right;
+            }
+        }
+        throw new RuntimeError(operator, "Not a numeric operator.");
+    }
+
     private Object lookUpVariable(Token name, Expr expr)
     {
         Integer distance = locals.get(expr);
@@ -313,7 +575,7 @@ public class Interpreter
         stmt.accept(this);
     }
 
-    private String stringify(Object object)
+    String stringify(Object object)
     {
         if (object == null) {
             return "nil";
@@ -347,6 +609,9 @@ public class Interpreter
     {
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            if (stmt.increment != null) {
+                evaluate(stmt.increment);
+            }
         }
         return null;
     }
@@ -354,6 +619,12 @@ public class Interpreter
     @Override
     public Void visitBlockStmt(Stmt.Block stmt)
     {
+        if (elidedBlocks.contains(stmt)) {
+            for (Stmt statement : stmt.statements) {
+                execute(statement);
+            }
+            return null;
+        }
         executeBlock(stmt.statements, new Environment(environment));
         return null;
     }
@@ -364,32 +635,84 @@ public class Interpreter
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
-            if (!(superclass instanceof LoxClass)) {
-                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
-            }
+        }
+
+        defineClass(stmt, superclass, environment);
+        return null;
+    }
+
+    void defineClass(Stmt.Class stmt, Object superclass, Environment environment)
+    {
+        if (stmt.superclass != null && !(superclass instanceof LoxClass)) {
+            throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
         }
 
         environment.define(stmt.name.lexeme, null);
 
+        Environment methodEnvironment = environment;
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            methodEnvironment = new Environment(environment);
+            methodEnvironment.define("super", superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            LoxFunction function = new LoxFunction(method, methodEnvironment, method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
-
-        if (superclass != null) {
-            environment = environment.enclosing;
+        LoxClass klass = new LoxClass(stmt, (LoxClass) superclass, methods, initializedFields(stmt));
+        // A later line of the REPL can subclass a class whose calls were bound.
+        boundCalls.values().removeIf(method -> overrides(klass, method));
+        for (Stmt.Function method : stmt.methods) {
+            if (boundMethods.contains(method)) {
+                bindings.put(method, new Binding(klass, methods.get(method.name.lexeme)));
+            }
         }
 
         environment.assign(stmt.name, klass);
-        return null;
+    }
+
+    /**
+     * Whether the class declares a method by the name of one it inherits
+     */
+    private static boolean overrides(LoxClass klass, Stmt.Function method)
+    {
+        if (!klass.declares(method.name.lexeme)) {
+            return false;
+        }
+        for (LoxClass current = klass.superclass; current != null; current = current.superclass) {
+            if (current.declaration.methods.contains(method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The fields the class's own init assigns on this, which with those of the
+     * inherited initializers are the layout its instances are created with
+     */
+    private List<String> initializedFields(Stmt.Class stmt)
+    {
+        List<String> fields = new ArrayList<>();
+        for (Stmt.Function method : stmt.methods) {
+            if (!method.name.lexeme.equals("init")) {
+                continue;
+            }
+            new AstRewriter(this)
+            {
+                @Override
+                public Expr visitSetExpr(Expr.Set expr)
+                {
+                    if (expr.object instanceof Expr.This && !fields.contains(expr.name.lexeme)) {
+                        fields.add(expr.name.lexeme);
+                    }
+                    return super.visitSetExpr(expr);
+                }
+            }.rewrite(method.body);
+        }
+        return fields;
     }
 
     void executeBlock(List<Stmt> statements, Environment environment)
@@ -417,11 +740,34 @@ public class Interpreter
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt)
     {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        environment.define(stmt.name.lexeme, function(stmt, environment));
         return null;
     }
 
+    LoxFunction function(Stmt.Function declaration, Environment closure)
+    {
+        if (lifted.containsKey(declaration)) {
+            LoxFunction function = lifted.get(declaration);
+            if (function == null) {
+                // It only looks past its own scope for globals.
+                function = newFunction(declaration, globals);
+                lifted.put(declaration, function);
+            }
+            return function;
+        }
+        return newFunction(declaration, closure);
+    }
+
+    private LoxFunction newFunction(Stmt.Function declaration, Environment closure)
+    {
+        LoxFunction function = new LoxFunction(declaration, closure, false);
+        if (pureFunctions.contains(declaration)) {
+            function.memo = new MemoTable(declaration.name.lexeme, MEMO_CAPACITY);
+            memoTables.add(function.memo);
+        }
+        return function;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt)
     {
@@ -433,6 +779,20 @@ public class Interpreter
     @Override
     public Void visitReturnStmt(Stmt.Return stmt)
     {
+        if (stmt.value instanceof Expr.Call call && tailCalls.contains(call)) {
+            Object callee = evaluate(call.callee);
+            List<Object> arguments = call.arguments.stream()
+                    .map(this::evaluate)
+                    .toList();
+
+            LoxCallable function = checkCallable(call.paren, callee, arguments.size());
+            if (function instanceof LoxFunction loxFunction) {
+                // Let the caller's LoxFunction.call loop run it, so the Java stack doesn't grow.
+                throw new TailCall(loxFunction, arguments);
+            }
+            throw new Return(function.call(this, arguments));
+        }
+
         Object value = null;
         if (stmt.value != null) {
             value = evaluate(stmt.value);
@@ -458,6 +818,209 @@ public class Interpreter
         locals.put(expr, depth);
     }
 
+    void bind(Expr expr, Token declaration)
+    {
+        declarations.put(expr, declaration);
+    }
+
+    /**
+     * The name token of the local declaration the expression refers to, null
+     * for globals, 'this' and 'super'
+     */
+    Token declaration(Expr expr)
+    {
+        return declarations.get(expr);
+    }
+
+    /**
+     * Carry what the resolver recorded about a node over to the node an
+     * optimization pass rebuilt it as
+     */
+    void copyAnnotations(Expr from, Expr to)
+    {
+        Integer depth = locals.get(from);
+        if (depth != null) {
+            locals.put(to, depth);
+        }
+        Token declaration = declarations.get(from);
+        if (declaration != null) {
+            declarations.put(to, declaration);
+        }
+        if (from instanceof Expr.Call call && to instanceof Expr.Call copy && tailCalls.contains(call)) {
+            tailCalls.add(copy);
+        }
+    }
+
+    void copyAnnotations(Stmt from, Stmt to)
+    {
+        if (from instanceof Stmt.Function function && to instanceof Stmt.Function copy
+                && pureFunctions.contains(function)) {
+            pureFunctions.add(copy);
+        }
+        if (from instanceof Stmt.Function function && to instanceof Stmt.Function copy && lifted.containsKey(function)) {
+            lifted.put(copy, null);
+        }
+        if (from instanceof Stmt.Block block && to instanceof Stmt.Block copy && elidedBlocks.contains(block)) {
+            elidedBlocks.add(copy);
+        }
+    }
+
+    /**
+     * Drop what was recorded about statements no longer in the program, the
+     * declarations an {@link IncrementalFrontEnd} parsed again
+     */
+    void forget(List<Stmt> statements)
+    {
+        new AstRewriter(this)
+        {
+            @Override
+            Expr rewrite(Expr expr)
+            {
+                locals.remove(expr);
+                declarations.remove(expr);
+                if (expr instanceof Expr.Call call) {
+                    tailCalls.remove(call);
+                    boundCalls.remove(call);
+                }
+                return super.rewrite(expr);
+            }
+
+            @Override
+            Stmt rewrite(Stmt stmt)
+            {
+                if (stmt instanceof Stmt.Function function) {
+                    pureFunctions.remove(function);
+                    boundMethods.remove(function);
+                    bindings.remove(function);
+                    lifted.remove(function);
+                    graphs.remove(function);
+                }
+                if (stmt instanceof Stmt.Block block) {
+                    elidedBlocks.remove(block);
+                }
+                return super.rewrite(stmt);
+            }
+        }.rewrite(statements);
+    }
+
+    /**
+     * How many nodes the resolver recorded something about
+     */
+    int annotated()
+    {
+        return locals.size() + declarations.size() + tailCalls.size() + lifted.size() + elidedBlocks.size();
+    }
+
+    /**
+     * The distance the resolver bound the expression to, null for globals
+     */
+    Integer depth(Expr expr)
+    {
+        return locals.get(expr);
+    }
+
+    private record Binding(LoxClass owner, LoxFunction method) {}
+
+    void bindCall(Expr.Call call, Stmt.Function method)
+    {
+        boundCalls.put(call, method);
+        boundMethods.add(method);
+    }
+
+    /**
+     * The method the call was bound to, null when it looks the method up
+     */
+    Stmt.Function boundMethod(Expr.Call call)
+    {
+        return boundCalls.get(call);
+    }
+
+    /**
+     * Share one instance of a local function among all the times its
+     * declaration runs, see Resolver#resolveFunction
+     */
+    void lift(Stmt.Function function)
+    {
+        if (liftFunctions) {
+            lifted.put(function, null);
+        }
+    }
+
+    void elide(Stmt.Block block)
+    {
+        elidedBlocks.add(block);
+    }
+
+    /**
+     * Whether the block has no environment of its own, so depths don't count it
+     */
+    boolean isElided(Stmt.Block block)
+    {
+        return elidedBlocks.contains(block);
+    }
+
+    boolean isLifted(Stmt.Function function)
+    {
+        return lifted.containsKey(function);
+    }
+
+    /**
+     * Cache the results of functions found by the {@link PurityAnalyzer}. They
+     * call each other through globals, so any of those names being defined or
+     * assigned again drops every cached result.
+     */
+    void memoize(Set<Stmt.Function> functions)
+    {
+        pureFunctions.addAll(functions);
+        for (Stmt.Function function : functions) {
+            if (watchedPureNames.add(function.name.lexeme)) {
+                globals.watch(function.name.lexeme, () -> memoTables.forEach(MemoTable::clear));
+            }
+        }
+    }
+
+    /**
+     * The assumption that a global keeps its current value, or the first one
+     * it's defined with when it isn't yet
+     */
+    Assumption assume(String name)
+    {
+        Assumption assumption = assumptions.get(name);
+        if (assumption == null) {
+            Assumption created = new Assumption(name);
+            if (globals.defines(name)) {
+                created.changed(globals.getAt(0, name));
+            }
+            globals.watch(name, () -> created.changed(globals.getAt(0, name)));
+            assumptions.put(name, created);
+            assumption = created;
+        }
+        return assumption;
+    }
+
+    void useGraph(Stmt.Function function, ControlFlowGraph graph)
+    {
+        graphs.put(function, graph);
+    }
+
+    ControlFlowGraph graph(Stmt.Function function)
+    {
+        return graphs.get(function);
+    }
+
+    /**
+     * Mark a call whose value is returned directly, see {@link TailCall}
+     */
+    void tailCall(Expr.Call call)
+    {
+        tailCalls.add(call);
+    }
+
+    boolean isTailCall(Expr.Call call)
+    {
+        return tailCalls.contains(call);
+    }
+
     static class RuntimeError
             extends RuntimeException
     {
@@ -0,0 +1,489 @@
+package org.example.lox;
+
+import org.example.lox.ir.BasicBlock;
+import org.example.lox.ir.ControlFlowGraph;
+import org.example.lox.ir.Instruction;
+import org.example.lox.ir.Op;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Run a function from its optimized SSA graph rather than its syntax tree.
+ * Every value lives in a slot of one array per call, so locals cost neither
+ * an {@link Environment} nor a lookup by name. The values an
+ * {@link IntegerSpeculation} picked live in a second array, as longs.
+ */
+class IrExecutor
+{
+    private final Interpreter interpreter;
+    private final Map<ControlFlowGraph, PhiMoves> moves = new IdentityHashMap<>();
+    private final Map<ControlFlowGraph, IntegerSpeculation> speculations = new IdentityHashMap<>();
+    // Set by --int-speculation
+    boolean speculateIntegers = false;
+
+    IrExecutor(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    Object execute(ControlFlowGraph graph, LoxFunction function, List<Object> arguments)
+    {
+        IntegerSpeculation speculation = speculateIntegers
+                ? speculations.computeIfAbsent(graph, IntegerSpeculation::new)
+                : null;
+        PhiMoves phiMoves = moves.computeIfAbsent(graph, PhiMoves::new);
+        return new Activation(graph, phiMoves, function, arguments, speculation).run();
+    }
+
+    /**
+     * The phis of each block of a graph, by block id, and for each edge into
+     * the block the values they take over it, so moving them reads arrays
+     * rather than lists of instructions
+     */
+    private static class PhiMoves
+    {
+        private final int[][] phis;
+        private final int[][][] sources;
+
+        PhiMoves(ControlFlowGraph graph)
+        {
+            phis = new int[graph.blockCount()][0];
+            sources = new int[graph.blockCount()][][];
+            for (BasicBlock block : graph.blocks()) {
+                List<Instruction> instructions = block.instructions();
+                int count = 0;
+                while (count < instructions.size() && instructions.get(count).op() == Op.PHI) {
+                    count++;
+                }
+                int[] ids = new int[count];
+                int[][] edges = new int[block.predecessors().size()][count];
+                for (int i = 0; i < count; i++) {
+                    Instruction phi = instructions.get(i);
+                    ids[i] = phi.id();
+                    for (int edge = 0; edge < edges.length; edge++) {
+                        edges[edge][i] = phi.operand(edge).id();
+                    }
+                }
+                phis[block.id()] = ids;
+                sources[block.id()] = edges;
+            }
+        }
+    }
+
+    /**
+     * The state of one call
+     */
+    private class Activation
+    {
+        // What a run returns to switch between doubles and longs
+        private static final Object SWITCH = new Object();
+
+        private final ControlFlowGraph graph;
+        private final PhiMoves moves;
+        private final LoxFunction function;
+        private final List<Object> arguments;
+        private IntegerSpeculation speculation;
+        private final Object[] values;
+        // Where the call is: the next instruction to run, and the block before
+        private BasicBlock block;
+        private BasicBlock previous = null;
+        private int index = 0;
+        // While the call runs speculatively, the values it keeps as longs instead
+        private long[] integers = null;
+        private boolean[] speculated = null;
+        private int[][] code = null;
+        // Where phis() gathers the values coming in over an edge before moving them
+        private Object[] incoming = null;
+        private long[] incomingIntegers = null;
+
+        Activation(ControlFlowGraph graph, PhiMoves moves, LoxFunction function, List<Object> arguments, IntegerSpeculation speculation)
+        {
+            this.graph = graph;
+            this.moves = moves;
+            this.function = function;
+            this.arguments = arguments;
+            this.speculation = speculation;
+            this.values = new Object[graph.valueCount()];
+            this.block = graph.entry();
+        }
+
+        Object run()
+        {
+            while (true) {
+                Object result = integers == null ? runDoubles() : runLongs();
+                if (result != SWITCH) {
+                    return result;
+                }
+            }
+        }
+
+        /**
+         * Run every instruction on boxed values until the call returns, or
+         * starts speculating
+         */
+        private Object runDoubles()
+        {
+            while (true) {
+                List<Instruction> instructions = block.instructions();
+                BasicBlock next = null;
+                while (next == null) {
+                    Instruction instruction = instructions.get(index++);
+                    if (instruction.op() == Op.RETURN) {
+                        return operand(instruction, 0);
+                    }
+                    next = execute(instruction);
+                }
+                enter(next);
+                if (integers != null) {
+                    return SWITCH;
+                }
+            }
+        }
+
+        /**
+         * Run the blocks from the speculation's code, the arithmetic on longs
+         * and the rest as runDoubles() would, until the call returns or
+         * deoptimizes
+         */
+        private Object runLongs()
+        {
+            long[] integers = this.integers;
+            while (true) {
+                int[] code = this.code[block.id()];
+                BasicBlock next = null;
+                for (int pc = index * 4; next == null; pc += 4) {
+                    int kind = code[pc];
+                    int id = code[pc + 1];
+                    int left = code[pc + 2];
+                    int right = code[pc + 3];
+                    long result;
+                    switch (kind) {
+                        case IntegerSpeculation.CONSTANT -> {
+                            // Already there, see enter()
+                            continue;
+                        }
+                        case IntegerSpeculation.COPY -> {
+                            integers[id] = integers[left];
+                            continue;
+                        }
+                        case IntegerSpeculation.ADD -> result = integers[left] + integers[right];
+                        case IntegerSpeculation.SUBTRACT -> result = integers[left] - integers[right];
+                        case IntegerSpeculation.MULTIPLY -> result = multiply(integers[left], integers[right]);
+                        case IntegerSpeculation.JUMP -> {
+                            next = block.successors().get(0);
+                            continue;
+                        }
+                        case IntegerSpeculation.BRANCH -> {
+                            // On a comparison, always a boolean
+                            next = block.successors().get((Boolean) values[~left] ? 0 : 1);
+                            continue;
+                        }
+                        case IntegerSpeculation.DOUBLE -> {
+                            Instruction instruction = block.instructions().get(pc >> 2);
+                            if (instruction.op() == Op.RETURN) {
+                                return operand(instruction, 0);
+                            }
+                            next = execute(instruction);
+                            continue;
+                        }
+                        default -> {
+                            if (!compare(kind, id, left, right)) {
+                                next = execute(block.instructions().get(pc >> 2));
+                            }
+                            continue;
+                        }
+                    }
+                    if (result < -IntegerSpeculation.MAX_EXACT || result > IntegerSpeculation.MAX_EXACT) {
+                        // Run it again as doubles.
+                        index = pc >> 2;
+                        deoptimize();
+                        return SWITCH;
+                    }
+                    integers[id] = result;
+                }
+                enter(next);
+                if (this.integers == null) {
+                    return SWITCH;
+                }
+            }
+        }
+
+        /**
+         * Run an instruction on boxed values, other than a return, and the
+         * block it jumps to if any
+         */
+        private BasicBlock execute(Instruction instruction)
+        {
+            Object value = null;
+            switch (instruction.op()) {
+                case CONSTANT -> value = instruction.attribute();
+                case PARAM -> value = arguments.get((int) instruction.attribute());
+                case THIS -> value = function.closure.getAt(0, "this");
+                case COPY -> value = operand(instruction, 0);
+                case BINARY -> value = interpreter.binary((Token) instruction.origin(), operand(instruction, 0), operand(instruction, 1));
+                case UNARY -> value = interpreter.unary((Token) instruction.origin(), operand(instruction, 0));
+                case GLOBAL -> value = interpreter.globals.get((Token) instruction.origin());
+                case SET_GLOBAL -> {
+                    value = operand(instruction, 0);
+                    interpreter.globals.assign((Token) instruction.origin(), value);
+                }
+                case GET_PROPERTY -> {
+                    Token name = (Token) instruction.origin();
+                    if (!(operand(instruction, 0) instanceof LoxInstance instance)) {
+                        throw new Interpreter.RuntimeError(name, "Only instances have properties");
+                    }
+                    value = instance.get(name);
+                }
+                case CHECK_INSTANCE -> {
+                    if (!(operand(instruction, 0) instanceof LoxInstance)) {
+                        throw new Interpreter.RuntimeError((Token) instruction.origin(), "Only instances have fields.");
+                    }
+                }
+                case SET_PROPERTY -> {
+                    value = operand(instruction, 1);
+                    ((LoxInstance) operand(instruction, 0)).set((Token) instruction.origin(), value);
+                }
+                case CALL -> value = call(instruction);
+                case PRINT -> System.out.println(interpreter.stringify(operand(instruction, 0)));
+                case JUMP -> {
+                    return block.successors().get(0);
+                }
+                case BRANCH -> {
+                    return block.successors().get(interpreter.isTruthy(operand(instruction, 0)) ? 0 : 1);
+                }
+                case RETURN, PHI -> throw new IllegalStateException("Not run one by one: " + instruction.op());
+            }
+            values[instruction.id()] = value;
+            return null;
+        }
+
+        /**
+         * Go on to the next block, past its phis
+         */
+        private void enter(BasicBlock next)
+        {
+            previous = block;
+            block = next;
+            index = phis();
+        }
+
+        /**
+         * Start keeping the speculated values as longs, once the graph warmed
+         * up and if every one already computed fits
+         */
+        private void speculate()
+        {
+            boolean[] speculated = speculation.speculated();
+            if (speculated == null) {
+                speculation = null;
+                return;
+            }
+            long[] integers = speculation.constants().clone();
+            for (int id = 0; id < values.length; id++) {
+                if (speculated[id] && values[id] != null) {
+                    if (!IntegerSpeculation.exact(values[id])) {
+                        // This call goes on with doubles.
+                        speculation = null;
+                        return;
+                    }
+                    integers[id] = (long) (double) (Double) values[id];
+                }
+            }
+            this.speculated = speculated;
+            this.code = speculation.code();
+            this.integers = integers;
+        }
+
+        /**
+         * The product of two longs, or one too big to keep speculating on
+         * when doubles would compute something else
+         */
+        private static long multiply(long left, long right)
+        {
+            if (left == 0 || right == 0) {
+                // The double product of zero and a negative number is -0.
+                return left < 0 || right < 0 ? Long.MIN_VALUE : 0;
+            }
+            long high = Math.multiplyHigh(left, right);
+            long low = left * right;
+            return (high == 0 && low >= 0) || (high == -1 && low < 0) ? low : Long.MIN_VALUE;
+        }
+
+        /**
+         * Compare a long with a long or a number, or return false. Doubles hold
+         * those longs exactly, so this answers what comparing the doubles
+         * would. Operands left as doubles come as the complement of their id.
+         */
+        private boolean compare(int kind, int id, int left, int right)
+        {
+            double a;
+            double b;
+            if (left >= 0) {
+                a = integers[left];
+            }
+            else if (values[~left] instanceof Double number) {
+                a = number;
+            }
+            else {
+                return false;
+            }
+            if (right >= 0) {
+                b = integers[right];
+            }
+            else if (values[~right] instanceof Double number) {
+                b = number;
+            }
+            else {
+                return false;
+            }
+            values[id] = switch (kind) {
+                case IntegerSpeculation.LESS -> a < b;
+                case IntegerSpeculation.LESS_EQUAL -> a <= b;
+                case IntegerSpeculation.GREATER -> a > b;
+                case IntegerSpeculation.GREATER_EQUAL -> a >= b;
+                // Only picked for two longs, so never -0.
+                case IntegerSpeculation.EQUAL -> a == b;
+                default -> a != b;
+            };
+            return true;
+        }
+
+        /**
+         * Go back to keeping every value as a double, and never speculate on
+         * the graph again
+         */
+        private void deoptimize()
+        {
+            for (int id = 0; id < values.length; id++) {
+                if (speculated[id]) {
+                    // Ones not computed yet get a number no one reads.
+                    values[id] = (double) integers[id];
+                }
+            }
+            integers = null;
+            speculated = null;
+            code = null;
+            speculation.fail();
+            speculation = null;
+        }
+
+        private boolean isInteger(int id)
+        {
+            return speculated[id] || IntegerSpeculation.exact(values[id]);
+        }
+
+        private long integer(int id)
+        {
+            return speculated[id] ? integers[id] : (long) (double) (Double) values[id];
+        }
+
+        /**
+         * Move the values coming in over the edge from the previous block into
+         * the block's phis, all at once, and return the index after the last
+         * phi. While the graph is profiled, this is where it watches them.
+         */
+        private int phis()
+        {
+            int[] phis = moves.phis[block.id()];
+            if (phis.length == 0) {
+                return 0;
+            }
+            int edge = 0;
+            while (block.predecessors().get(edge) != previous) {
+                edge++;
+            }
+            int[] sources = moves.sources[block.id()][edge];
+            if (incoming == null || incoming.length < phis.length) {
+                incoming = new Object[phis.length];
+                incomingIntegers = new long[phis.length];
+            }
+            if (integers != null && !moveIntegers(phis, sources)) {
+                deoptimize();
+            }
+            if (integers == null) {
+                move(phis, sources);
+            }
+            return phis.length;
+        }
+
+        private void move(int[] phis, int[] sources)
+        {
+            for (int i = 0; i < phis.length; i++) {
+                incoming[i] = values[sources[i]];
+            }
+            for (int i = 0; i < phis.length; i++) {
+                values[phis[i]] = incoming[i];
+            }
+            if (speculation != null) {
+                if (speculation.profiling()) {
+                    List<Instruction> instructions = block.instructions();
+                    for (int i = 0; i < phis.length; i++) {
+                        speculation.observe(instructions.get(i), incoming[i]);
+                    }
+                    speculation.tookEdge();
+                }
+                if (!speculation.profiling()) {
+                    speculate();
+                }
+            }
+        }
+
+        /**
+         * Move phis while speculating, the ones kept as longs from longs or
+         * from doubles that are exact integers, or return false
+         */
+        private boolean moveIntegers(int[] phis, int[] sources)
+        {
+            for (int i = 0; i < phis.length; i++) {
+                if (speculated[phis[i]] && !isInteger(sources[i])) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < phis.length; i++) {
+                if (speculated[phis[i]]) {
+                    incomingIntegers[i] = integer(sources[i]);
+                }
+                else {
+                    incoming[i] = value(sources[i]);
+                }
+            }
+            for (int i = 0; i < phis.length; i++) {
+                if (speculated[phis[i]]) {
+                    integers[phis[i]] = incomingIntegers[i];
+                }
+                else {
+                    values[phis[i]] = incoming[i];
+                }
+            }
+            return true;
+        }
+
+        private Object call(Instruction instruction)
+        {
+            List<Object> arguments = new ArrayList<>(instruction.operands().size() - 1);
+            for (int i = 1; i < instruction.operands().size(); i++) {
+                arguments.add(operand(instruction, i));
+            }
+            Object callee = operand(instruction, 0);
+            return interpreter.checkCallable((Token) instruction.origin(), callee, arguments.size()).call(interpreter, arguments);
+        }
+
+        private Object operand(Instruction instruction, int index)
+        {
+            return value(instruction.operand(index));
+        }
+
+        private Object value(Instruction value)
+        {
+            return value(value.id());
+        }
+
+        private Object value(int id)
+        {
+            return integers != null && speculated[id] ? (Object) (double) integers[id] : values[id];
+        }
+    }
+}
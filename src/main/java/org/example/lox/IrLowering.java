@@ -0,0 +1,454 @@
+package org.example.lox;
+
+import org.example.lox.ir.BasicBlock;
+import org.example.lox.ir.ControlFlowGraph;
+import org.example.lox.ir.GraphBuilder;
+import org.example.lox.ir.Instruction;
+import org.example.lox.ir.Op;
+import org.example.lox.ir.Pipeline;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Lower a resolved function to an SSA {@link ControlFlowGraph}. Locals
+ * become SSA values keyed by their declaration token, globals and fields
+ * stay loads and stores. Only functions that keep all their state in their
+ * own locals are lowered: nested functions and classes, captured variables,
+ * super and tail calls make {@link #lower} return null.
+ */
+class IrLowering
+        implements Expr.Visitor<Instruction>, Stmt.Visitor<Void>
+{
+    private final Interpreter interpreter;
+    private GraphBuilder builder;
+    private BasicBlock current;
+    // Params and variables the function being lowered declares
+    private final Set<Token> locals = new HashSet<>();
+    // Whether it's a method, whose closure holds this
+    private boolean method;
+    private String unsupported;
+
+    private static class Unsupported
+            extends RuntimeException
+    {
+        Unsupported(String reason)
+        {
+            super(reason, null, false, false);
+        }
+    }
+
+    IrLowering(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    ControlFlowGraph lower(Stmt.Function function, boolean method)
+    {
+        this.method = method;
+        List<String> params = function.params.stream().map(param -> param.lexeme).toList();
+        builder = new GraphBuilder(function.name.lexeme, params);
+        current = builder.entry();
+        locals.clear();
+        unsupported = null;
+        try {
+            for (int i = 0; i < function.params.size(); i++) {
+                Token param = function.params.get(i);
+                locals.add(param);
+                builder.write(param, current, builder.emit(current, Op.PARAM, i, param));
+            }
+            lower(function.body);
+            if (!builder.isTerminated(current)) {
+                builder.ret(current, constant(null));
+            }
+            return builder.finish();
+        }
+        catch (Unsupported reason) {
+            unsupported = reason.getMessage();
+            return null;
+        }
+    }
+
+    /**
+     * Lower and optimize every function and method in a program, including
+     * nested ones, and return the graphs of the ones that could be lowered
+     */
+    Map<Stmt.Function, ControlFlowGraph> lowerAll(List<Stmt> statements, Consumer<String> dump)
+    {
+        List<Stmt.Function> functions = new ArrayList<>();
+        Set<Stmt.Function> methods = new HashSet<>();
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Stmt visitClassStmt(Stmt.Class stmt)
+            {
+                methods.addAll(stmt.methods);
+                return super.visitClassStmt(stmt);
+            }
+
+            @Override
+            public Stmt visitFunctionStmt(Stmt.Function stmt)
+            {
+                // One not parsed yet runs in the interpreter.
+                if (!LazyBody.pending(stmt)) {
+                    functions.add(stmt);
+                }
+                return super.visitFunctionStmt(stmt);
+            }
+        }.rewrite(statements);
+
+        Map<Stmt.Function, ControlFlowGraph> graphs = new LinkedHashMap<>();
+        for (Stmt.Function function : functions) {
+            ControlFlowGraph graph = lower(function, methods.contains(function));
+            if (graph == null) {
+                if (dump != null) {
+                    dump.accept("-- " + function.name.lexeme + ": not lowered, " + unsupported + "\n");
+                }
+                continue;
+            }
+            Pipeline.standard().run(graph, dump);
+            graphs.put(function, graph);
+        }
+        return graphs;
+    }
+
+    /**
+     * Why the last function couldn't be lowered
+     */
+    String unsupported()
+    {
+        return unsupported;
+    }
+
+    private void lower(List<Stmt> statements)
+    {
+        for (Stmt statement : statements) {
+            if (builder.isTerminated(current)) {
+                // Code after a return, the graph drops it when it's finished.
+                current = builder.newBlock();
+                builder.seal(current);
+            }
+            statement.accept(this);
+        }
+    }
+
+    private Instruction lower(Expr expr)
+    {
+        return expr.accept(this);
+    }
+
+    private Instruction constant(Object value)
+    {
+        return builder.emit(current, Op.CONSTANT, value, null);
+    }
+
+    private Token local(Expr expr, Token name)
+    {
+        Token declaration = interpreter.declaration(expr);
+        if (declaration == null || !locals.contains(declaration)) {
+            throw new Unsupported("captures '" + name.lexeme + "'");
+        }
+        return declaration;
+    }
+
+    private void assign(Token declaration, Instruction value)
+    {
+        builder.write(declaration, current, builder.emit(current, Op.COPY, null, declaration, value));
+    }
+
+    /**
+     * Lower two ways to produce one value, joined with a phi where they meet
+     */
+    private Instruction join(Object result, BasicBlock end)
+    {
+        builder.seal(end);
+        current = end;
+        return builder.read(result, end);
+    }
+
+    @Override
+    public Instruction visitAssignExpr(Expr.Assign expr)
+    {
+        Instruction value = lower(expr.value);
+        if (interpreter.depth(expr) == null) {
+            builder.emit(current, Op.SET_GLOBAL, expr.name.lexeme, expr.name, value);
+            return value;
+        }
+        assign(local(expr, expr.name), value);
+        return value;
+    }
+
+    @Override
+    public Instruction visitBinaryExpr(Expr.Binary expr)
+    {
+        Instruction left = lower(expr.left);
+        Instruction right = lower(expr.right);
+        return builder.emit(current, Op.BINARY, expr.operator.lexeme, expr.operator, left, right);
+    }
+
+    @Override
+    public Instruction visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        Instruction left = lower(expr.left);
+        Instruction right = lower(expr.right);
+        return builder.emit(current, Op.BINARY, expr.operator.lexeme, expr.operator, left, right);
+    }
+
+    @Override
+    public Instruction visitCallExpr(Expr.Call expr)
+    {
+        Instruction[] operands = new Instruction[expr.arguments.size() + 1];
+        operands[0] = lower(expr.callee);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            operands[i + 1] = lower(expr.arguments.get(i));
+        }
+        return builder.emit(current, Op.CALL, null, expr.paren, operands);
+    }
+
+    @Override
+    public Instruction visitGetExpr(Expr.Get expr)
+    {
+        Instruction object = lower(expr.object);
+        return builder.emit(current, Op.GET_PROPERTY, expr.name.lexeme, expr.name, object);
+    }
+
+    @Override
+    public Instruction visitGroupingExpr(Expr.Grouping expr)
+    {
+        return lower(expr.expression);
+    }
+
+    @Override
+    public Instruction visitLiteralExpr(Expr.Literal expr)
+    {
+        return constant(expr.value);
+    }
+
+    @Override
+    public Instruction visitLogicalExpr(Expr.Logical expr)
+    {
+        Object result = new Object();
+        Instruction left = lower(expr.left);
+        builder.write(result, current, left);
+
+        BasicBlock right = builder.newBlock();
+        BasicBlock end = builder.newBlock();
+        if (expr.operator.type == TokenType.OR) {
+            builder.branch(current, left, end, right);
+        }
+        else {
+            builder.branch(current, left, right, end);
+        }
+        builder.seal(right);
+        current = right;
+        builder.write(result, current, lower(expr.right));
+        builder.jump(current, end);
+        return join(result, end);
+    }
+
+    @Override
+    public Instruction visitSetExpr(Expr.Set expr)
+    {
+        Instruction object = lower(expr.object);
+        builder.emit(current, Op.CHECK_INSTANCE, expr.name.lexeme, expr.name, object);
+        Instruction value = lower(expr.value);
+        builder.emit(current, Op.SET_PROPERTY, expr.name.lexeme, expr.name, object, value);
+        return value;
+    }
+
+    @Override
+    public Instruction visitSuperExpr(Expr.Super expr)
+    {
+        throw new Unsupported("uses super");
+    }
+
+    @Override
+    public Instruction visitThisExpr(Expr.This expr)
+    {
+        if (!method) {
+            // The this of the method around it, a captured variable.
+            throw new Unsupported("uses this of an enclosing method");
+        }
+        return builder.emit(current, Op.THIS, null, expr.keyword);
+    }
+
+    @Override
+    public Instruction visitUnaryExpr(Expr.Unary expr)
+    {
+        Instruction right = lower(expr.right);
+        return builder.emit(current, Op.UNARY, expr.operator.lexeme, expr.operator, right);
+    }
+
+    @Override
+    public Instruction visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        Instruction right = lower(expr.right);
+        return builder.emit(current, Op.UNARY, expr.operator.lexeme, expr.operator, right);
+    }
+
+    @Override
+    public Instruction visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        // Taking the unreplaced branch is always correct, it reads the class itself.
+        return constant(false);
+    }
+
+    @Override
+    public Instruction visitGlobalExpr(Expr.Global expr)
+    {
+        return visitVariableExpr(expr.variable);
+    }
+
+    @Override
+    public Instruction visitTernaryExpr(Expr.Ternary expr)
+    {
+        Object result = new Object();
+        Instruction compare = lower(expr.compare);
+        BasicBlock left = builder.newBlock();
+        BasicBlock right = builder.newBlock();
+        BasicBlock end = builder.newBlock();
+        builder.branch(current, compare, left, right);
+
+        builder.seal(left);
+        current = left;
+        builder.write(result, current, lower(expr.left));
+        builder.jump(current, end);
+
+        builder.seal(right);
+        current = right;
+        builder.write(result, current, lower(expr.right));
+        builder.jump(current, end);
+        return join(result, end);
+    }
+
+    @Override
+    public Instruction visitVariableExpr(Expr.Variable expr)
+    {
+        if (interpreter.depth(expr) == null) {
+            return builder.emit(current, Op.GLOBAL, expr.name.lexeme, expr.name);
+        }
+        return builder.read(local(expr, expr.name), current);
+    }
+
+    @Override
+    public Instruction visitInlineExpr(Expr.Inline expr)
+    {
+        // The guarded call is always a correct way to compute it.
+        return visitCallExpr(expr.call);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        lower(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt)
+    {
+        throw new Unsupported("declares class " + stmt.name.lexeme);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        lower(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt)
+    {
+        throw new Unsupported("declares function " + stmt.name.lexeme);
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        Instruction condition = lower(stmt.condition);
+        BasicBlock then = builder.newBlock();
+        BasicBlock otherwise = builder.newBlock();
+        BasicBlock end = builder.newBlock();
+        builder.branch(current, condition, then, otherwise);
+
+        builder.seal(then);
+        current = then;
+        lower(List.of(stmt.thenBranch));
+        if (!builder.isTerminated(current)) {
+            builder.jump(current, end);
+        }
+
+        builder.seal(otherwise);
+        current = otherwise;
+        if (stmt.elseBranch != null) {
+            lower(List.of(stmt.elseBranch));
+        }
+        if (!builder.isTerminated(current)) {
+            builder.jump(current, end);
+        }
+
+        builder.seal(end);
+        current = end;
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        // The header stays open until the back edge is known.
+        BasicBlock header = builder.newBlock();
+        builder.jump(current, header);
+        current = header;
+        Instruction condition = lower(stmt.condition);
+        BasicBlock body = builder.newBlock();
+        BasicBlock exit = builder.newBlock();
+        builder.branch(current, condition, body, exit);
+
+        builder.seal(body);
+        current = body;
+        lower(List.of(stmt.body));
+        if (stmt.increment != null && !builder.isTerminated(current)) {
+            lower(stmt.increment);
+        }
+        if (!builder.isTerminated(current)) {
+            builder.jump(current, header);
+        }
+        builder.seal(header);
+
+        builder.seal(exit);
+        current = exit;
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        builder.emit(current, Op.PRINT, null, null, lower(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt)
+    {
+        if (stmt.value instanceof Expr.Call call && interpreter.isTailCall(call)) {
+            throw new Unsupported("makes a tail call");
+        }
+        builder.ret(current, stmt.value == null ? constant(null) : lower(stmt.value));
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        Instruction value = stmt.initializer == null ? constant(null) : lower(stmt.initializer);
+        locals.add(stmt.name);
+        assign(stmt.name, value);
+        return null;
+    }
+}
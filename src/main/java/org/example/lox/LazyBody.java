@@ -0,0 +1,102 @@
+package org.example.lox;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The body of a function the parser only brace-matched, see --lazy. It's
+ * kept as source text and parsed and resolved the first time anything reads
+ * it, usually the function's first call. Passes that run before that leave
+ * pending bodies alone, see {@link #pending}.
+ */
+class LazyBody
+        extends AbstractList<Stmt>
+{
+    private final Token name;
+    // From the { to the }
+    private String source;
+    private final int line;
+    // Every name followed by =, a superset of the globals the body assigns
+    final Set<String> assigned;
+    // Set by the Resolver, to resolve the statements in the scopes around the declaration
+    private Consumer<List<Stmt>> resolution = null;
+    private List<Stmt> statements = null;
+
+    LazyBody(Token name, String source, int line, Set<String> assigned)
+    {
+        this.name = name;
+        this.source = source;
+        this.line = line;
+        this.assigned = assigned;
+    }
+
+    /**
+     * Whether the function's body is still unparsed
+     */
+    static boolean pending(Stmt.Function function)
+    {
+        return function.body instanceof LazyBody body && body.statements == null;
+    }
+
+    void resolveWith(Consumer<List<Stmt>> resolution)
+    {
+        this.resolution = resolution;
+    }
+
+    /**
+     * Parse the body to report its syntax errors now, without keeping it
+     */
+    void check()
+    {
+        parse();
+    }
+
+    @Override
+    public Stmt get(int index)
+    {
+        return statements().get(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return statements().size();
+    }
+
+    @Override
+    public Iterator<Stmt> iterator()
+    {
+        return statements().iterator();
+    }
+
+    private List<Stmt> statements()
+    {
+        if (statements != null) {
+            return statements;
+        }
+
+        boolean hadError = Lox.hadError;
+        Lox.hadError = false;
+        List<Stmt> parsed = parse();
+        if (resolution != null) {
+            resolution.accept(parsed);
+        }
+        if (Lox.hadError) {
+            throw new Interpreter.RuntimeError(name, "Errors in the body of '" + name.lexeme + "'.");
+        }
+        Lox.hadError = hadError;
+
+        statements = parsed;
+        source = null;
+        resolution = null;
+        return statements;
+    }
+
+    private List<Stmt> parse()
+    {
+        return new Parser(new Scanner(source, line).scanArrays()).body();
+    }
+}
@@ -0,0 +1,476 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimize the loops the parser desugars for statements into:
+ * <pre>
+ * Block[initializer, While(condition, Block[body, Expression(increment)])]
+ * </pre>
+ * The increment moves into the while itself so that no wrapper block is
+ * entered per iteration, numeric expressions that don't change inside the
+ * loop are computed once before it, and loops that run a few times over a
+ * literal range are unrolled with the counter substituted in each copy.
+ */
+class LoopOptimizer
+        extends AstRewriter
+{
+    static final int MAX_UNROLLED_TRIPS = 8;
+    static final int MAX_UNROLLED_NODES = 96;
+
+    private final NodeCounter nodes = new NodeCounter();
+    // Keeps the names of hoisted values apart when their blocks share an environment
+    private int hoisted = 0;
+    // Loops already folded, a loop can be shared by the branches of a ScalarReplacement
+    private final Map<Stmt.While, Stmt> folded = new IdentityHashMap<>();
+    // Locals that any call might change, see CapturedAssignments
+    private Set<Token> captured;
+
+    LoopOptimizer(Interpreter interpreter)
+    {
+        super(interpreter);
+    }
+
+    List<Stmt> optimize(List<Stmt> statements)
+    {
+        captured = CapturedAssignments.scan(interpreter, statements);
+        return rewrite(statements);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt)
+    {
+        // Folding shifts depths in place, which mustn't happen twice.
+        Stmt done = folded.get(stmt);
+        if (done != null) {
+            return done;
+        }
+        Stmt rewritten = fold(stmt);
+        folded.put(stmt, rewritten);
+        return rewritten;
+    }
+
+    private Stmt fold(Stmt.While stmt)
+    {
+        Stmt rewritten = super.visitWhileStmt(stmt);
+        if (!(rewritten instanceof Stmt.While loop)
+                || loop.increment != null
+                || !(loop.body instanceof Stmt.Block wrapper)
+                || wrapper.statements.isEmpty()
+                || !(wrapper.statements.get(wrapper.statements.size() - 1) instanceof Stmt.Expression increment)
+                || declares(wrapper.statements)) {
+            return rewritten;
+        }
+
+        // Without the wrapper, everything that reached past its scope is one environment closer.
+        List<Stmt> rest = wrapper.statements.subList(0, wrapper.statements.size() - 1);
+        boolean scoped = !interpreter.isElided(wrapper);
+        if (scoped) {
+            new Shift().rewrite(increment.expression);
+        }
+        Stmt body;
+        if (rest.size() == 1) {
+            body = rest.get(0);
+            if (scoped) {
+                new Shift().rewrite(body);
+            }
+        }
+        else {
+            body = copy(wrapper, new Stmt.Block(new ArrayList<>(rest)));
+        }
+        return copy(loop, new Stmt.While(loop.condition, body, increment.expression));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt)
+    {
+        Stmt rewritten = super.visitBlockStmt(stmt);
+        if (!(rewritten instanceof Stmt.Block block)
+                || block.statements.size() != 2
+                || !(block.statements.get(0) instanceof Stmt.Var initializer)
+                || !(block.statements.get(1) instanceof Stmt.While loop)) {
+            return rewritten;
+        }
+
+        List<Object> trips = trips(initializer, loop);
+        if (trips != null) {
+            return unroll(block, initializer.name, trips, loop.body);
+        }
+        return hoist(block, initializer, loop);
+    }
+
+    private static boolean declares(List<Stmt> statements)
+    {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ================= Unrolling
+
+    /**
+     * The values the counter takes in each iteration, or null if the loop
+     * doesn't count over a literal range small enough to unroll
+     */
+    private List<Object> trips(Stmt.Var initializer, Stmt.While loop)
+    {
+        Token counter = initializer.name;
+        if (!(initializer.initializer instanceof Expr.Literal start)
+                || !(loop.increment instanceof Expr.Assign step)
+                || interpreter.declaration(step) != counter
+                || captured.contains(counter)) {
+            return null;
+        }
+        Operation condition = operation(loop.condition);
+        Operation increment = operation(step.value);
+        if (condition == null || increment == null
+                || !reads(condition.left, counter) || !reads(increment.left, counter)
+                || !(condition.right instanceof Expr.Literal bound)
+                || !(increment.right instanceof Expr.Literal by)) {
+            return null;
+        }
+
+        // The body must leave the counter alone, and can't capture it in a closure.
+        boolean[] unrollable = {true};
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr)
+            {
+                unrollable[0] &= interpreter.declaration(expr) != counter;
+                return super.visitAssignExpr(expr);
+            }
+
+            @Override
+            public Stmt visitFunctionStmt(Stmt.Function stmt)
+            {
+                unrollable[0] = false;
+                return stmt;
+            }
+
+            @Override
+            public Stmt visitClassStmt(Stmt.Class stmt)
+            {
+                unrollable[0] = false;
+                return stmt;
+            }
+        }.rewrite(loop.body);
+        if (!unrollable[0]) {
+            return null;
+        }
+
+        List<Object> trips = new ArrayList<>();
+        Object value = start.value;
+        try {
+            while (interpreter.isTruthy(interpreter.binary(condition.operator, value, bound.value))) {
+                trips.add(value);
+                if (trips.size() > MAX_UNROLLED_TRIPS) {
+                    return null;
+                }
+                value = interpreter.binary(increment.operator, value, by.value);
+            }
+        }
+        catch (Interpreter.RuntimeError error) {
+            return null;
+        }
+        return trips.size() * nodes.count(loop.body) <= MAX_UNROLLED_NODES ? trips : null;
+    }
+
+    private Stmt unroll(Stmt.Block block, Token counter, List<Object> trips, Stmt body)
+    {
+        // The block keeps its scope, so the depths in every copy stay the same.
+        List<Stmt> statements = new ArrayList<>();
+        for (Object value : trips) {
+            statements.add(new AstRewriter(interpreter)
+            {
+                @Override
+                public Expr visitVariableExpr(Expr.Variable expr)
+                {
+                    return interpreter.declaration(expr) == counter ? new Expr.Literal(value) : expr;
+                }
+            }.rewrite(body));
+        }
+        return statements.isEmpty() ? null : copy(block, new Stmt.Block(statements));
+    }
+
+    private record Operation(Expr left, Token operator, Expr right) {}
+
+    private static Operation operation(Expr expr)
+    {
+        if (expr instanceof Expr.Binary binary) {
+            return new Operation(binary.left, binary.operator, binary.right);
+        }
+        if (expr instanceof Expr.NumericBinary binary) {
+            return new Operation(binary.left, binary.operator, binary.right);
+        }
+        return null;
+    }
+
+    private boolean reads(Expr expr, Token declaration)
+    {
+        return expr instanceof Expr.Variable && interpreter.declaration(expr) == declaration;
+    }
+
+    // ================= Hoisting
+
+    /**
+     * Declare the loop's invariant numeric expressions in the block around
+     * it, right after the counter. Only operators that can't fail once their
+     * operands are numbers move, so computing them when the loop doesn't run
+     * at all is unobservable.
+     */
+    private Stmt hoist(Stmt.Block block, Stmt.Var initializer, Stmt.While loop)
+    {
+        Set<Token> assigned = new HashSet<>(captured);
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr)
+            {
+                assigned.add(interpreter.declaration(expr));
+                return super.visitAssignExpr(expr);
+            }
+
+            // Declared again every iteration, possibly in the same environment as the loop.
+            @Override
+            public Stmt visitVarStmt(Stmt.Var stmt)
+            {
+                assigned.add(stmt.name);
+                return super.visitVarStmt(stmt);
+            }
+        }.rewrite(loop);
+
+        Hoist hoist = new Hoist(assigned);
+        Stmt hoisted = hoist.rewrite(loop);
+        if (hoist.declarations.isEmpty()) {
+            return block;
+        }
+        List<Stmt> statements = new ArrayList<>();
+        statements.add(initializer);
+        statements.addAll(hoist.declarations);
+        statements.add(hoisted);
+        return copy(block, new Stmt.Block(statements));
+    }
+
+    /**
+     * Keeps track of how many environments the code it visits is nested in,
+     * relative to where it started
+     */
+    private abstract class ScopeWalker
+            extends AstRewriter
+    {
+        protected int level = 0;
+
+        ScopeWalker()
+        {
+            super(LoopOptimizer.this.interpreter);
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt)
+        {
+            int scopes = interpreter.isElided(stmt) ? 0 : 1;
+            level += scopes;
+            try {
+                return super.visitBlockStmt(stmt);
+            }
+            finally {
+                level -= scopes;
+            }
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt)
+        {
+            level++;
+            try {
+                return super.visitFunctionStmt(stmt);
+            }
+            finally {
+                level--;
+            }
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt)
+        {
+            // The methods' closure binds this, and super in a subclass.
+            int scopes = stmt.superclass != null ? 2 : 1;
+            level += scopes;
+            try {
+                return super.visitClassStmt(stmt);
+            }
+            finally {
+                level -= scopes;
+            }
+        }
+    }
+
+    /**
+     * Bring every expression that resolves past the starting scope one
+     * environment closer
+     */
+    private class Shift
+            extends ScopeWalker
+    {
+        // Adjusted already, in case a node is shared
+        private final Set<Expr> shifted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private void shift(Expr expr)
+        {
+            Integer depth = interpreter.depth(expr);
+            if (depth != null && depth > level && shifted.add(expr)) {
+                interpreter.resolve(expr, depth - 1);
+            }
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr)
+        {
+            shift(expr);
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr)
+        {
+            shift(expr);
+            return expr;
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr)
+        {
+            shift(expr);
+            return expr;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            shift(expr);
+            return expr;
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt)
+        {
+            if (stmt.superclass != null) {
+                shift(stmt.superclass);
+            }
+            return super.visitClassStmt(stmt);
+        }
+    }
+
+    private class Hoist
+            extends ScopeWalker
+    {
+        private final Set<Token> assigned;
+        final List<Stmt.Var> declarations = new ArrayList<>();
+
+        Hoist(Set<Token> assigned)
+        {
+            this.assigned = assigned;
+        }
+
+        @Override
+        public Expr visitNumericBinaryExpr(Expr.NumericBinary expr)
+        {
+            // Division can still fail on a zero.
+            if (expr.operator.type != TokenType.SLASH && invariant(expr)) {
+                return declare(expr, expr.operator);
+            }
+            return super.visitNumericBinaryExpr(expr);
+        }
+
+        @Override
+        public Expr visitNumericUnaryExpr(Expr.NumericUnary expr)
+        {
+            if (invariant(expr)) {
+                return declare(expr, expr.operator);
+            }
+            return super.visitNumericUnaryExpr(expr);
+        }
+
+        // Nested functions run whenever they're called, not necessarily in the loop.
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt)
+        {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt)
+        {
+            return stmt;
+        }
+
+        private boolean invariant(Expr expr)
+        {
+            if (expr instanceof Expr.Literal) {
+                return true;
+            }
+            if (expr instanceof Expr.Variable) {
+                // Declared around the loop and never changed in it.
+                Integer depth = interpreter.depth(expr);
+                return depth != null && depth >= level && !assigned.contains(interpreter.declaration(expr));
+            }
+            if (expr instanceof Expr.NumericBinary binary) {
+                return binary.operator.type != TokenType.SLASH && invariant(binary.left) && invariant(binary.right);
+            }
+            if (expr instanceof Expr.NumericUnary unary) {
+                return invariant(unary.right);
+            }
+            if (expr instanceof Expr.Grouping grouping) {
+                return invariant(grouping.expression);
+            }
+            return false;
+        }
+
+        private Expr declare(Expr expr, Token operator)
+        {
+            Token name = new Token(TokenType.IDENTIFIER, "$inv" + hoisted++, null, operator.line);
+            declarations.add(new Stmt.Var(name, new Relocate(level).rewrite(expr)));
+
+            Expr.Variable variable = new Expr.Variable(name);
+            interpreter.resolve(variable, level);
+            interpreter.bind(variable, name);
+            return variable;
+        }
+    }
+
+    /**
+     * Copy an expression to run the given number of environments further out
+     */
+    private class Relocate
+            extends AstRewriter
+    {
+        private final int levels;
+
+        Relocate(int levels)
+        {
+            super(LoopOptimizer.this.interpreter);
+            this.levels = levels;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            if (levels == 0) {
+                return expr;
+            }
+            Expr.Variable variable = copy(expr, new Expr.Variable(expr.name));
+            interpreter.resolve(variable, interpreter.depth(expr) - levels);
+            return variable;
+        }
+    }
+}
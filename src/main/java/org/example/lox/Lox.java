@@ -1,21 +1,56 @@
 package org.example.lox;
 
+import org.example.lox.ir.ControlFlowGraph;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 
 public class Lox
 {
     private static final Interpreter interpreter = new Interpreter();
+    // Set by --vm, runs the program on a heap allocated call stack
+    private static LoxVM vm = null;
+    private static int maxDepth = 1_000_000;
+    private static boolean memoize = true;
+    private static boolean memoStats = false;
+    private static boolean optimize = true;
+    private static boolean dumpAst = false;
+    private static boolean optStats = false;
+    private static boolean dumpTypes = false;
+    // Set by --ir, runs the functions that lower to SSA from their graphs
+    private static boolean useIr = false;
+    private static boolean dumpIr = false;
+    private static int inlineBudget = Inliner.DEFAULT_BUDGET;
+    // Set by --lazy, function bodies are parsed on their first call and skip the optimizer
+    private static boolean lazy = false;
+    // Set by --strict, lazy bodies are still checked for syntax errors up front
+    private static boolean strict = false;
+    // Set by --cache, a script's resolved tree is saved next to it and reused while the source is unchanged
+    private static boolean cache = false;
+    // Set by --incremental, versions of one script are read from stdin and each reparsed where it changed
+    private static boolean incremental = false;
+    // Knows where the tokens of the last version are, for runtime errors
+    private static IncrementalFrontEnd frontEnd = null;
+    private static final Modules modules = new Modules(interpreter);
 
     static boolean hadRuntimeError = false;
     static boolean hadError = false;
 
+    /**
+     * An error message kept back to be reported later, see {@link #collectErrors}
+     */
+    record Report(int line, String message) {}
+
+    // Set on a thread while its errors are collected rather than printed
+    private static final ThreadLocal<List<Report>> collected = new ThreadLocal<>();
+
     private static int fb(int n)
     {
         if (n < 2) return n;
@@ -25,12 +60,87 @@ public class Lox
     public static void main(String[] args)
             throws IOException
     {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
+        List<String> scripts = new ArrayList<>();
+        boolean useVm = false;
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                useVm = true;
+            }
+            else if (arg.equals("--no-memo")) {
+                memoize = false;
+            }
+            else if (arg.equals("--memo-stats")) {
+                memoStats = true;
+            }
+            else if (arg.equals("--no-opt")) {
+                optimize = false;
+            }
+            else if (arg.equals("--dump-ast")) {
+                dumpAst = true;
+            }
+            else if (arg.equals("--ir")) {
+                useIr = true;
+            }
+            else if (arg.equals("--int-speculation")) {
+                interpreter.irExecutor.speculateIntegers = true;
+            }
+            else if (arg.equals("--dump-ir")) {
+                dumpIr = true;
+            }
+            else if (arg.equals("--dump-types")) {
+                dumpTypes = true;
+            }
+            else if (arg.equals("--opt-stats")) {
+                optStats = true;
+            }
+            else if (arg.equals("--lazy")) {
+                lazy = true;
+            }
+            else if (arg.equals("--strict")) {
+                strict = true;
+            }
+            else if (arg.equals("--cache")) {
+                cache = true;
+            }
+            else if (arg.equals("--incremental")) {
+                incremental = true;
+            }
+            else if (arg.startsWith("--inline-budget=")) {
+                inlineBudget = Integer.parseInt(arg.substring("--inline-budget=".length()));
+            }
+            else if (arg.startsWith("--max-depth=")) {
+                maxDepth = Integer.parseInt(arg.substring("--max-depth=".length()));
+            }
+            else if (arg.startsWith("--")) {
+                usage();
+            }
+            else {
+                scripts.add(arg);
+            }
+        }
+        if (incremental && !scripts.isEmpty()) {
+            usage();
+        }
+        if (useVm) {
+            vm = new LoxVM(interpreter, maxDepth);
+        }
+        if (incremental) {
+            // The optimizer rewrites statements the next version keeps.
+            optimize = false;
+        }
+        interpreter.liftFunctions = optimize;
+        modules.lazy = lazy;
+        modules.strict = strict;
+        modules.cache = cache;
+
+        if (incremental) {
+            runIncremental();
+        }
+        else if (scripts.size() > 1) {
+            runFiles(scripts);
         }
-        else if (args.length == 1) {
-            runFile(args[0]);
+        else if (scripts.size() == 1) {
+            runFile(scripts.get(0));
         }
         else {
             runPrompt();
@@ -44,11 +154,60 @@ public class Lox
 
     }
 
+    private static void usage()
+    {
+        System.out.print("""
+                Usage: jlox [options] [script...]
+                  --vm                     run on a call stack kept on the heap
+                  --max-depth=<frames>     frames the --vm stack holds, 1000000 by default
+                  --no-memo                call pure functions every time
+                  --memo-stats             print the hits and misses of each memoized function
+                  --no-opt                 run the program as parsed, without the optimizer
+                  --dump-ast               print the optimized tree before running it
+                  --opt-stats              print the nodes each optimizer pass removed
+                  --inline-budget=<nodes>  largest body to inline, 16 by default, 0 for none
+                  --dump-types             print the types inferred for locals
+                  --ir                     run the functions that lower to SSA from their graphs
+                  --dump-ir                print each graph after every pass
+                  --int-speculation        with --ir, run loop values that stay integral as longs
+                  --lazy                   parse function bodies on their first call
+                  --strict                 with --lazy, check the bodies for syntax errors up front
+                  --cache                  reuse the resolved tree saved in <script>.loxc
+                  --incremental            run versions of one script read from stdin, ended by form feeds
+                """);
+        System.exit(64);
+    }
+
     private static void runFile(String path)
             throws IOException
     {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        List<Stmt> stmts = modules.program(Paths.get(path));
+        if (stmts != null) {
+            execute(stmts);
+        }
+        finish();
+    }
+
+    /**
+     * Run a program made of several files, in the order given, as if they
+     * were one. They're scanned and parsed in parallel.
+     */
+    private static void runFiles(List<String> paths)
+            throws IOException
+    {
+        ParallelFrontEnd frontEnd = new ParallelFrontEnd(ForkJoinPool.commonPool(), modules);
+        frontEnd.lazy = lazy;
+        frontEnd.strict = strict;
+        List<Stmt> stmts = frontEnd.parse(paths.stream().map(Paths::get).toList());
+        if (stmts != null) {
+            execute(stmts);
+        }
+        finish();
+    }
+
+    private static void finish()
+    {
+        printStats();
         if (hadError) {
             System.exit(65);
         }
@@ -67,18 +226,57 @@ public class Lox
             System.out.print("> ");
             String line = reader.readLine();
             if (Objects.equals(line, "exit")) {
+                printStats();
                 break;
             }
-            run(line);
+            run(new Scanner(line).scanArrays());
             hadError = false;
         }
     }
 
-    private static void run(String source)
+    /**
+     * Read versions of one script from stdin, each ending at a line holding
+     * only a form feed, and run each once the {@link IncrementalFrontEnd}
+     * reparsed what changed since the last. Globals carry over from one run
+     * to the next, as at the prompt. A form feed ends the output of each.
+     */
+    private static void runIncremental()
+            throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        frontEnd = new IncrementalFrontEnd(interpreter);
+        StringBuilder source = new StringBuilder();
+        for (; ; ) {
+            String line = reader.readLine();
+            if (line != null && !line.equals("\f")) {
+                source.append(line).append('\n');
+                continue;
+            }
+            if (line != null || !source.isEmpty()) {
+                List<Stmt> stmts = frontEnd.update(source.toString());
+                // Imports are relative to the working directory, as at the prompt.
+                List<Stmt> program = stmts == null ? null : modules.load(Paths.get(""), frontEnd.imports());
+                if (program != null) {
+                    program.addAll(stmts);
+                    execute(program);
+                }
+                hadError = false;
+                System.out.println("\f");
+            }
+            if (line == null) {
+                break;
+            }
+            source.setLength(0);
+        }
+        printStats();
+    }
+
+    private static void run(TokenSource tokens)
+            throws IOException
     {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
+        parser.lazy = lazy;
+        parser.strict = strict;
         List<Stmt> stmts = parser.parse();
 
         // Stop if there was a syntax error.
@@ -86,14 +284,52 @@ public class Lox
             return;
         }
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(stmts);
+        // Imports at the prompt are relative to the working directory.
+        stmts = modules.link(Paths.get(""), parser.imports, stmts);
+        if (stmts != null) {
+            execute(stmts);
+        }
+    }
 
-        if (hadError) {
-            return;
+    /**
+     * Everything after resolving, from the optimizer on
+     */
+    private static void execute(List<Stmt> stmts)
+    {
+        if (optimize) {
+            stmts = new Optimizer(interpreter, inlineBudget, dumpTypes, optStats).optimize(stmts);
+        }
+
+        if (dumpAst) {
+            AstPrinter printer = new AstPrinter();
+            stmts.forEach(stmt -> System.err.println(printer.print(stmt)));
         }
 
-        interpreter.interpret(stmts);
+        if (useIr || dumpIr) {
+            Map<Stmt.Function, ControlFlowGraph> graphs = new IrLowering(interpreter)
+                    .lowerAll(stmts, dumpIr ? System.err::print : null);
+            if (useIr) {
+                graphs.forEach(interpreter::useGraph);
+            }
+        }
+
+        if (memoize) {
+            interpreter.memoize(new PurityAnalyzer(interpreter).analyze(stmts));
+        }
+
+        if (vm != null) {
+            vm.interpret(stmts);
+        }
+        else {
+            interpreter.interpret(stmts);
+        }
+    }
+
+    private static void printStats()
+    {
+        if (memoStats) {
+            interpreter.memoTables.forEach(System.err::println);
+        }
     }
 
     static void error(int line, String message)
@@ -104,11 +340,33 @@ public class Lox
     private static void report(int line, String where,
             String message)
     {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
+        String report = "[line " + line + "] Error" + where + ": " + message;
+        List<Report> reports = collected.get();
+        if (reports != null) {
+            reports.add(new Report(line, report));
+            return;
+        }
+        System.err.println(report);
         hadError = true;
     }
 
+    /**
+     * Do some work on this thread and return the errors it reports instead
+     * of printing them. hadError isn't set, that's up to the caller.
+     */
+    static List<Report> collectErrors(Runnable work)
+    {
+        List<Report> reports = new ArrayList<>();
+        collected.set(reports);
+        try {
+            work.run();
+        }
+        finally {
+            collected.remove();
+        }
+        return reports;
+    }
+
     static void error(Token token, String message)
     {
         if (token.type == TokenType.EOF) {
@@ -121,8 +379,9 @@ public class Lox
 
     static void runtimeError(Interpreter.RuntimeError error)
     {
+        int line = frontEnd != null ? frontEnd.line(error.token) : error.token.line;
         System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
+                "\n[line " + line + "]");
         hadRuntimeError = true;
     }
 }
@@ -1,5 +1,6 @@
 package org.example.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -8,14 +9,29 @@ public class LoxClass
 {
     final String name;
     final LoxClass superclass;
+    final Stmt.Class declaration;
+    // Slot of each field the initializers assign, a subclass extends its superclass's
+    final Map<String, Integer> layout;
+    // Resolved once, every instantiation needs it
+    final LoxFunction initializer;
+    // How new instances store their fields, see Shape
+    Shape shape;
 
     private final Map<String, LoxFunction> methods;
 
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods)
+    LoxClass(Stmt.Class declaration, LoxClass superclass, Map<String, LoxFunction> methods, List<String> fields)
     {
-        this.name = name;
+        this.declaration = declaration;
+        this.name = declaration.name.lexeme;
         this.methods = methods;
         this.superclass = superclass;
+
+        layout = superclass != null ? new HashMap<>(superclass.layout) : new HashMap<>();
+        for (String field : fields) {
+            layout.putIfAbsent(field, layout.size());
+        }
+        initializer = findMethod("init");
+        shape = Shape.numeric(layout.keySet());
     }
 
     @Override
@@ -27,7 +43,6 @@ public class LoxClass
     @Override
     public int arity()
     {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) {
             return 0;
         }
@@ -38,13 +53,30 @@ public class LoxClass
     public Object call(Interpreter interpreter, List<Object> arguments)
     {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
             initializer.bind(instance).call(interpreter, arguments);
         }
         return instance;
     }
 
+    /**
+     * An instance was given a non-number for a numeric field
+     */
+    void box(Shape from, String field)
+    {
+        if (shape == from) {
+            shape = from.boxing(field);
+        }
+    }
+
+    /**
+     * Whether the class itself declares the method, not a superclass
+     */
+    boolean declares(String name)
+    {
+        return methods.containsKey(name);
+    }
+
     LoxFunction findMethod(String name)
     {
         if (methods.containsKey(name)) {
@@ -1,14 +1,18 @@
 package org.example.lox;
 
+import org.example.lox.ir.ControlFlowGraph;
+
 import java.util.List;
 
 public class LoxFunction
         implements LoxCallable
 {
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    final Environment closure;
 
-    private final boolean isInitializer;
+    final boolean isInitializer;
+    // Set for pure functions, see PurityAnalyzer
+    MemoTable memo = null;
 
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer)
     {
@@ -26,6 +30,41 @@ public class LoxFunction
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments)
     {
+        LoxFunction function = this;
+        MemoTable.Pending pending = null;
+        Object value;
+        // Tail calls come back here as a TailCall instead of nesting another
+        // call, and each is looked up in the memo of its callee too.
+        while (true) {
+            if (function.memo != null && MemoTable.accepts(arguments)) {
+                value = function.memo.lookup(arguments);
+                if (value != MemoTable.MISSING) {
+                    break;
+                }
+                pending = new MemoTable.Pending(function.memo, arguments, pending);
+            }
+            try {
+                value = function.invoke(interpreter, arguments);
+                break;
+            }
+            catch (TailCall tailCall) {
+                function = tailCall.function;
+                arguments = tailCall.arguments;
+            }
+        }
+        if (pending != null) {
+            pending.store(value);
+        }
+        return value;
+    }
+
+    private Object invoke(Interpreter interpreter, List<Object> arguments)
+    {
+        ControlFlowGraph graph = interpreter.graph(declaration);
+        if (graph != null && !isInitializer) {
+            return interpreter.irExecutor.execute(graph, this, arguments);
+        }
+
         // function environment
         Environment environment = new Environment(closure);
         for (int i = 0; i < declaration.params.size(); i++) {
@@ -35,6 +74,9 @@ public class LoxFunction
         try {
             interpreter.executeBlock(declaration.body, environment);
         }
+        catch (TailCall tailCall) {
+            throw tailCall;
+        }
         catch (Return returnValue) {
             if (isInitializer) {
                 return closure.getAt(0, "this");
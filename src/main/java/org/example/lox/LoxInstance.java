@@ -1,16 +1,34 @@
 package org.example.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class LoxInstance
 {
-    private final Map<String, Object> fields = new HashMap<>();
+    // Marks an object slot whose field hasn't been assigned yet
+    private static final Object ABSENT = new Object();
+    // Marks such a number slot, a NaN that arithmetic never produces
+    private static final long ABSENT_NUMBER = 0x7ff8_0000_dead_beefL;
+    private static final double[] NO_NUMBERS = new double[0];
+    private static final Object[] NO_OBJECTS = new Object[0];
+
+    // The fields in the class's layout, stored as the shape says
+    private Shape shape;
+    private double[] numbers;
+    private Object[] objects;
+    // Any other field, created on the first one
+    private Map<String, Object> fields = null;
     private LoxClass klass;
 
     LoxInstance(LoxClass klass)
     {
         this.klass = klass;
+        this.shape = klass.shape;
+        this.numbers = shape.numbers == 0 ? NO_NUMBERS : new double[shape.numbers];
+        this.objects = shape.objects == 0 ? NO_OBJECTS : new Object[shape.objects];
+        Arrays.fill(numbers, Double.longBitsToDouble(ABSENT_NUMBER));
+        Arrays.fill(objects, ABSENT);
     }
 
     @Override
@@ -21,8 +39,9 @@ public class LoxInstance
 
     Object get(Token name)
     {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        Object value = field(name.lexeme);
+        if (value != ABSENT) {
+            return value;
         }
 
         LoxFunction method = klass.findMethod(name.lexeme);
@@ -33,9 +52,147 @@ public class LoxInstance
         throw new Interpreter.RuntimeError(name, "Undefined property %s .".formatted(name.lexeme));
     }
 
+    private Object field(String name)
+    {
+        Integer slot = shape.slot(name);
+        if (slot == null) {
+            return fields != null && fields.containsKey(name) ? fields.get(name) : ABSENT;
+        }
+        if (slot < 0) {
+            return objects[~slot];
+        }
+        double number = numbers[slot];
+        return isAbsent(number) ? ABSENT : (Object) number;
+    }
+
+    /**
+     * A field stored unboxed, without boxing it, or a NaN that
+     * {@link #isNumber} rejects when it isn't one or hasn't been assigned
+     */
+    double getNumber(Token name)
+    {
+        Integer slot = shape.slot(name.lexeme);
+        return slot != null && slot >= 0 ? numbers[slot] : Double.longBitsToDouble(ABSENT_NUMBER);
+    }
+
+    static boolean isNumber(double number)
+    {
+        return !isAbsent(number);
+    }
+
+    private static boolean isAbsent(double number)
+    {
+        return Double.doubleToRawLongBits(number) == ABSENT_NUMBER;
+    }
+
+    private boolean has(String name)
+    {
+        Integer slot = shape.slot(name);
+        if (slot == null) {
+            return fields != null && fields.containsKey(name);
+        }
+        return slot < 0 ? objects[~slot] != ABSENT : !isAbsent(numbers[slot]);
+    }
+
+    /**
+     * Whether a property access would bind the method of the given class,
+     * which no class between it and this instance's class overrides
+     */
+    boolean reaches(LoxClass owner, String name)
+    {
+        if (has(name)) {
+            return false;
+        }
+        for (LoxClass current = klass; current != null; current = current.superclass) {
+            if (current == owner) {
+                return true;
+            }
+            if (current.declares(name)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The method a property access would bind, unless a field shadows it
+     */
+    LoxFunction method(String name)
+    {
+        if (has(name)) {
+            return null;
+        }
+        return klass.findMethod(name);
+    }
 
     void set(Token name, Object value)
     {
-        fields.put(name.lexeme, value);
+        if (value instanceof Double number) {
+            setNumber(name, number);
+            return;
+        }
+        Integer slot = shape.slot(name.lexeme);
+        if (slot == null) {
+            setOther(name.lexeme, value);
+            return;
+        }
+        if (slot >= 0) {
+            box(name.lexeme);
+            slot = shape.slot(name.lexeme);
+        }
+        objects[~slot] = value;
+    }
+
+    /**
+     * Store a number without boxing it, if the field is stored unboxed
+     */
+    void setNumber(Token name, double value)
+    {
+        Integer slot = shape.slot(name.lexeme);
+        if (slot == null) {
+            setOther(name.lexeme, value);
+        }
+        else if (slot >= 0) {
+            numbers[slot] = value;
+        }
+        else {
+            objects[~slot] = value;
+        }
+    }
+
+    private void setOther(String name, Object value)
+    {
+        if (fields == null) {
+            fields = new HashMap<>();
+        }
+        fields.put(name, value);
+    }
+
+    /**
+     * Move a numeric field to the objects, for this instance and the ones
+     * the class creates next
+     */
+    private void box(String field)
+    {
+        klass.box(shape, field);
+        Shape boxed = shape.boxing(field);
+        double[] numbers = boxed.numbers == 0 ? NO_NUMBERS : new double[boxed.numbers];
+        Object[] objects = new Object[boxed.objects];
+        for (Map.Entry<String, Integer> slot : shape.slots()) {
+            int from = slot.getValue();
+            int to = boxed.slot(slot.getKey());
+            if (from < 0) {
+                objects[~to] = this.objects[~from];
+            }
+            else if (to >= 0) {
+                numbers[to] = this.numbers[from];
+            }
+            else {
+                objects[~to] = isAbsent(this.numbers[from]) ? ABSENT : (Object) this.numbers[from];
+            }
+        }
+        this.shape = boxed;
+        this.numbers = numbers;
+        this.objects = objects;
     }
 }
@@ -0,0 +1,387 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Run compiled chunks in a single loop. Lox activations live in a growable
+ * array of frames on the heap rather than as nested Java calls, so the
+ * recursion depth is limited by {@link #maxDepth} and the heap instead of
+ * the thread stack size.
+ */
+class LoxVM
+{
+    private static final OpCode[] OP_CODES = OpCode.values();
+
+    private final Interpreter interpreter;
+    private final ChunkCompiler compiler;
+    private final int maxDepth;
+    private final Map<Stmt.Function, Chunk> chunks = new HashMap<>();
+
+    private Object[] stack = new Object[256];
+    private int stackTop = 0;
+    private Frame[] frames = new Frame[64];
+    private int frameCount = 0;
+
+    private static class Frame
+    {
+        Chunk chunk;
+        int ip;
+        Environment environment;
+        // null for the top-level script
+        LoxFunction function;
+        // stack height below the callee and its arguments
+        int base;
+        // where to cache the result of memoized calls on return, one per tail call
+        MemoTable.Pending memo;
+    }
+
+    LoxVM(Interpreter interpreter, int maxDepth)
+    {
+        this.interpreter = interpreter;
+        this.compiler = new ChunkCompiler(interpreter);
+        this.maxDepth = maxDepth;
+    }
+
+    void interpret(List<Stmt> statements)
+    {
+        try {
+            pushFrame(compiler.compile("script", statements), interpreter.globals, null);
+            run();
+        }
+        catch (Interpreter.RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+        finally {
+            Arrays.fill(stack, 0, stackTop, null);
+            Arrays.fill(frames, 0, frameCount, null);
+            stackTop = 0;
+            frameCount = 0;
+        }
+    }
+
+    private void run()
+    {
+        Frame frame = frames[frameCount - 1];
+
+        while (true) {
+            int[] code = frame.chunk.code;
+            OpCode op = OP_CODES[code[frame.ip++]];
+
+            switch (op) {
+                case CONSTANT -> push(frame.chunk.constants.get(code[frame.ip++]));
+                case POP -> pop();
+                case GET_LOCAL -> {
+                    int distance = code[frame.ip++];
+                    String name = (String) constant(frame);
+                    push(frame.environment.getAt(distance, name));
+                }
+                case SET_LOCAL -> {
+                    int distance = code[frame.ip++];
+                    frame.environment.assignAt(distance, (Token) constant(frame), peek(0));
+                }
+                case GET_GLOBAL -> push(interpreter.globals.get((Token) constant(frame)));
+                case GET_ASSUMED -> {
+                    Expr.Global global = (Expr.Global) constant(frame);
+                    push(global.assumption.valid
+                            ? global.assumption.value
+                            : interpreter.globals.get(global.variable.name));
+                }
+                case SET_GLOBAL -> interpreter.globals.assign((Token) constant(frame), peek(0));
+                case DEFINE -> {
+                    String name = (String) constant(frame);
+                    frame.environment.define(name, pop());
+                }
+                case GET_PROPERTY -> {
+                    Token name = (Token) constant(frame);
+                    Object object = pop();
+                    if (!(object instanceof LoxInstance instance)) {
+                        throw new Interpreter.RuntimeError(name, "Only instances have properties");
+                    }
+                    push(instance.get(name));
+                }
+                case CHECK_INSTANCE -> {
+                    Token name = (Token) constant(frame);
+                    if (!(peek(0) instanceof LoxInstance)) {
+                        throw new Interpreter.RuntimeError(name, "Only instances have fields.");
+                    }
+                }
+                case SET_PROPERTY -> {
+                    Token name = (Token) constant(frame);
+                    Object value = pop();
+                    LoxInstance instance = (LoxInstance) pop();
+                    instance.set(name, value);
+                    push(value);
+                }
+                case GET_SUPER -> {
+                    int distance = code[frame.ip++];
+                    Token method = (Token) constant(frame);
+                    LoxClass superclass = (LoxClass) frame.environment.getAt(distance, "super");
+                    LoxInstance object = (LoxInstance) frame.environment.getAt(distance - 1, "this");
+
+                    LoxFunction function = superclass.findMethod(method.lexeme);
+                    if (function == null) {
+                        throw new Interpreter.RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+                    }
+                    push(function.bind(object));
+                }
+                case BINARY -> {
+                    Token operator = (Token) constant(frame);
+                    Object right = pop();
+                    Object left = pop();
+                    push(interpreter.binary(operator, left, right));
+                }
+                case UNARY -> {
+                    Token operator = (Token) constant(frame);
+                    push(interpreter.unary(operator, pop()));
+                }
+                case NUMERIC_BINARY -> {
+                    Token operator = (Token) constant(frame);
+                    double right = (double) pop();
+                    double left = (double) pop();
+                    push(interpreter.numericBinary(operator, left, right));
+                }
+                case NUMERIC_NEGATE -> push(-(double) pop());
+                case GUARD_FUNCTION -> {
+                    Token function = (Token) constant(frame);
+                    int fallback = code[frame.ip++];
+                    if (peek(0) instanceof LoxFunction callee && callee.declaration.name == function) {
+                        pop();
+                    }
+                    else {
+                        frame.ip = fallback;
+                    }
+                }
+                case GUARD_METHOD -> {
+                    Token name = (Token) constant(frame);
+                    Token function = (Token) constant(frame);
+                    int fallback = code[frame.ip++];
+                    if (!(peek(0) instanceof LoxInstance instance)) {
+                        throw new Interpreter.RuntimeError(name, "Only instances have properties");
+                    }
+                    LoxFunction method = instance.method(name.lexeme);
+                    pop();
+                    if (method == null || method.declaration.name != function) {
+                        push(instance.get(name));
+                        frame.ip = fallback;
+                    }
+                }
+                case CLASS_GUARD -> {
+                    Token klass = (Token) constant(frame);
+                    push(pop() instanceof LoxClass callee && callee.declaration.name == klass);
+                }
+                case JUMP -> frame.ip = code[frame.ip];
+                case JUMP_IF_FALSE -> {
+                    int target = code[frame.ip++];
+                    if (!interpreter.isTruthy(peek(0))) {
+                        frame.ip = target;
+                    }
+                }
+                case JUMP_IF_TRUE -> {
+                    int target = code[frame.ip++];
+                    if (interpreter.isTruthy(peek(0))) {
+                        frame.ip = target;
+                    }
+                }
+                case PRINT -> System.out.println(interpreter.stringify(pop()));
+                case CALL -> {
+                    int argumentCount = code[frame.ip++];
+                    Token paren = (Token) constant(frame);
+                    call(paren, argumentCount);
+                    frame = frames[frameCount - 1];
+                }
+                case TAIL_CALL -> {
+                    int argumentCount = code[frame.ip++];
+                    Token paren = (Token) constant(frame);
+                    Object callee = peek(argumentCount);
+                    interpreter.checkCallable(paren, callee, argumentCount);
+                    if (callee instanceof LoxFunction function) {
+                        List<Object> key = function.memo != null ? memoKey(argumentCount) : null;
+                        Object value = key != null ? function.memo.lookup(key) : MemoTable.MISSING;
+                        if (value != MemoTable.MISSING) {
+                            // What the callee returned before is what this frame returns.
+                            frame = returnFrom(frame, value);
+                            if (frame == null) {
+                                return;
+                            }
+                            continue;
+                        }
+                        // Reuse the current frame for the callee.
+                        Environment environment = bindArguments(function, argumentCount);
+                        stackTop = frame.base;
+                        frame.chunk = chunk(function);
+                        frame.ip = 0;
+                        frame.environment = environment;
+                        frame.function = function;
+                        if (key != null) {
+                            frame.memo = new MemoTable.Pending(function.memo, key, frame.memo);
+                        }
+                    }
+                    else {
+                        call(paren, argumentCount);
+                        frame = frames[frameCount - 1];
+                    }
+                }
+                case RETURN -> {
+                    frame = returnFrom(frame, pop());
+                    if (frame == null) {
+                        return;
+                    }
+                }
+                case PUSH_SCOPE -> frame.environment = new Environment(frame.environment);
+                case POP_SCOPE -> frame.environment = frame.environment.enclosing;
+                case FUNCTION -> {
+                    Stmt.Function declaration = (Stmt.Function) constant(frame);
+                    push(interpreter.function(declaration, frame.environment));
+                }
+                case CLASS -> {
+                    Stmt.Class declaration = (Stmt.Class) constant(frame);
+                    Object superclass = declaration.superclass != null ? pop() : null;
+                    interpreter.defineClass(declaration, superclass, frame.environment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pop a frame and push its result for the caller, the frame of which is
+     * returned, or null when the script returned
+     */
+    private Frame returnFrom(Frame frame, Object result)
+    {
+        if (frame.function != null && frame.function.isInitializer) {
+            result = frame.function.closure.getAt(0, "this");
+        }
+        if (frame.memo != null) {
+            frame.memo.store(result);
+        }
+        stackTop = frame.base;
+        frames[--frameCount] = null;
+        if (frameCount == 0) {
+            return null;
+        }
+        push(result);
+        return frames[frameCount - 1];
+    }
+
+    /**
+     * Call the callee below the arguments on top of the stack. Lox functions
+     * and initializers get a new frame, everything else runs right away.
+     */
+    private void call(Token paren, int argumentCount)
+    {
+        Object callee = peek(argumentCount);
+        LoxCallable callable = interpreter.checkCallable(paren, callee, argumentCount);
+
+        if (callable instanceof LoxFunction function) {
+            List<Object> key = function.memo != null ? memoKey(argumentCount) : null;
+            if (key == null) {
+                pushCall(paren, function, argumentCount);
+                return;
+            }
+
+            Object value = function.memo.lookup(key);
+            if (value == MemoTable.MISSING) {
+                pushCall(paren, function, argumentCount);
+                frames[frameCount - 1].memo = new MemoTable.Pending(function.memo, key, null);
+            }
+            else {
+                stackTop -= argumentCount + 1;
+                push(value);
+            }
+        }
+        else if (callable instanceof LoxClass klass) {
+            LoxInstance instance = new LoxInstance(klass);
+            if (klass.initializer != null) {
+                pushCall(paren, klass.initializer.bind(instance), argumentCount);
+            }
+            else {
+                stackTop -= argumentCount + 1;
+                push(instance);
+            }
+        }
+        else {
+            List<Object> arguments = new ArrayList<>(Arrays.asList(stack).subList(stackTop - argumentCount, stackTop));
+            stackTop -= argumentCount + 1;
+            push(callable.call(interpreter, arguments));
+        }
+    }
+
+    private List<Object> memoKey(int argumentCount)
+    {
+        List<Object> arguments = Arrays.asList(stack).subList(stackTop - argumentCount, stackTop);
+        return MemoTable.accepts(arguments) ? List.copyOf(arguments) : null;
+    }
+
+    private void pushCall(Token paren, LoxFunction function, int argumentCount)
+    {
+        if (frameCount >= maxDepth) {
+            throw new Interpreter.RuntimeError(paren, "Stack overflow, call depth exceeds " + maxDepth + ".");
+        }
+        Environment environment = bindArguments(function, argumentCount);
+        stackTop -= argumentCount + 1;
+        pushFrame(chunk(function), environment, function);
+    }
+
+    private Environment bindArguments(LoxFunction function, int argumentCount)
+    {
+        Environment environment = new Environment(function.closure);
+        List<Token> params = function.declaration.params;
+        for (int i = 0; i < argumentCount; i++) {
+            environment.define(params.get(i).lexeme, stack[stackTop - argumentCount + i]);
+        }
+        return environment;
+    }
+
+    private void pushFrame(Chunk chunk, Environment environment, LoxFunction function)
+    {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        Frame frame = new Frame();
+        frame.chunk = chunk;
+        frame.environment = environment;
+        frame.function = function;
+        frame.base = stackTop;
+        frames[frameCount++] = frame;
+    }
+
+    private Chunk chunk(LoxFunction function)
+    {
+        Stmt.Function declaration = function.declaration;
+        Chunk chunk = chunks.get(declaration);
+        if (chunk == null) {
+            chunk = compiler.compile(declaration.name.lexeme, declaration.body);
+            chunks.put(declaration, chunk);
+        }
+        return chunk;
+    }
+
+    private Object constant(Frame frame)
+    {
+        return frame.chunk.constants.get(frame.chunk.code[frame.ip++]);
+    }
+
+    private void push(Object value)
+    {
+        if (stackTop == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackTop++] = value;
+    }
+
+    private Object pop()
+    {
+        Object value = stack[--stackTop];
+        stack[stackTop] = null;
+        return value;
+    }
+
+    private Object peek(int distance)
+    {
+        return stack[stackTop - 1 - distance];
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.lox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The characters of a file, decoded from UTF-8 as they're reached out of the
+ * memory-mapped regions of the file. Only the characters from the oldest one
+ * still needed on are kept, see {@link #release}.
+ */
+class MappedSource
+        implements Closeable
+{
+    // Mapped at a time, a buffer can't hold more than 2 GiB
+    private static final long REGION = 64L << 20;
+    // Decoded at a time
+    private static final int CHUNK = 8 << 10;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private MappedByteBuffer bytes = null;
+    // File position of the end of the mapped region
+    private long mapped = 0;
+    private boolean ended = false;
+
+    private char[] chars = new char[4 * CHUNK];
+    // Index in the file's characters of chars[0], and how many follow
+    private int offset = 0;
+    private int length = 0;
+    private int released = 0;
+
+    MappedSource(Path path)
+            throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+    boolean isAtEnd(int index)
+    {
+        while (index >= offset + length) {
+            if (ended) {
+                return true;
+            }
+            decode();
+        }
+        return false;
+    }
+
+    char charAt(int index)
+    {
+        if (isAtEnd(index)) {
+            return '\0';
+        }
+        return chars[checked(index)];
+    }
+
+    String text(int from, int to)
+    {
+        isAtEnd(to - 1);
+        return new String(chars, checked(from), to - from);
+    }
+
+    /**
+     * Let the characters before the index go
+     */
+    void release(int index)
+    {
+        released = Math.max(released, index);
+    }
+
+    private int checked(int index)
+    {
+        if (index < offset) {
+            throw new IllegalStateException("Character " + index + " of the source was released.");
+        }
+        return index - offset;
+    }
+
+    private void decode()
+    {
+        makeRoom();
+        // A few bytes left may be part of a character, take the next region
+        // along with them.
+        if (bytes == null || (mapped < size && bytes.remaining() < 4)) {
+            map();
+        }
+        boolean last = mapped == size;
+        CharBuffer out = CharBuffer.wrap(chars, length, CHUNK);
+        decoder.decode(bytes, out, last);
+        if (last && !bytes.hasRemaining()) {
+            decoder.flush(out);
+            ended = true;
+        }
+        length = out.position();
+    }
+
+    private void map()
+    {
+        long from = mapped - (bytes == null ? 0 : bytes.remaining());
+        try {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(REGION, size - from));
+        }
+        catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        mapped = from + bytes.capacity();
+    }
+
+    /**
+     * Drop the released characters and make sure a chunk fits after the rest
+     */
+    private void makeRoom()
+    {
+        int drop = Math.min(released - offset, length);
+        if (drop > 0) {
+            System.arraycopy(chars, drop, chars, 0, length - drop);
+            offset += drop;
+            length -= drop;
+        }
+        if (chars.length - length < CHUNK) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + CHUNK));
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        channel.close();
+    }
+}
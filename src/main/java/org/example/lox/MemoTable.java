@@ -0,0 +1,91 @@
+package org.example.lox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of the results of a pure function, evicting the least
+ * recently used arguments first.
+ */
+class MemoTable
+{
+    static final Object MISSING = new Object();
+    // Stored in place of a nil result, so that lookup can tell it from a miss
+    private static final Object NIL = new Object();
+
+    final String name;
+    long hits = 0;
+    long misses = 0;
+
+    private final Map<List<Object>, Object> entries;
+
+    MemoTable(String name, int capacity)
+    {
+        this.name = name;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Only numbers and strings compare by value, anything else is called directly
+     */
+    static boolean accepts(List<Object> arguments)
+    {
+        for (Object argument : arguments) {
+            if (!(argument instanceof Double) && !(argument instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Object lookup(List<Object> arguments)
+    {
+        Object value = entries.get(arguments);
+        if (value == null) {
+            misses++;
+            return MISSING;
+        }
+        hits++;
+        return value == NIL ? null : value;
+    }
+
+    void store(List<Object> arguments, Object value)
+    {
+        entries.put(arguments, value == null ? NIL : value);
+    }
+
+    /**
+     * Calls waiting for their result to store it, the last tail call
+     * first. Each tail call returns what the call it replaced would have.
+     */
+    record Pending(MemoTable table, List<Object> arguments, Pending next)
+    {
+        void store(Object value)
+        {
+            for (Pending pending = this; pending != null; pending = pending.next) {
+                pending.table.store(pending.arguments, value);
+            }
+        }
+    }
+
+    void clear()
+    {
+        entries.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        long calls = hits + misses;
+        double rate = calls == 0 ? 0 : 100.0 * hits / calls;
+        return "%s: %d hits, %d misses (%.1f%% hit rate)".formatted(name, hits, misses, rate);
+    }
+}
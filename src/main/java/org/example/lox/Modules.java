@@ -0,0 +1,175 @@
+package org.example.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The files imported so far in this process, with import "path"; at the top
+ * of a file. A module is scanned, parsed and resolved once, on its first
+ * import, and its statements run before those of the file that first
+ * imported it. Later imports of it, repeated or through another module,
+ * add nothing: its top-level bindings are already in the globals. Paths are
+ * relative to the importing file.
+ */
+class Modules
+{
+    /**
+     * A file compiled on its own, its statements resolved
+     */
+    record Module(List<Token> imports, List<Stmt> statements) {}
+
+    private final Interpreter interpreter;
+    // Passed on to the parser, see Parser
+    boolean lazy = false;
+    boolean strict = false;
+    // Set by --cache, modules are saved to and loaded from an AstCache
+    boolean cache = false;
+    private final Set<Path> loaded = new HashSet<>();
+    // The files being compiled, each imported by the one before
+    private final List<Path> loading = new ArrayList<>();
+
+    Modules(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * A script and the modules it imports that weren't before, resolved and
+     * in the order they run, or null when there were errors
+     */
+    List<Stmt> program(Path script)
+            throws IOException
+    {
+        List<Stmt> program = new ArrayList<>();
+        load(script.toAbsolutePath().normalize(), null, program);
+        return Lox.hadError ? null : program;
+    }
+
+    /**
+     * Resolve statements parsed elsewhere, in the prompt or by the
+     * {@link ParallelFrontEnd}, after the modules they import. Null when
+     * there were errors.
+     */
+    List<Stmt> link(Path directory, List<Token> imports, List<Stmt> statements)
+            throws IOException
+    {
+        List<Stmt> program = load(directory, imports);
+        if (program == null) {
+            return null;
+        }
+        new Resolver(interpreter).resolve(statements);
+        if (Lox.hadError) {
+            return null;
+        }
+        program.addAll(statements);
+        return program;
+    }
+
+    /**
+     * The modules imported that weren't before, resolved and in the order
+     * they run, or null when there were errors. The {@link IncrementalFrontEnd}
+     * resolves the statements that import them itself.
+     */
+    List<Stmt> load(Path directory, List<Token> imports)
+            throws IOException
+    {
+        List<Stmt> program = new ArrayList<>();
+        for (Token path : imports) {
+            load(directory.resolve((String) path.literal).toAbsolutePath().normalize(), path, program);
+        }
+        return Lox.hadError ? null : program;
+    }
+
+    private void load(Path file, Token importedBy, List<Stmt> program)
+            throws IOException
+    {
+        if (loaded.contains(file)) {
+            return;
+        }
+        if (loading.contains(file)) {
+            String cycle = loading.subList(loading.indexOf(file), loading.size()).stream()
+                    .map(path -> path.getFileName().toString())
+                    .collect(Collectors.joining(" -> "));
+            Lox.error(importedBy, "Import cycle " + cycle + " -> " + file.getFileName() + ".");
+            return;
+        }
+        if (!Files.isRegularFile(file)) {
+            Lox.error(importedBy, "Can't find module '" + importedBy.literal + "'.");
+            return;
+        }
+
+        loading.add(file);
+        // Like a lazy body, errors in a module are reported again at its import.
+        boolean hadError = Lox.hadError;
+        Lox.hadError = false;
+        try {
+            Module module = compile(file);
+            if (module != null) {
+                for (Token path : module.imports()) {
+                    load(file.resolveSibling((String) path.literal).normalize(), path, program);
+                }
+                program.addAll(module.statements());
+            }
+        }
+        finally {
+            loading.remove(loading.size() - 1);
+        }
+        if (Lox.hadError) {
+            // Not loaded, the prompt can import it again once it's fixed.
+            if (importedBy != null) {
+                Lox.error(importedBy, "Errors in module '" + importedBy.literal + "'.");
+            }
+        }
+        else {
+            loaded.add(file);
+        }
+        Lox.hadError |= hadError;
+    }
+
+    /**
+     * Parse and resolve a file, or load it from its cache when that's up to
+     * date. Null when there were errors.
+     */
+    private Module compile(Path file)
+            throws IOException
+    {
+        byte[] hash = null;
+        if (cache) {
+            hash = AstCache.hash(file);
+            Module module = AstCache.load(file, hash, interpreter);
+            if (module != null) {
+                return module;
+            }
+        }
+
+        // Tokens are scanned from the mapped file as the parser asks for them.
+        Parser parser;
+        List<Stmt> statements;
+        try (StreamingScanner scanner = new StreamingScanner(file)) {
+            parser = new Parser(scanner);
+            // The cache needs every body.
+            parser.lazy = lazy && !cache;
+            parser.strict = strict;
+            statements = parser.parse();
+        }
+        if (Lox.hadError) {
+            return null;
+        }
+        new Resolver(interpreter).resolve(statements);
+        if (Lox.hadError) {
+            return null;
+        }
+
+        Module module = new Module(parser.imports, statements);
+        if (cache) {
+            AstCache.store(file, hash, module, interpreter);
+        }
+        return module;
+    }
+}
@@ -0,0 +1,198 @@
+package org.example.lox;
+
+import java.util.List;
+
+/**
+ * Size of a syntax tree in nodes, used by the optimizer for statistics and budgets
+ */
+class NodeCounter
+        implements Expr.Visitor<Integer>, Stmt.Visitor<Integer>
+{
+    int count(List<? extends Stmt> statements)
+    {
+        int count = 0;
+        for (Stmt statement : statements) {
+            count += count(statement);
+        }
+        return count;
+    }
+
+    int count(Stmt stmt)
+    {
+        return stmt == null ? 0 : stmt.accept(this);
+    }
+
+    int count(Expr expr)
+    {
+        return expr == null ? 0 : expr.accept(this);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr)
+    {
+        return 1 + count(expr.value);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr)
+    {
+        return 1 + count(expr.left) + count(expr.right);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr)
+    {
+        int count = 1 + count(expr.callee);
+        for (Expr argument : expr.arguments) {
+            count += count(argument);
+        }
+        return count;
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr)
+    {
+        return 1 + count(expr.object);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr)
+    {
+        return 1 + count(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr)
+    {
+        return 1;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr)
+    {
+        return 1 + count(expr.left) + count(expr.right);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr)
+    {
+        return 1 + count(expr.object) + count(expr.value);
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr)
+    {
+        return 1;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr)
+    {
+        return 1;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr)
+    {
+        return 1 + count(expr.right);
+    }
+
+    @Override
+    public Integer visitTernaryExpr(Expr.Ternary expr)
+    {
+        return 1 + count(expr.compare) + count(expr.left) + count(expr.right);
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr)
+    {
+        return 1;
+    }
+
+    @Override
+    public Integer visitInlineExpr(Expr.Inline expr)
+    {
+        return 1 + count(expr.call) + count(expr.body);
+    }
+
+    @Override
+    public Integer visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        return 1 + count(expr.left) + count(expr.right);
+    }
+
+    @Override
+    public Integer visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        return 1 + count(expr.right);
+    }
+
+    @Override
+    public Integer visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        return 1 + count(expr.callee);
+    }
+
+    @Override
+    public Integer visitGlobalExpr(Expr.Global expr)
+    {
+        return 1;
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt)
+    {
+        return 1 + count(stmt.statements);
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt)
+    {
+        return 1 + count(stmt.superclass) + count(stmt.methods);
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return 1 + count(stmt.expression);
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt)
+    {
+        if (LazyBody.pending(stmt)) {
+            return 1;
+        }
+        return 1 + count(stmt.body);
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt)
+    {
+        return 1 + count(stmt.condition) + count(stmt.thenBranch) + count(stmt.elseBranch);
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt)
+    {
+        return 1 + count(stmt.condition) + count(stmt.body) + count(stmt.increment);
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt)
+    {
+        return 1 + count(stmt.expression);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt)
+    {
+        return 1 + count(stmt.value);
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt)
+    {
+        return 1 + count(stmt.initializer);
+    }
+}
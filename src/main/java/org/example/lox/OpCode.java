@@ -0,0 +1,64 @@
+package org.example.lox;
+
+/**
+ * Instructions of a {@link Chunk}. Operands follow the opcode in the code array.
+ */
+enum OpCode
+{
+    // constant
+    CONSTANT,
+    POP,
+
+    // depth, name constant
+    GET_LOCAL,
+    // depth, token constant
+    SET_LOCAL,
+    // token constant
+    GET_GLOBAL,
+    SET_GLOBAL,
+    // Expr.Global constant, its value while the assumption holds
+    GET_ASSUMED,
+    // name constant
+    DEFINE,
+
+    // token constant
+    GET_PROPERTY,
+    CHECK_INSTANCE,
+    SET_PROPERTY,
+    // depth, token constant
+    GET_SUPER,
+
+    // operator token constant
+    BINARY,
+    UNARY,
+
+    // operator token constant, both operands known to be numbers
+    NUMERIC_BINARY,
+    NUMERIC_NEGATE,
+
+    // function token constant, absolute target of the call to make if the guard fails
+    GUARD_FUNCTION,
+    // property token constant, method token constant, absolute target
+    GUARD_METHOD,
+    // class token constant, replaces the callee on the stack by whether it's that class
+    CLASS_GUARD,
+
+    // absolute target
+    JUMP,
+    JUMP_IF_FALSE,
+    JUMP_IF_TRUE,
+
+    PRINT,
+
+    // argument count, paren token constant
+    CALL,
+    TAIL_CALL,
+    RETURN,
+
+    PUSH_SCOPE,
+    POP_SCOPE,
+
+    // declaration constant
+    FUNCTION,
+    CLASS,
+}
@@ -0,0 +1,60 @@
+package org.example.lox;
+
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * The optimization passes run on every program after it's resolved, in order
+ */
+class Optimizer
+{
+    private final Interpreter interpreter;
+    private final int inlineBudget;
+    private final boolean dumpTypes;
+    private final boolean printStats;
+    private final NodeCounter counter = new NodeCounter();
+
+    Optimizer(Interpreter interpreter, int inlineBudget, boolean dumpTypes, boolean printStats)
+    {
+        this.interpreter = interpreter;
+        this.inlineBudget = inlineBudget;
+        this.dumpTypes = dumpTypes;
+        this.printStats = printStats;
+    }
+
+    List<Stmt> optimize(List<Stmt> statements)
+    {
+        statements = run("constant folding", statements, new ConstantFolder(interpreter)::fold);
+        statements = run("dead code elimination", statements, new DeadCodeEliminator(interpreter)::eliminate);
+        if (inlineBudget > 0) {
+            // Inlined bodies see their arguments, fold and prune them again.
+            statements = run("inlining", statements, new Inliner(interpreter, inlineBudget)::inline);
+            statements = run("constant folding", statements, new ConstantFolder(interpreter)::fold);
+            statements = run("dead code elimination", statements, new DeadCodeEliminator(interpreter)::eliminate);
+        }
+        // Before typing, so the fields' locals get types of their own.
+        statements = run("scalar replacement", statements, new ScalarReplacement(interpreter)::replace);
+        statements = run("type specialization", statements, new TypeSpecializer(interpreter, dumpTypes)::specialize);
+        // Hoisting only moves the numeric operators, and unrolled counters fold.
+        statements = run("loop optimization", statements, new LoopOptimizer(interpreter)::optimize);
+        statements = run("constant folding", statements, new ConstantFolder(interpreter)::fold);
+        // Last of the rewrites, the others look for plain variables.
+        statements = run("global speculation", statements, new GlobalSpeculation(interpreter)::speculate);
+        // Only annotates calls, so it sees the final tree.
+        statements = run("devirtualization", statements, new ClassHierarchy(interpreter)::devirtualize);
+        return statements;
+    }
+
+    private List<Stmt> run(String pass, List<Stmt> statements, UnaryOperator<List<Stmt>> rewrite)
+    {
+        if (!printStats) {
+            return rewrite.apply(statements);
+        }
+
+        int before = counter.count(statements);
+        List<Stmt> result = rewrite.apply(statements);
+        int removed = before - counter.count(result);
+        System.err.println("[" + pass + "] " + (removed < 0 ? -removed + " nodes added" : removed + " nodes removed"));
+        return result;
+    }
+}
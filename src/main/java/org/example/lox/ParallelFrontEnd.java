@@ -0,0 +1,103 @@
+package org.example.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Scan and parse the files of a program in parallel, a task per file on a
+ * {@link ForkJoinPool}, and join their statements in the order of the files
+ * into one program. Each task collects its errors, and they are reported
+ * once all files are parsed, by file and then by line, so the output doesn't
+ * depend on which task ran first. Then the files are resolved in order, each
+ * after the {@link Modules} it imports.
+ */
+class ParallelFrontEnd
+{
+    private final ForkJoinPool pool;
+    private final Modules modules;
+    // Passed on to the parsers, see Parser
+    boolean lazy = false;
+    boolean strict = false;
+
+    private record Parsed(List<Token> imports, List<Stmt> statements, List<Lox.Report> errors) {}
+
+    ParallelFrontEnd(ForkJoinPool pool, Modules modules)
+    {
+        this.pool = pool;
+        this.modules = modules;
+    }
+
+    /**
+     * The resolved statements of every file and what they import, or null
+     * after reporting the errors of those that had some
+     */
+    List<Stmt> parse(List<Path> files)
+            throws IOException
+    {
+        List<ForkJoinTask<Parsed>> tasks = new ArrayList<>();
+        for (Path file : files) {
+            tasks.add(pool.submit(() -> parse(file)));
+        }
+
+        List<Parsed> parsedFiles = new ArrayList<>();
+        boolean failed = false;
+        for (int i = 0; i < files.size(); i++) {
+            Parsed parsed = tasks.get(i).join();
+            List<Lox.Report> errors = new ArrayList<>(parsed.errors());
+            // Stable, errors on one line stay in the order they were found.
+            errors.sort(Comparator.comparingInt(Lox.Report::line));
+            for (Lox.Report error : errors) {
+                System.err.println(files.get(i) + " " + error.message());
+            }
+            failed |= !errors.isEmpty();
+            parsedFiles.add(parsed);
+        }
+        if (failed) {
+            Lox.hadError = true;
+            return null;
+        }
+
+        List<Stmt> program = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            Parsed parsed = parsedFiles.get(i);
+            List<Stmt> linked = modules.link(files.get(i).toAbsolutePath().getParent(), parsed.imports(), parsed.statements());
+            if (linked == null) {
+                return null;
+            }
+            program.addAll(linked);
+        }
+        return program;
+    }
+
+    private Parsed parse(Path file)
+    {
+        List<Token> imports = new ArrayList<>();
+        List<Stmt> statements = new ArrayList<>();
+        List<Lox.Report> errors = Lox.collectErrors(() -> {
+            try (StreamingScanner scanner = new StreamingScanner(file)) {
+                Parser parser = new Parser(scanner);
+                parser.lazy = lazy;
+                parser.strict = strict;
+                List<Stmt> parsed = parser.parse();
+                if (parsed != null) {
+                    imports.addAll(parser.imports);
+                    statements.addAll(parsed);
+                }
+            }
+            catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+            catch (Interpreter.RuntimeError error) {
+                // The parser gives up on the file at its first syntax error,
+                // which was collected.
+            }
+        });
+        return new Parsed(imports, statements, errors);
+    }
+}
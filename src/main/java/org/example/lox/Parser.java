@@ -2,7 +2,9 @@ package org.example.lox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.example.lox.TokenType.AND;
 import static org.example.lox.TokenType.BANG;
@@ -21,6 +23,7 @@ import static org.example.lox.TokenType.GREATER;
 import static org.example.lox.TokenType.GREATER_EQUAL;
 import static org.example.lox.TokenType.IDENTIFIER;
 import static org.example.lox.TokenType.IF;
+import static org.example.lox.TokenType.IMPORT;
 import static org.example.lox.TokenType.LEFT_BRACE;
 import static org.example.lox.TokenType.LEFT_PAREN;
 import static org.example.lox.TokenType.LESS;
@@ -103,10 +106,105 @@ public class Parser
     private static class ParseError
             extends RuntimeException {}
 
-    private final List<Token> tokens;
+    /**
+     * How tightly an operator binds, loosest first
+     */
+    private enum Precedence
+    {
+        NONE, ASSIGNMENT, OR, AND, EQUALITY, COMPARISON, TERM, FACTOR, UNARY, CALL;
+
+        private static final Precedence[] VALUES = values();
+
+        Precedence next()
+        {
+            return VALUES[ordinal() + 1];
+        }
+    }
+
+    // The precedence of the infix or postfix operator each token is, by
+    // ordinal, NONE for the tokens that end an expression
+    private static final Precedence[] INFIX = new Precedence[TokenType.values().length];
+
+    static {
+        Arrays.fill(INFIX, Precedence.NONE);
+        INFIX[EQUAL.ordinal()] = Precedence.ASSIGNMENT;
+        INFIX[OR.ordinal()] = Precedence.OR;
+        INFIX[AND.ordinal()] = Precedence.AND;
+        INFIX[BANG_EQUAL.ordinal()] = Precedence.EQUALITY;
+        INFIX[EQUAL_EQUAL.ordinal()] = Precedence.EQUALITY;
+        INFIX[GREATER.ordinal()] = Precedence.COMPARISON;
+        INFIX[GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+        INFIX[LESS.ordinal()] = Precedence.COMPARISON;
+        INFIX[LESS_EQUAL.ordinal()] = Precedence.COMPARISON;
+        INFIX[MINUS.ordinal()] = Precedence.TERM;
+        INFIX[PLUS.ordinal()] = Precedence.TERM;
+        INFIX[SLASH.ordinal()] = Precedence.FACTOR;
+        INFIX[STAR.ordinal()] = Precedence.FACTOR;
+        INFIX[LEFT_PAREN.ordinal()] = Precedence.CALL;
+        INFIX[DOT.ordinal()] = Precedence.CALL;
+    }
+
+    private final TokenSource tokens;
     private int current = 0;
+    // Blocks the parser is in, top-level declarations are at 0
+    private int depth = 0;
+    // Set by --lazy, only brace-match the bodies of top-level functions and methods
+    boolean lazy = false;
+    // Set by --strict, still report the syntax errors in those bodies up front
+    boolean strict = false;
+    // The paths of the file's imports, see Modules
+    final List<Token> imports = new ArrayList<>();
 
     Parser(List<Token> tokens)
+    {
+        this(new TokenSource()
+        {
+            @Override
+            public TokenType type(int index)
+            {
+                return tokens.get(index).type;
+            }
+
+            @Override
+            public Token token(int index)
+            {
+                return tokens.get(index);
+            }
+
+            @Override
+            public Object literal(int index)
+            {
+                return tokens.get(index).literal;
+            }
+
+            // The token the captured text starts at
+            private int from = -1;
+
+            @Override
+            public void capture(int from)
+            {
+                this.from = from;
+            }
+
+            @Override
+            public String captured(int to)
+            {
+                // Rebuilt from the lexemes, each on its line, since the
+                // tokens don't know where they were in the source.
+                StringBuilder text = new StringBuilder(tokens.get(from).lexeme);
+                for (int i = from + 1; i <= to; i++) {
+                    Token token = tokens.get(i);
+                    // A string token has the line it ends on.
+                    int lines = token.line - tokens.get(i - 1).line - (int) token.lexeme.chars().filter(c -> c == '\n').count();
+                    text.append(lines > 0 ? "\n".repeat(lines) : " ").append(token.lexeme);
+                }
+                from = -1;
+                return text.toString();
+            }
+        });
+    }
+
+    Parser(TokenSource tokens)
     {
         this.tokens = tokens;
     }
@@ -145,12 +243,13 @@ public class Parser
 
     private Expr expression()
     {
-        return assignment();
+        return expression(Precedence.ASSIGNMENT);
     }
 
     List<Stmt> parse()
     {
         try {
+            header();
             List<Stmt> statements = new ArrayList<>();
             while (!isAtEnd()) {
                 statements.add(declaration());
@@ -164,9 +263,57 @@ public class Parser
         return null;
     }
 
+    /**
+     * The imports at the top of a file
+     */
+    void header()
+    {
+        while (match(IMPORT)) {
+            importDeclaration();
+        }
+    }
+
+    /**
+     * Parse top-level declarations from a token on, for the
+     * {@link IncrementalFrontEnd}, until one ends at or past another token.
+     * The index each declaration starts at is added to starts.
+     */
+    List<Stmt> declarations(int from, int until, List<Integer> starts)
+    {
+        current = from;
+        List<Stmt> statements = new ArrayList<>();
+        while (!isAtEnd() && current < until) {
+            starts.add(current);
+            statements.add(declaration());
+        }
+        return statements;
+    }
+
+    /**
+     * The index of the next token to parse
+     */
+    int position()
+    {
+        return current;
+    }
+
+    private void importDeclaration()
+    {
+        try {
+            imports.add(consume(STRING, "Expect module path after 'import'"));
+            expect(SEMICOLON, "Expect ';' after module path");
+        }
+        catch (ParseError error) {
+            throw new Interpreter.RuntimeError(previous(), error.getMessage() + "; Parser error");
+        }
+    }
+
     private Stmt declaration()
     {
         try {
+            if (check(IMPORT)) {
+                throw error(peek(), "Imports must come before other declarations");
+            }
             if (match(CLASS)) {
                 return classDeclaration();
             }
@@ -179,18 +326,19 @@ public class Parser
             return statement();
         }
         catch (ParseError error) {
-            throw new Interpreter.RuntimeError(previous(), error.getMessage() + "; Parser error");
+            // The error can be at the first token, with none before it.
+            throw new Interpreter.RuntimeError(current > 0 ? previous() : peek(), error.getMessage() + "; Parser error");
         }
     }
 
     private Stmt classDeclaration()
     {
         Token name = consume(IDENTIFIER, "Expect class name");
-        consume(LEFT_BRACE, "Expect '{' before class body");
+        expect(LEFT_BRACE, "Expect '{' before class body");
 
         Expr.Variable superclass = null;
         if (match(LESS)) {
-            consume(IDENTIFIER, "Expect superclass name");
+            expect(IDENTIFIER, "Expect superclass name");
             superclass = new Expr.Variable(previous());
         }
 
@@ -199,7 +347,7 @@ public class Parser
             methods.add(function("method"));
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        expect(RIGHT_BRACE, "Expect '}' after class body.");
         return new Stmt.Class(name, superclass, methods);
     }
 
@@ -207,7 +355,7 @@ public class Parser
     {
         Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
 
-        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        expect(LEFT_PAREN, "Expect '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
             do {
@@ -219,13 +367,78 @@ public class Parser
             }
             while (match(COMMA));
         }
-        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        expect(RIGHT_PAREN, "Expect ')' after parameters.");
 
-        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        expect(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        if (lazy && depth == 0 && !name.lexeme.equals("init")) {
+            return new Stmt.Function(name, parameters, skipBody(name));
+        }
         List<Stmt> body = block();
         return new Stmt.Function(name, parameters, body);
     }
 
+    /**
+     * Skip to the } that closes a body by matching braces, noting the names
+     * assigned along the way, and keep its source to parse later
+     */
+    private LazyBody skipBody(Token name)
+    {
+        int brace = current - 1;
+        int line = previous().line;
+        tokens.capture(brace);
+
+        Set<String> assigned = new HashSet<>();
+        TokenType beforeLast = LEFT_BRACE;
+        TokenType last = LEFT_BRACE;
+        int open = 1;
+        // In a while condition, which the } after it closes, see whileStatement
+        boolean condition = false;
+        while (open > 0) {
+            TokenType type = tokens.type(current);
+            if (type == EOF) {
+                throw error(peek(), "Expect '}' after block.");
+            }
+            if (type == LEFT_PAREN && last == WHILE) {
+                condition = true;
+            }
+            else if (type == RIGHT_BRACE && condition) {
+                condition = false;
+            }
+            else if (type == LEFT_BRACE) {
+                open++;
+            }
+            else if (type == RIGHT_BRACE) {
+                open--;
+            }
+            else if (type == EQUAL && last == IDENTIFIER && beforeLast != DOT) {
+                assigned.add(previous().lexeme);
+            }
+            advance();
+            beforeLast = last;
+            last = type;
+        }
+
+        LazyBody body = new LazyBody(name, tokens.captured(current - 1), line, assigned);
+        if (strict) {
+            body.check();
+        }
+        return body;
+    }
+
+    /**
+     * Parse a function body from its { to its }, see {@link LazyBody}
+     */
+    List<Stmt> body()
+    {
+        try {
+            expect(LEFT_BRACE, "Expect '{' before function body.");
+            return block();
+        }
+        catch (ParseError error) {
+            throw new Interpreter.RuntimeError(peek(), error.getMessage() + "; Parser error");
+        }
+    }
+
     private Stmt varDeclaration()
     {
         Token name = consume(IDENTIFIER, "Expect variable name.");
@@ -235,7 +448,7 @@ public class Parser
             initializer = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after variable declaration.");
+        expect(SEMICOLON, "Expect ';' after variable declaration.");
         return new Stmt.Var(name, initializer);
     }
 
@@ -276,13 +489,13 @@ public class Parser
             value = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after return value.");
+        expect(SEMICOLON, "Expect ';' after return value.");
         return new Stmt.Return(keyword, value);
     }
 
     private Stmt forStatement()
     {
-        consume(LEFT_PAREN, "Expect '(' after 'for'");
+        expect(LEFT_PAREN, "Expect '(' after 'for'");
         Stmt initializer;
         if (match(SEMICOLON)) {
             initializer = null;
@@ -298,13 +511,13 @@ public class Parser
         if (!check(SEMICOLON)) {
             condition = expression();
         }
-        consume(SEMICOLON, "Expected ';' after for loop condition");
+        expect(SEMICOLON, "Expected ';' after for loop condition");
 
         Expr increment = null;
         if (!check(RIGHT_PAREN)) {
             increment = expression();
         }
-        consume(RIGHT_PAREN, "Expected ')' after for loop increment");
+        expect(RIGHT_PAREN, "Expected ')' after for loop increment");
 
         Stmt body = statement();
 
@@ -315,7 +528,7 @@ public class Parser
         if (increment != null) {
             body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
         }
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(condition, body, null);
         if (initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
         }
@@ -325,19 +538,19 @@ public class Parser
 
     private Stmt whileStatement()
     {
-        consume(LEFT_PAREN, "Expect '(' after 'while'");
+        expect(LEFT_PAREN, "Expect '(' after 'while'");
         Expr condition = expression();
-        consume(RIGHT_BRACE, "Expect ')' after while condition");
+        expect(RIGHT_BRACE, "Expect ')' after while condition");
 
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(condition, body, null);
     }
 
     private Stmt ifStatement()
     {
-        consume(LEFT_PAREN, "Expect '(' after 'if'");
+        expect(LEFT_PAREN, "Expect '(' after 'if'");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after if condition");
+        expect(RIGHT_PAREN, "Expect ')' after if condition");
 
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
@@ -352,155 +565,104 @@ public class Parser
     {
         List<Stmt> statements = new ArrayList<>();
 
+        depth++;
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             statements.add(declaration());
         }
+        depth--;
 
-        consume(RIGHT_BRACE, "Expect '}' after block.");
+        expect(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
 
     private Stmt printStatement()
     {
         Expr value = expression();
-        consume(SEMICOLON, "Expect ';' after value.");
+        expect(SEMICOLON, "Expect ';' after value.");
         return new Stmt.Print(value);
     }
 
     private Stmt expressionStatement()
     {
         Expr expr = expression();
-        consume(SEMICOLON, "Expect ';' after expression.");
+        expect(SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
 
-    private Expr assignment()
+    /**
+     * Parse an expression whose operators bind at least as tightly as the
+     * minimum, see {@link Precedence}. The operator after the left operand
+     * decides how it continues, so there's no call per level of the grammar
+     * to get to a primary.
+     */
+    private Expr expression(Precedence minimum)
     {
-        Expr expr = or();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
+        Expr expr = prefix();
 
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            }
-            else if (expr instanceof Expr.Get get) {
-                return new Expr.Set(get.object, get.name, value);
+        while (true) {
+            TokenType type = tokens.type(current);
+            Precedence precedence = INFIX[type.ordinal()];
+            if (precedence.compareTo(minimum) < 0) {
+                return expr;
             }
-
-            throw error(equals, "Invalid assignment target.");
-        }
-
-        return expr;
-    }
-
-    private Expr or()
-    {
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr and()
-    {
-        Expr expr = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr equality()
-    {
-        Expr expr = comparison();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+            advance();
+            expr = infix(expr, type, precedence);
         }
-
-        return expr;
     }
 
-    private Expr comparison()
+    private Expr prefix()
     {
-        Expr expr = term();
-
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
+        TokenType type = tokens.type(current);
+        if (type == BANG || type == MINUS) {
+            advance();
             Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+            Expr right = expression(Precedence.UNARY);
+            return new Expr.Unary(operator, right);
         }
 
-        return expr;
+        return primary();
     }
 
-    private Expr term()
+    private Expr infix(Expr left, TokenType type, Precedence precedence)
     {
-        Expr expr = factor();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+        switch (type) {
+            case EQUAL:
+                return assignment(left);
+            case LEFT_PAREN:
+                return finishCall(left);
+            case DOT:
+                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+                return new Expr.Get(left, name);
+            case OR:
+            case AND: {
+                Token operator = previous();
+                Expr right = expression(precedence.next());
+                return new Expr.Logical(left, operator, right);
+            }
+            default: {
+                Token operator = previous();
+                Expr right = expression(precedence.next());
+                return new Expr.Binary(left, operator, right);
+            }
         }
-
-        return expr;
     }
 
-    private Expr factor()
+    private Expr assignment(Expr target)
     {
-        Expr expr = unary();
+        // The parser only looks one token back, so hold on to the = now if
+        // the error needs it.
+        Token equals = target instanceof Expr.Variable || target instanceof Expr.Get ? null : previous();
+        // Right-associative, a = b = c assigns b first.
+        Expr value = expression(Precedence.ASSIGNMENT);
 
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+        if (target instanceof Expr.Variable variable) {
+            return new Expr.Assign(variable.name, value);
         }
-
-        return expr;
-    }
-
-    private Expr unary()
-    {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+        else if (target instanceof Expr.Get get) {
+            return new Expr.Set(get.object, get.name, value);
         }
 
-        return call();
-    }
-
-    private Expr call()
-    {
-        Expr expr = primary();
-
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            }
-            else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            }
-            else {
-                break;
-            }
-        }
-
-        return expr;
+        throw error(equals, "Invalid assignment target.");
     }
 
     private Expr finishCall(Expr callee)
@@ -533,60 +695,69 @@ public class Parser
 
     private Expr primary()
     {
-        if (match(FALSE)) {
-            return new Expr.Literal(false);
-        }
-        if (match(TRUE)) {
-            return new Expr.Literal(true);
-        }
-        if (match(NIL)) {
-            return new Expr.Literal(null);
-        }
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-
-        if (match(THIS)) {
-            return new Expr.This(previous());
-        }
-
-        if (match(SUPER)) {
-            Token keyword = previous();
-            consume(DOT, "Expect dot after 'super' keyword");
-
-            Token method = consume(IDENTIFIER, "Expect identifier after super call");
-            return new Expr.Super(keyword, method);
-        }
+        switch (tokens.type(current)) {
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
+            case NUMBER:
+            case STRING:
+                advance();
+                return new Expr.Literal(tokens.literal(current - 1));
+            case THIS:
+                advance();
+                return new Expr.This(previous());
+            case SUPER: {
+                advance();
+                Token keyword = previous();
+                expect(DOT, "Expect dot after 'super' keyword");
 
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
+                Token method = consume(IDENTIFIER, "Expect identifier after super call");
+                return new Expr.Super(keyword, method);
+            }
+            case IDENTIFIER:
+                advance();
+                return new Expr.Variable(previous());
+            case LEFT_PAREN: {
+                advance();
+                Expr expr = expression();
+                expect(RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            }
+            default:
+                throw error(peek(), "Expect expression.");
         }
+    }
 
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
+    private boolean match(TokenType type)
+    {
+        if (check(type)) {
+            advance();
+            return true;
         }
-
-        throw error(peek(), "Expect expression.");
+        return false;
     }
 
-    private boolean match(TokenType... types)
+    private void expect(TokenType type, String message)
     {
-        for (TokenType tokenType : types) {
-            if (check(tokenType)) {
-                advance();
-                return true;
-            }
+        if (check(type)) {
+            advance();
+            return;
         }
-        return false;
+
+        throw error(peek(), message);
     }
 
     private Token consume(TokenType type, String message)
     {
         if (check(type)) {
-            return advance();
+            advance();
+            return previous();
         }
 
         throw error(peek(), message);
@@ -603,11 +774,11 @@ public class Parser
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON) {
+            if (tokens.type(current - 1) == SEMICOLON) {
                 return;
             }
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -628,29 +799,28 @@ public class Parser
         if (isAtEnd()) {
             return false;
         }
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance()
+    private void advance()
     {
         if (!isAtEnd()) {
             current++;
         }
-        return previous();
     }
 
     private boolean isAtEnd()
     {
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
 
     private Token peek()
     {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous()
     {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 }
@@ -0,0 +1,252 @@
+package org.example.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Find the top-level functions whose result only depends on their arguments:
+ * no print, no field writes, no global reads or writes other than calls to
+ * other pure functions, and no nested functions or classes that could
+ * capture their state. Runs after the resolver, on a whole program.
+ */
+class PurityAnalyzer
+        implements Expr.Visitor<Boolean>, Stmt.Visitor<Boolean>
+{
+    private final Interpreter interpreter;
+    // Candidates that are still assumed to be pure
+    private final Map<String, Stmt.Function> pure = new HashMap<>();
+
+    PurityAnalyzer(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    Set<Stmt.Function> analyze(List<Stmt> statements)
+    {
+        Set<String> declaredTwice = new HashSet<>();
+        Set<String> declared = new HashSet<>();
+        for (Stmt statement : statements) {
+            Token name = declaredName(statement);
+            if (name != null && !declared.add(name.lexeme)) {
+                declaredTwice.add(name.lexeme);
+            }
+            if (statement instanceof Stmt.Function function) {
+                pure.put(function.name.lexeme, function);
+            }
+        }
+        pure.keySet().removeAll(declaredTwice);
+        GlobalAssignments.scan(interpreter, statements).forEach(pure::remove);
+
+        // Calls between candidates make this a fixpoint: drop until nothing changes.
+        boolean changed = true;
+        while (changed) {
+            changed = pure.values().removeIf(function -> LazyBody.pending(function) || !pure(function.body));
+        }
+        return new HashSet<>(pure.values());
+    }
+
+    private static Token declaredName(Stmt statement)
+    {
+        if (statement instanceof Stmt.Function function) {
+            return function.name;
+        }
+        if (statement instanceof Stmt.Var var) {
+            return var.name;
+        }
+        if (statement instanceof Stmt.Class klass) {
+            return klass.name;
+        }
+        return null;
+    }
+
+    private boolean pure(List<Stmt> statements)
+    {
+        for (Stmt statement : statements) {
+            if (!statement.accept(this)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean pure(Expr expr)
+    {
+        return expr == null || expr.accept(this);
+    }
+
+    @Override
+    public Boolean visitAssignExpr(Expr.Assign expr)
+    {
+        return interpreter.depth(expr) != null && pure(expr.value);
+    }
+
+    @Override
+    public Boolean visitBinaryExpr(Expr.Binary expr)
+    {
+        return pure(expr.left) && pure(expr.right);
+    }
+
+    @Override
+    public Boolean visitCallExpr(Expr.Call expr)
+    {
+        // Only direct calls of candidates, which visitVariableExpr checks.
+        if (!(expr.callee instanceof Expr.Variable || expr.callee instanceof Expr.Global)) {
+            return false;
+        }
+        for (Expr argument : expr.arguments) {
+            if (!pure(argument)) {
+                return false;
+            }
+        }
+        return pure(expr.callee);
+    }
+
+    @Override
+    public Boolean visitGetExpr(Expr.Get expr)
+    {
+        return false;
+    }
+
+    @Override
+    public Boolean visitGroupingExpr(Expr.Grouping expr)
+    {
+        return pure(expr.expression);
+    }
+
+    @Override
+    public Boolean visitLiteralExpr(Expr.Literal expr)
+    {
+        return true;
+    }
+
+    @Override
+    public Boolean visitLogicalExpr(Expr.Logical expr)
+    {
+        return pure(expr.left) && pure(expr.right);
+    }
+
+    @Override
+    public Boolean visitSetExpr(Expr.Set expr)
+    {
+        return false;
+    }
+
+    @Override
+    public Boolean visitSuperExpr(Expr.Super expr)
+    {
+        return false;
+    }
+
+    @Override
+    public Boolean visitThisExpr(Expr.This expr)
+    {
+        return false;
+    }
+
+    @Override
+    public Boolean visitUnaryExpr(Expr.Unary expr)
+    {
+        return pure(expr.right);
+    }
+
+    @Override
+    public Boolean visitTernaryExpr(Expr.Ternary expr)
+    {
+        return pure(expr.compare) && pure(expr.left) && pure(expr.right);
+    }
+
+    @Override
+    public Boolean visitInlineExpr(Expr.Inline expr)
+    {
+        return pure(expr.call) && pure(expr.body);
+    }
+
+    @Override
+    public Boolean visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        return pure(expr.left) && pure(expr.right);
+    }
+
+    @Override
+    public Boolean visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        return pure(expr.right);
+    }
+
+    @Override
+    public Boolean visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        return pure(expr.callee);
+    }
+
+    @Override
+    public Boolean visitGlobalExpr(Expr.Global expr)
+    {
+        return visitVariableExpr(expr.variable);
+    }
+
+    @Override
+    public Boolean visitVariableExpr(Expr.Variable expr)
+    {
+        // Top-level functions close over the globals only, so any local is their own.
+        return interpreter.depth(expr) != null || pure.containsKey(expr.name.lexeme);
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Stmt.Block stmt)
+    {
+        return pure(stmt.statements);
+    }
+
+    @Override
+    public Boolean visitClassStmt(Stmt.Class stmt)
+    {
+        return false;
+    }
+
+    @Override
+    public Boolean visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return pure(stmt.expression);
+    }
+
+    @Override
+    public Boolean visitFunctionStmt(Stmt.Function stmt)
+    {
+        return false;
+    }
+
+    @Override
+    public Boolean visitIfStmt(Stmt.If stmt)
+    {
+        return pure(stmt.condition) && stmt.thenBranch.accept(this)
+                && (stmt.elseBranch == null || stmt.elseBranch.accept(this));
+    }
+
+    @Override
+    public Boolean visitWhileStmt(Stmt.While stmt)
+    {
+        return pure(stmt.condition) && stmt.body.accept(this) && pure(stmt.increment);
+    }
+
+    @Override
+    public Boolean visitPrintStmt(Stmt.Print stmt)
+    {
+        return false;
+    }
+
+    @Override
+    public Boolean visitReturnStmt(Stmt.Return stmt)
+    {
+        return pure(stmt.value);
+    }
+
+    @Override
+    public Boolean visitVarStmt(Stmt.Var stmt)
+    {
+        return pure(stmt.initializer);
+    }
+}
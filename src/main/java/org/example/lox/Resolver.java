@@ -1,8 +1,11 @@
 package org.example.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 public class Resolver
@@ -145,13 +148,64 @@ public class Resolver
         return null;
     }
 
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr)
+    {
+        // Only created by the Inliner, after resolution.
+        resolve(expr.call);
+        resolve(expr.body);
+        return null;
+    }
+
+    @Override
+    public Void visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        // Only created by ScalarReplacement, after resolution.
+        resolve(expr.callee);
+        return null;
+    }
+
+    @Override
+    public Void visitGlobalExpr(Expr.Global expr)
+    {
+        // Only created by GlobalSpeculation, after resolution.
+        return null;
+    }
+
     // ================== Statement
     @Override
     public Void visitBlockStmt(Stmt.Block stmt)
     {
-        beginScope();
+        List<Token> names = declaredNames(stmt.statements);
+        if (!canElide(names, stmt.statements)) {
+            beginScope();
+            resolve(stmt.statements);
+            endScope();
+            return null;
+        }
+
+        // Declares into the enclosing scope, and its names leave that scope with it.
+        interpreter.elide(stmt);
         resolve(stmt.statements);
-        endScope();
+        for (Token name : names) {
+            scopes.peek().remove(name.lexeme);
+            declarations.peek().remove(name.lexeme);
+        }
         return null;
     }
 
@@ -231,6 +285,9 @@ public class Resolver
     {
         resolve(stmt.condition);
         resolve(stmt.body);
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
         return null;
     }
 
@@ -252,6 +309,11 @@ public class Resolver
             resolve(stmt.value);
         }
 
+        if (stmt.value instanceof Expr.Call call
+                && (currentFunction == FunctionType.FUNCTION || currentFunction == FunctionType.METHOD)) {
+            interpreter.tailCall(call);
+        }
+
         if (currentFunction == FunctionType.INITIALIZER) {
             Lox.error(stmt.keyword, "Can't return a value from an initializer.");
         }
@@ -273,11 +335,13 @@ public class Resolver
     private void beginScope()
     {
         scopes.push(new HashMap<>());
+        declarations.push(new HashMap<>());
     }
 
     private void endScope()
     {
         scopes.pop();
+        declarations.pop();
     }
 
     void resolve(List<Stmt> statements)
@@ -308,6 +372,7 @@ public class Resolver
             Lox.error(name, "Already a variable with this name in this scope.");
         }
         scope.put(name.lexeme, false);
+        declarations.peek().put(name.lexeme, name);
     }
 
     private void define(Token name)
@@ -325,27 +390,136 @@ public class Resolver
     {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
+                // Every function it's declared outside of closes over it.
+                for (int j = functions.size() - 1; j >= 0 && functions.get(j).scope() > i; j--) {
+                    capturing.add(functions.get(j).function());
+                }
                 interpreter.resolve(expr, scopes.size() - 1 - i);
+                Token declaration = declarations.get(i).get(name.lexeme);
+                if (declaration != null) {
+                    interpreter.bind(expr, declaration);
+                }
                 return;
             }
         }
     }
 
+    private static List<Token> declaredNames(List<Stmt> statements)
+    {
+        List<Token> names = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var var) {
+                names.add(var.name);
+            }
+            else if (statement instanceof Stmt.Function function) {
+                names.add(function.name);
+            }
+            else if (statement instanceof Stmt.Class klass) {
+                names.add(klass.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Whether a block can run in the environment around it without a scope
+     * of its own. Its names must not be in the enclosing local scope already,
+     * and no function or class inside may close over them, since those expect
+     * a fresh binding every time the block runs, as in a loop body.
+     */
+    private boolean canElide(List<Token> names, List<Stmt> statements)
+    {
+        if (names.isEmpty()) {
+            return true;
+        }
+        if (scopes.isEmpty()) {
+            // They'd become globals.
+            return false;
+        }
+        for (Token name : names) {
+            if (scopes.peek().containsKey(name.lexeme)) {
+                return false;
+            }
+        }
+
+        boolean[] closes = {false};
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Stmt visitFunctionStmt(Stmt.Function stmt)
+            {
+                closes[0] = true;
+                return stmt;
+            }
+
+            @Override
+            public Stmt visitClassStmt(Stmt.Class stmt)
+            {
+                closes[0] = true;
+                return stmt;
+            }
+        }.rewrite(statements);
+        return !closes[0];
+    }
+
     private void resolveFunction(Stmt.Function function, FunctionType type)
+    {
+        if (LazyBody.pending(function)) {
+            // Resolved once it's parsed, in a copy of the scopes it's declared in.
+            Resolver deferred = copy();
+            ((LazyBody) function.body).resolveWith(body -> deferred.resolveFunction(function, type, body));
+            return;
+        }
+        resolveFunction(function, type, function.body);
+    }
+
+    private void resolveFunction(Stmt.Function function, FunctionType type, List<Stmt> body)
     {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
+        functions.push(new Enclosing(function, scopes.size()));
         beginScope();
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolve(body);
         endScope();
+        functions.pop();
+
+        // A local function that only uses its own locals and globals needs no closure.
+        if (type == FunctionType.FUNCTION && !scopes.isEmpty() && !capturing.contains(function)) {
+            interpreter.lift(function);
+        }
 
         currentFunction = enclosingFunction;
     }
 
+    /**
+     * A resolver in the same scopes and class and function as this one
+     */
+    private Resolver copy()
+    {
+        Resolver copy = new Resolver(interpreter);
+        copy.currentFunction = currentFunction;
+        copy.currentClass = currentClass;
+        for (int i = 0; i < scopes.size(); i++) {
+            copy.scopes.push(new HashMap<>(scopes.get(i)));
+            copy.declarations.push(new HashMap<>(declarations.get(i)));
+        }
+        copy.functions.addAll(functions);
+        return copy;
+    }
+
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // The name token each local was declared with, 'this' and 'super' have none
+    private final Stack<Map<String, Token>> declarations = new Stack<>();
+
+    // The functions being resolved, with the index of the scope of their parameters
+    private record Enclosing(Stmt.Function function, int scope) {}
+
+    private final Stack<Enclosing> functions = new Stack<>();
+    // Functions that read or assign a local of an enclosing scope
+    private final Set<Stmt.Function> capturing = new HashSet<>();
 }
@@ -84,6 +84,36 @@ public class RpnPrinter
         return null;
     }
 
+    @Override
+    public String visitInlineExpr(Expr.Inline expr)
+    {
+        return null;
+    }
+
+    @Override
+    public String visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        return null;
+    }
+
+    @Override
+    public String visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        return null;
+    }
+
+    @Override
+    public String visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        return null;
+    }
+
+    @Override
+    public String visitGlobalExpr(Expr.Global expr)
+    {
+        return null;
+    }
+
     public static void main(String[] args)
     {
         Expr expr = new Expr.Binary(
@@ -0,0 +1,411 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replace instances that never escape the block they're created in by a
+ * local per field. Candidates are locals initialized as {@code var p = C(...)}
+ * where C is a top-level class without a superclass, declared once and never
+ * assigned, whose init only assigns fields from its parameters. Everything
+ * after the declaration in the block may only read and write those fields of
+ * p, or make an inlined call of one of C's methods on it.
+ * <p>
+ * The rest of the block is rewritten to use the locals, and kept as it was
+ * behind an {@link Expr.ClassGuard} for when C isn't that class at run time.
+ */
+class ScalarReplacement
+        extends AstRewriter
+{
+    // Everything after a replaced declaration is duplicated, this bounds the copy.
+    static final int MAX_REGION_NODES = 256;
+
+    private final NodeCounter nodes = new NodeCounter();
+    private final Map<String, Layout> classes = new HashMap<>();
+    private int scopeDepth = 0;
+
+    /**
+     * A candidate class, with its fields in the order init assigns them
+     */
+    private record Layout(Stmt.Class declaration, Stmt.Function initializer, Set<String> fields)
+    {
+        int arity()
+        {
+            return initializer == null ? 0 : initializer.params.size();
+        }
+
+        Stmt.Function method(String name)
+        {
+            for (Stmt.Function method : declaration.methods) {
+                if (method.name.lexeme.equals(name)) {
+                    return method;
+                }
+            }
+            return null;
+        }
+    }
+
+    ScalarReplacement(Interpreter interpreter)
+    {
+        super(interpreter);
+    }
+
+    List<Stmt> replace(List<Stmt> statements)
+    {
+        Set<String> declared = new HashSet<>();
+        Set<String> declaredTwice = new HashSet<>();
+        for (Stmt statement : statements) {
+            Token name = Inliner.declaredName(statement);
+            if (name != null && !declared.add(name.lexeme)) {
+                declaredTwice.add(name.lexeme);
+            }
+            if (statement instanceof Stmt.Class klass && klass.superclass == null) {
+                Layout layout = layout(klass);
+                if (layout != null) {
+                    classes.put(klass.name.lexeme, layout);
+                }
+            }
+        }
+        classes.keySet().removeAll(declaredTwice);
+        classes.keySet().removeAll(GlobalAssignments.scan(interpreter, statements));
+        if (classes.isEmpty()) {
+            return statements;
+        }
+        return rewrite(statements);
+    }
+
+    /**
+     * The fields of a class whose init is nothing but {@code this.name = value;}
+     * statements that don't read this, or null
+     */
+    private Layout layout(Stmt.Class klass)
+    {
+        Stmt.Function initializer = null;
+        for (Stmt.Function method : klass.methods) {
+            if (method.name.lexeme.equals("init")) {
+                initializer = method;
+            }
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        if (initializer == null) {
+            return new Layout(klass, null, fields);
+        }
+
+        Set<Token> params = new HashSet<>(initializer.params);
+        for (Stmt statement : initializer.body) {
+            if (!(statement instanceof Stmt.Expression expression)
+                    || !(expression.expression instanceof Expr.Set set)
+                    || !(set.object instanceof Expr.This)
+                    || !substitutable(set.value, params)) {
+                return null;
+            }
+            fields.add(set.name.lexeme);
+        }
+        return new Layout(klass, initializer, fields);
+    }
+
+    /**
+     * Whether an initializer's value computes the same at the allocation site
+     * once its parameters are substituted
+     */
+    private boolean substitutable(Expr value, Set<Token> params)
+    {
+        boolean[] substitutable = {true};
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Expr visitVariableExpr(Expr.Variable expr)
+            {
+                substitutable[0] &= interpreter.depth(expr) == null || params.contains(interpreter.declaration(expr));
+                return expr;
+            }
+
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr)
+            {
+                substitutable[0] = false;
+                return expr;
+            }
+
+            @Override
+            public Expr visitThisExpr(Expr.This expr)
+            {
+                substitutable[0] = false;
+                return expr;
+            }
+
+            @Override
+            public Expr visitSuperExpr(Expr.Super expr)
+            {
+                substitutable[0] = false;
+                return expr;
+            }
+
+            @Override
+            public Expr visitInlineExpr(Expr.Inline expr)
+            {
+                substitutable[0] = false;
+                return expr;
+            }
+        }.rewrite(value);
+        return substitutable[0];
+    }
+
+    @Override
+    List<Stmt> rewrite(List<Stmt> statements)
+    {
+        List<Stmt> result = super.rewrite(statements);
+        if (scopeDepth == 0) {
+            // Globals can be read by later REPL lines.
+            return result;
+        }
+        // From the end, so the region of an earlier object includes the later ones replaced.
+        for (int i = result.size() - 1; i >= 0; i--) {
+            Stmt replaced = replace(result, i);
+            if (replaced != null) {
+                List<Stmt> rest = new ArrayList<>(result.subList(0, i));
+                rest.add(replaced);
+                result = rest;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt)
+    {
+        scopeDepth++;
+        try {
+            return super.visitBlockStmt(stmt);
+        }
+        finally {
+            scopeDepth--;
+        }
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt)
+    {
+        scopeDepth++;
+        try {
+            return super.visitFunctionStmt(stmt);
+        }
+        finally {
+            scopeDepth--;
+        }
+    }
+
+    /**
+     * The guarded replacement of the statements from the i-th on, if that
+     * declares an object that doesn't escape them
+     */
+    private Stmt replace(List<Stmt> statements, int i)
+    {
+        if (!(statements.get(i) instanceof Stmt.Var var)
+                || !(var.initializer instanceof Expr.Call call)
+                || !(call.callee instanceof Expr.Variable callee)
+                || interpreter.depth(callee) != null) {
+            return null;
+        }
+        Layout layout = classes.get(callee.name.lexeme);
+        List<Stmt> region = statements.subList(i + 1, statements.size());
+        if (layout == null || layout.arity() != call.arguments.size() || nodes.count(region) > MAX_REGION_NODES) {
+            return null;
+        }
+
+        Fields fields = new Fields(var.name, layout);
+        List<Stmt> replaced = fields.rewrite(region);
+        if (fields.escapes) {
+            return null;
+        }
+
+        List<Stmt> allocation = new ArrayList<>();
+        Map<Token, Expr> arguments = new HashMap<>();
+        for (int j = 0; j < call.arguments.size(); j++) {
+            Token param = layout.initializer.params.get(j);
+            Expr argument = call.arguments.get(j);
+            if (argument instanceof Expr.Literal) {
+                arguments.put(param, argument);
+            }
+            else {
+                // Evaluated once, in order, as the call would have.
+                Token name = synthetic(var.name, "$" + param.lexeme);
+                allocation.add(new Stmt.Var(name, argument));
+                arguments.put(param, local(name));
+            }
+        }
+        if (layout.initializer != null) {
+            Set<Token> defined = new HashSet<>();
+            for (Stmt statement : layout.initializer.body) {
+                Expr.Set set = (Expr.Set) ((Stmt.Expression) statement).expression;
+                Token field = fields.local(set.name.lexeme);
+                Expr value = new Substitution(arguments).rewrite(set.value);
+                if (defined.add(field)) {
+                    allocation.add(new Stmt.Var(field, value));
+                }
+                else {
+                    allocation.add(new Stmt.Expression(assign(field, value)));
+                }
+            }
+        }
+        allocation.addAll(replaced);
+
+        List<Stmt> original = new ArrayList<>();
+        original.add(var);
+        original.addAll(region);
+
+        // Both run in the block's own environment, as the statements did.
+        Stmt.Block thenBranch = new Stmt.Block(allocation);
+        Stmt.Block elseBranch = new Stmt.Block(original);
+        interpreter.elide(thenBranch);
+        interpreter.elide(elseBranch);
+        return new Stmt.If(new Expr.ClassGuard(callee, layout.declaration.name), thenBranch, elseBranch);
+    }
+
+    private static Token synthetic(Token object, String suffix)
+    {
+        return new Token(TokenType.IDENTIFIER, object.lexeme + suffix, null, object.line);
+    }
+
+    /**
+     * A reference to a local declared in the statement list being replaced
+     */
+    private Expr.Variable local(Token name)
+    {
+        Expr.Variable variable = new Expr.Variable(name);
+        interpreter.resolve(variable, 0);
+        interpreter.bind(variable, name);
+        return variable;
+    }
+
+    private Expr.Assign assign(Token name, Expr value)
+    {
+        Expr.Assign assign = new Expr.Assign(name, value);
+        interpreter.resolve(assign, 0);
+        interpreter.bind(assign, name);
+        return assign;
+    }
+
+    /**
+     * Substitute the arguments for the parameters of an initializer
+     */
+    private class Substitution
+            extends AstRewriter
+    {
+        private final Map<Token, Expr> arguments;
+
+        Substitution(Map<Token, Expr> arguments)
+        {
+            super(ScalarReplacement.this.interpreter);
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            Expr argument = arguments.get(interpreter.declaration(expr));
+            if (argument instanceof Expr.Variable variable) {
+                return local(variable.name);
+            }
+            return argument != null ? new Expr.Literal(((Expr.Literal) argument).value) : expr;
+        }
+    }
+
+    /**
+     * Rewrite the uses of an object into uses of its field locals, noting any
+     * use that lets it escape
+     */
+    private class Fields
+            extends AstRewriter
+    {
+        private final Token object;
+        private final Layout layout;
+        private final Map<String, Token> locals = new HashMap<>();
+        boolean escapes = false;
+
+        Fields(Token object, Layout layout)
+        {
+            super(ScalarReplacement.this.interpreter);
+            this.object = object;
+            this.layout = layout;
+        }
+
+        Token local(String field)
+        {
+            return locals.computeIfAbsent(field, name -> synthetic(object, "." + name));
+        }
+
+        private boolean isObject(Expr expr)
+        {
+            return expr instanceof Expr.Variable && interpreter.declaration(expr) == object;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            escapes |= isObject(expr);
+            return expr;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr)
+        {
+            escapes |= interpreter.declaration(expr) == object;
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr)
+        {
+            if (!isObject(expr.object)) {
+                return super.visitGetExpr(expr);
+            }
+            if (!layout.fields.contains(expr.name.lexeme)) {
+                // A method bound to it, or a missing property.
+                escapes = true;
+                return expr;
+            }
+            Token field = local(expr.name.lexeme);
+            Expr.Variable variable = new Expr.Variable(field);
+            interpreter.resolve(variable, interpreter.depth(expr.object));
+            interpreter.bind(variable, field);
+            return variable;
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr)
+        {
+            if (!isObject(expr.object)) {
+                return super.visitSetExpr(expr);
+            }
+            if (!layout.fields.contains(expr.name.lexeme)) {
+                escapes = true;
+                return expr;
+            }
+            Token field = local(expr.name.lexeme);
+            Expr.Assign assign = new Expr.Assign(field, rewrite(expr.value));
+            interpreter.resolve(assign, interpreter.depth(expr.object));
+            interpreter.bind(assign, field);
+            return assign;
+        }
+
+        @Override
+        public Expr visitInlineExpr(Expr.Inline expr)
+        {
+            // On an instance of exactly this class the guard always takes the body.
+            if (expr.call.callee instanceof Expr.Get get && isObject(get.object)
+                    && !layout.fields.contains(get.name.lexeme)) {
+                Stmt.Function method = layout.method(get.name.lexeme);
+                if (method != null && method.name == expr.function) {
+                    return rewrite(expr.body);
+                }
+            }
+            return super.visitInlineExpr(expr);
+        }
+    }
+}
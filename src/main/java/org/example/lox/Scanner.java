@@ -1,9 +1,7 @@
 package org.example.lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static java.lang.Character.isDigit;
 import static org.example.lox.TokenType.AND;
@@ -24,6 +22,7 @@ import static org.example.lox.TokenType.GREATER;
 import static org.example.lox.TokenType.GREATER_EQUAL;
 import static org.example.lox.TokenType.IDENTIFIER;
 import static org.example.lox.TokenType.IF;
+import static org.example.lox.TokenType.IMPORT;
 import static org.example.lox.TokenType.LEFT_BRACE;
 import static org.example.lox.TokenType.LEFT_PAREN;
 import static org.example.lox.TokenType.LESS;
@@ -56,33 +55,25 @@ public class Scanner
     private int current = 0;
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-    }
+    // Set while scanning into arrays rather than the token list
+    private TokenArrays arrays = null;
+    // Whether tokens only record where they are, see addLazy()
+    boolean lazy = false;
 
     Scanner(String source)
     {
         this.source = source;
     }
 
+    /**
+     * Scan a piece of a script that starts on the given line, see LazyBody
+     */
+    Scanner(String source, int line)
+    {
+        this.source = source;
+        this.line = line;
+    }
+
     List<Token> scanTokens()
     {
         while (!isAtEnd()) {
@@ -95,6 +86,45 @@ public class Scanner
         return tokens;
     }
 
+    /**
+     * Scan without making a string or an object per token
+     */
+    TokenArrays scanArrays()
+    {
+        arrays = new TokenArrays(source);
+        lazy = true;
+        while (!isAtEnd()) {
+            scanNext();
+        }
+
+        addEof();
+        return arrays;
+    }
+
+    /**
+     * Scan from the current character up to the end of the next token, if
+     * there's one before the end
+     */
+    void scanNext()
+    {
+        start = current;
+        scanToken();
+    }
+
+    void addEof()
+    {
+        addLazy(EOF, current, 0, line);
+    }
+
+    /**
+     * Record a token by its place in the source, its lexeme and literal are
+     * made from there when needed
+     */
+    void addLazy(TokenType type, int start, int length, int line)
+    {
+        arrays.add(type, start, length, line);
+    }
+
     private void scanToken()
     {
         char c = advance();
@@ -191,13 +221,82 @@ public class Scanner
             advance();
         }
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) {
-            type = IDENTIFIER;
+        addToken(identifierType());
+    }
+
+    /**
+     * A trie over the characters of the keywords, as a switch
+     */
+    private TokenType identifierType()
+    {
+        switch (charAt(start)) {
+            case 'a':
+                return checkKeyword(1, "nd", AND);
+            case 'c':
+                return checkKeyword(1, "lass", CLASS);
+            case 'e':
+                return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'a':
+                            return checkKeyword(2, "lse", FALSE);
+                        case 'o':
+                            return checkKeyword(2, "r", FOR);
+                        case 'u':
+                            return checkKeyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if (current - start > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'f':
+                            return checkKeyword(2, "", IF);
+                        case 'm':
+                            return checkKeyword(2, "port", IMPORT);
+                    }
+                }
+                break;
+            case 'n':
+                return checkKeyword(1, "il", NIL);
+            case 'o':
+                return checkKeyword(1, "r", OR);
+            case 'p':
+                return checkKeyword(1, "rint", PRINT);
+            case 'r':
+                return checkKeyword(1, "eturn", RETURN);
+            case 's':
+                return checkKeyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'h':
+                            return checkKeyword(2, "is", THIS);
+                        case 'r':
+                            return checkKeyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v':
+                return checkKeyword(1, "ar", VAR);
+            case 'w':
+                return checkKeyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type)
+    {
+        if (current - start != offset + rest.length()) {
+            return IDENTIFIER;
+        }
+        for (int i = 0; i < rest.length(); i++) {
+            if (charAt(start + offset + i) != rest.charAt(i)) {
+                return IDENTIFIER;
+            }
         }
-        addToken(type);
-//        addToken(IDENTIFIER);
+        return type;
     }
 
     private boolean isAlpha(char c)
@@ -228,16 +327,21 @@ public class Scanner
             }
         }
 
+        if (lazy) {
+            // Parsed when the token is made, see TokenArrays#token
+            addToken(NUMBER);
+            return;
+        }
         addToken(NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+                Double.parseDouble(text(start, current)));
     }
 
     private char peekNext()
     {
-        if (current + 1 >= source.length()) {
+        if (isAtEnd(current + 1)) {
             return '\0';
         }
-        return source.charAt(current + 1);
+        return charAt(current + 1);
     }
 
     private void string()
@@ -257,8 +361,13 @@ public class Scanner
         // The closing ".
         advance();
 
+        if (lazy) {
+            addToken(STRING);
+            return;
+        }
+
         // Trim the surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
+        String value = text(start + 1, current - 1);
         addToken(STRING, value);
     }
 
@@ -267,7 +376,7 @@ public class Scanner
         if (isAtEnd()) {
             return '\0';
         }
-        return source.charAt(current);
+        return charAt(current);
     }
 
     private boolean match(char expected)
@@ -275,7 +384,7 @@ public class Scanner
         if (isAtEnd()) {
             return false;
         }
-        if (source.charAt(current) != expected) {
+        if (charAt(current) != expected) {
             return false;
         }
 
@@ -283,14 +392,31 @@ public class Scanner
         return true;
     }
 
-    private boolean isAtEnd()
+    boolean isAtEnd()
     {
-        return current >= source.length();
+        return isAtEnd(current);
     }
 
     private char advance()
     {
-        return source.charAt(current++);
+        return charAt(current++);
+    }
+
+    // Where the characters come from, see StreamingScanner
+
+    boolean isAtEnd(int index)
+    {
+        return index >= source.length();
+    }
+
+    char charAt(int index)
+    {
+        return source.charAt(index);
+    }
+
+    String text(int from, int to)
+    {
+        return source.substring(from, to);
     }
 
     private void addToken(TokenType type)
@@ -300,7 +426,11 @@ public class Scanner
 
     private void addToken(TokenType type, Object literal)
     {
-        String text = source.substring(start, current);
+        if (lazy) {
+            addLazy(type, start, current - start, line);
+            return;
+        }
+        String text = text(start, current);
         tokens.add(new Token(type, text, literal, line));
     }
 }
@@ -0,0 +1,75 @@
+package org.example.lox;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Where the fields of a class's instances are stored. Fields that have only
+ * been given numbers so far live unboxed in a row of doubles, the others in
+ * a row of objects. Giving one of the numeric fields anything else moves it
+ * to the objects in another shape, and the class creates its instances in
+ * that shape from then on.
+ */
+class Shape
+{
+    // Index into the numbers, or the complement of an index into the objects
+    private final Map<String, Integer> slots;
+    final int numbers;
+    final int objects;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    private Shape(Map<String, Integer> slots, int numbers, int objects)
+    {
+        this.slots = slots;
+        this.numbers = numbers;
+        this.objects = objects;
+    }
+
+    /**
+     * The first shape of a class, which expects every field to be a number
+     */
+    static Shape numeric(Collection<String> fields)
+    {
+        Map<String, Integer> slots = new HashMap<>();
+        for (String field : fields) {
+            slots.put(field, slots.size());
+        }
+        return new Shape(slots, slots.size(), 0);
+    }
+
+    Integer slot(String field)
+    {
+        return slots.get(field);
+    }
+
+    Iterable<Map.Entry<String, Integer>> slots()
+    {
+        return slots.entrySet();
+    }
+
+    /**
+     * This shape with a numeric field moved to the objects
+     */
+    Shape boxing(String field)
+    {
+        return transitions.computeIfAbsent(field, name -> {
+            Map<String, Integer> moved = new HashMap<>();
+            int numbers = 0;
+            for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+                if (slot.getValue() >= 0 && !slot.getKey().equals(name)) {
+                    moved.put(slot.getKey(), numbers++);
+                }
+            }
+            int objects = 0;
+            for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+                if (slot.getValue() < 0) {
+                    moved.put(slot.getKey(), slot.getValue());
+                    objects++;
+                }
+            }
+            moved.put(name, ~objects);
+            return new Shape(moved, numbers, objects + 1);
+        });
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.lox;
+
+import java.util.List;
+
+/**
+ * Time loops of integral arithmetic run from their SSA graphs, with and
+ * without {@link IntegerSpeculation}, on one interpreter each. The rounds
+ * alternate between the two and the best of each is reported, since single
+ * rounds are noisy.
+ */
+class SpeculationBenchmark
+{
+    private static final int ROUNDS = 15;
+
+    private static final String PROGRAM = """
+            fun counters(n) {
+              var total = 0;
+              for (var i = 0; i < n; i = i + 1) {
+                for (var j = 0; j < 1000; j = j + 1) {
+                  total = total + j * 2 - i;
+                }
+              }
+              return total;
+            }
+            fun indices(n) {
+              var hits = 0;
+              for (var i = 0; i < n; i = i + 1) {
+                var row = i * 64;
+                for (var j = 0; j < 64; j = j + 1) {
+                  var index = row + j;
+                  if (index - (index / 7) * 7 == 0) hits = hits + 1;
+                }
+              }
+              return hits;
+            }
+            fun fractions(n) {
+              var total = 0;
+              for (var i = 0; i < n; i = i + 1) {
+                for (var j = 0; j < 1000; j = j + 1) {
+                  total = total + 0.5;
+                }
+              }
+              return total;
+            }
+            """;
+
+    public static void main(String[] args)
+    {
+        Interpreter doubles = interpreter(false);
+        Interpreter longs = interpreter(true);
+        bench("counters", 4_000, doubles, longs);
+        bench("indices", 60_000, doubles, longs);
+        bench("fractions", 4_000, doubles, longs);
+    }
+
+    private static Interpreter interpreter(boolean speculate)
+    {
+        Interpreter interpreter = new Interpreter();
+        interpreter.irExecutor.speculateIntegers = speculate;
+        List<Stmt> statements = new Parser(new Scanner(PROGRAM).scanTokens()).parse();
+        new Resolver(interpreter).resolve(statements);
+        statements = new Optimizer(interpreter, Inliner.DEFAULT_BUDGET, false, false).optimize(statements);
+        new IrLowering(interpreter).lowerAll(statements, null).forEach(interpreter::useGraph);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    private static void bench(String name, double n, Interpreter doubles, Interpreter longs)
+    {
+        long bestDoubles = Long.MAX_VALUE;
+        long bestLongs = Long.MAX_VALUE;
+        Object expected = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = System.nanoTime();
+            expected = call(doubles, name, n);
+            bestDoubles = Math.min(bestDoubles, System.nanoTime() - before);
+
+            before = System.nanoTime();
+            Object result = call(longs, name, n);
+            bestLongs = Math.min(bestLongs, System.nanoTime() - before);
+            if (!expected.equals(result)) {
+                throw new AssertionError(name + ": " + result + " instead of " + expected);
+            }
+        }
+        System.out.printf("[%s] doubles %.0f ms, longs %.0f ms, %.2fx%n",
+                name, bestDoubles / 1e6, bestLongs / 1e6, (double) bestDoubles / bestLongs);
+    }
+
+    private static Object call(Interpreter interpreter, String name, double n)
+    {
+        LoxFunction function = (LoxFunction) interpreter.globals.get(new Token(TokenType.IDENTIFIER, name, null, 0));
+        return function.call(interpreter, List.of(n));
+    }
+}
@@ -91,9 +91,10 @@ abstract class Stmt {
     final Stmt elseBranch;
   }
   static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+    While(Expr condition, Stmt body, Expr increment) {
       this.condition = condition;
       this.body = body;
+      this.increment = increment;
     }
 
     @Override
@@ -103,6 +104,7 @@ abstract class Stmt {
 
     final Expr condition;
     final Stmt body;
+    final Expr increment;
   }
   static class Print extends Stmt {
     Print(Expr expression) {
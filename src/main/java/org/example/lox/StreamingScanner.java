@@ -0,0 +1,147 @@
+package org.example.lox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Scan a file as the parser pulls its tokens, reading the characters from a
+ * {@link MappedSource}. Only the last few tokens are kept, and the characters
+ * before them are let go, so neither the whole source nor all of its tokens
+ * are ever in memory at once.
+ */
+class StreamingScanner
+        extends Scanner
+        implements TokenSource, Closeable
+{
+    private static final TokenType[] TYPES = TokenType.values();
+    // Tokens kept behind the newest, the parser looks at most one back
+    private static final int WINDOW = 4;
+    private static final int MASK = WINDOW - 1;
+
+    private final MappedSource source;
+    private final byte[] types = new byte[WINDOW];
+    private final int[] starts = new int[WINDOW];
+    private final int[] lengths = new int[WINDOW];
+    private final int[] lines = new int[WINDOW];
+    private final Token[] tokens = new Token[WINDOW];
+    private int scanned = 0;
+    // Index of the EOF token once it's been reached
+    private int end = -1;
+    // Where capture() started, the source is kept from there on, or -1
+    private int captured = -1;
+
+    StreamingScanner(Path path)
+            throws IOException
+    {
+        super(null);
+        this.source = new MappedSource(path);
+        this.lazy = true;
+    }
+
+    @Override
+    public TokenType type(int index)
+    {
+        return TYPES[types[slot(index)]];
+    }
+
+    @Override
+    public Token token(int index)
+    {
+        int slot = slot(index);
+        Token token = tokens[slot];
+        if (token == null) {
+            TokenType type = TYPES[types[slot]];
+            String lexeme = source.text(starts[slot], starts[slot] + lengths[slot]);
+            token = new Token(type, lexeme, TokenArrays.literal(type, lexeme), lines[slot]);
+            tokens[slot] = token;
+        }
+        return token;
+    }
+
+    @Override
+    public Object literal(int index)
+    {
+        TokenType type = type(index);
+        return type == TokenType.NUMBER || type == TokenType.STRING ? token(index).literal : null;
+    }
+
+    @Override
+    public void capture(int from)
+    {
+        captured = starts[slot(from)];
+    }
+
+    @Override
+    public String captured(int to)
+    {
+        int slot = slot(to);
+        String text = source.text(captured, starts[slot] + lengths[slot]);
+        captured = -1;
+        return text;
+    }
+
+    /**
+     * Scan up to the token, and return where in the window it is
+     */
+    private int slot(int index)
+    {
+        while (index >= scanned && end < 0) {
+            if (isAtEnd()) {
+                end = scanned;
+                addEof();
+            }
+            else {
+                scanNext();
+            }
+        }
+        if (end >= 0 && index > end) {
+            index = end;
+        }
+        if (index < scanned - WINDOW) {
+            throw new IllegalStateException("Token " + index + " is no longer buffered.");
+        }
+        return index & MASK;
+    }
+
+    @Override
+    void addLazy(TokenType type, int start, int length, int line)
+    {
+        int slot = scanned & MASK;
+        types[slot] = (byte) type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        lines[slot] = line;
+        tokens[slot] = null;
+        scanned++;
+        if (scanned >= WINDOW) {
+            int oldest = starts[scanned & MASK];
+            source.release(captured < 0 ? oldest : Math.min(captured, oldest));
+        }
+    }
+
+    @Override
+    boolean isAtEnd(int index)
+    {
+        return source.isAtEnd(index);
+    }
+
+    @Override
+    char charAt(int index)
+    {
+        return source.charAt(index);
+    }
+
+    @Override
+    String text(int from, int to)
+    {
+        return source.text(from, to);
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        source.close();
+    }
+}
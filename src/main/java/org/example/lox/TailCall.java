@@ -0,0 +1,21 @@
+package org.example.lox;
+
+import java.util.List;
+
+/**
+ * Thrown by a `return f(...)` in tail position instead of calling f, so the
+ * enclosing {@link LoxFunction#call} can run f in its own loop.
+ */
+class TailCall
+        extends Return
+{
+    final LoxFunction function;
+    final List<Object> arguments;
+
+    TailCall(LoxFunction function, List<Object> arguments)
+    {
+        super(null);
+        this.function = function;
+        this.arguments = arguments;
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.lox;
+
+import java.util.Arrays;
+
+/**
+ * Tokens kept as parallel arrays of their type, start, length and line in
+ * the source, see {@link Scanner#scanArrays}. The lexeme, literal and
+ * {@link Token} object of a token are only made when the parser asks for it.
+ */
+class TokenArrays
+        implements TokenSource
+{
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int count = 0;
+    // Made on demand, so each token has one object
+    private Token[] tokens = null;
+    // Where capture() started
+    private int captured = 0;
+
+    TokenArrays(String source)
+    {
+        this.source = source;
+        // Code has a token every few characters, this saves most of the copies.
+        int capacity = 16 + source.length() / 4;
+        types = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line)
+    {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        count++;
+    }
+
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * Whether a token has the same type and text as one from another scan
+     */
+    boolean same(int index, TokenArrays other, int otherIndex)
+    {
+        return types[index] == other.types[otherIndex]
+                && lengths[index] == other.lengths[otherIndex]
+                && source.regionMatches(starts[index], other.source, other.starts[otherIndex], lengths[index]);
+    }
+
+    @Override
+    public TokenType type(int index)
+    {
+        return TYPES[types[index]];
+    }
+
+    int line(int index)
+    {
+        return lines[index];
+    }
+
+    @Override
+    public Token token(int index)
+    {
+        if (tokens == null) {
+            tokens = new Token[count];
+        }
+        Token token = tokens[index];
+        if (token == null) {
+            TokenType type = type(index);
+            String lexeme = source.substring(starts[index], starts[index] + lengths[index]);
+            token = new Token(type, lexeme, literal(type, lexeme), lines[index]);
+            tokens[index] = token;
+        }
+        return token;
+    }
+
+    /**
+     * The line of a token made or adopted by this scan, which is where it is
+     * now even when it was made for an earlier version of the source, or its
+     * own line if this scan doesn't have it. This is a search, for reporting.
+     */
+    int line(Token token)
+    {
+        if (tokens != null) {
+            for (int i = 0; i < count; i++) {
+                if (tokens[i] == token) {
+                    return lines[i];
+                }
+            }
+        }
+        return token.line;
+    }
+
+    /**
+     * Take the tokens another scan made for a range that this one has too,
+     * so trees parsed from the other scan share this one's tokens. They keep
+     * their own lines, see line(Token).
+     */
+    void adopt(TokenArrays other, int otherIndex, int index, int count)
+    {
+        if (other.tokens == null) {
+            return;
+        }
+        if (tokens == null) {
+            tokens = new Token[this.count];
+        }
+        for (int i = 0; i < count; i++) {
+            Token token = other.tokens[otherIndex + i];
+            if (token != null) {
+                tokens[index + i] = token;
+            }
+        }
+    }
+
+    @Override
+    public Object literal(int index)
+    {
+        if (tokens != null && tokens[index] != null) {
+            return tokens[index].literal;
+        }
+        TokenType type = type(index);
+        return type == TokenType.NUMBER || type == TokenType.STRING
+                ? literal(type, source.substring(starts[index], starts[index] + lengths[index]))
+                : null;
+    }
+
+    @Override
+    public void capture(int from)
+    {
+        captured = starts[from];
+    }
+
+    @Override
+    public String captured(int to)
+    {
+        return source.substring(captured, starts[to] + lengths[to]);
+    }
+
+    static Object literal(TokenType type, String lexeme)
+    {
+        return switch (type) {
+            case NUMBER -> Double.parseDouble(lexeme);
+            // Trim the surrounding quotes.
+            case STRING -> lexeme.substring(1, lexeme.length() - 1);
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.lox;
+
+/**
+ * The tokens a {@link Parser} reads, by index. Most checks only need the
+ * type, the {@link Token} itself is asked for when it goes into the tree or
+ * an error message, and must be the same object each time.
+ */
+interface TokenSource
+{
+    TokenType type(int index);
+
+    Token token(int index);
+
+    /**
+     * The value of a number or string token
+     */
+    Object literal(int index);
+
+    /**
+     * Keep the source text from the start of the token on, until
+     * {@link #captured} takes it
+     */
+    void capture(int from);
+
+    /**
+     * The source text from the start of the captured token to the end of
+     * this one
+     */
+    String captured(int to);
+}
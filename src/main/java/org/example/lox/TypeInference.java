@@ -0,0 +1,379 @@
+package org.example.lox;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Flow-sensitive inference of the type every expression evaluates to, if it
+ * evaluates at all. Locals follow their initializers and assignments through
+ * branches and loops; globals, parameters, call results, fields and locals
+ * that a nested function assigns are unknown.
+ */
+class TypeInference
+        implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void>
+{
+    enum Type
+    {
+        NUMBER, STRING, BOOLEAN, NIL, UNKNOWN;
+
+        Type join(Type other)
+        {
+            return this == other ? this : UNKNOWN;
+        }
+
+        static Type of(Object value)
+        {
+            if (value instanceof Double) {
+                return NUMBER;
+            }
+            if (value instanceof String) {
+                return STRING;
+            }
+            if (value instanceof Boolean) {
+                return BOOLEAN;
+            }
+            return value == null ? NIL : UNKNOWN;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Interpreter interpreter;
+    // Joined over every time the analysis reached the expression
+    private final Map<Expr, Type> types = new HashMap<>();
+    // Joined over every value a local was given, in declaration order
+    private final Map<Token, Type> locals = new LinkedHashMap<>();
+    // Locals assigned by a nested function, which any call could change
+    private Set<Token> shared;
+    // Current type of the locals of the function being analyzed
+    private Map<Token, Type> state = new HashMap<>();
+    private int scopeDepth = 0;
+
+    TypeInference(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+    }
+
+    Map<Expr, Type> infer(List<Stmt> statements)
+    {
+        shared = CapturedAssignments.scan(interpreter, statements);
+        analyze(statements);
+        return types;
+    }
+
+    Type type(Expr expr)
+    {
+        return types.getOrDefault(expr, Type.UNKNOWN);
+    }
+
+    void dump()
+    {
+        locals.forEach((name, type) -> System.err.println("[line " + name.line + "] " + name.lexeme + ": " + type));
+    }
+
+    private void analyze(List<Stmt> statements)
+    {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private Type infer(Expr expr)
+    {
+        Type type = expr.accept(this);
+        types.merge(expr, type, Type::join);
+        return type;
+    }
+
+    /**
+     * The state after either of two paths, for the locals in scope after both
+     */
+    private static Map<Token, Type> join(Map<Token, Type> a, Map<Token, Type> b)
+    {
+        Map<Token, Type> joined = new HashMap<>();
+        a.forEach((name, type) -> {
+            Type other = b.get(name);
+            if (other != null) {
+                joined.put(name, type.join(other));
+            }
+        });
+        return joined;
+    }
+
+    private void define(Token name, Type type)
+    {
+        if (scopeDepth > 0) {
+            state.put(name, type);
+            locals.merge(name, type, Type::join);
+        }
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr)
+    {
+        Type type = infer(expr.value);
+        Token declaration = interpreter.declaration(expr);
+        if (declaration != null && state.containsKey(declaration)) {
+            state.put(declaration, type);
+            locals.merge(declaration, type, Type::join);
+        }
+        return type;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr)
+    {
+        return binary(expr.operator, infer(expr.left), infer(expr.right));
+    }
+
+    @Override
+    public Type visitNumericBinaryExpr(Expr.NumericBinary expr)
+    {
+        return binary(expr.operator, infer(expr.left), infer(expr.right));
+    }
+
+    /**
+     * What {@link Interpreter#binary} returns when it doesn't raise an error
+     */
+    private static Type binary(Token operator, Type left, Type right)
+    {
+        return switch (operator.type) {
+            case BANG_EQUAL, EQUAL_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> Type.BOOLEAN;
+            case MINUS, SLASH, STAR -> Type.NUMBER;
+            case PLUS -> {
+                if (left == Type.NUMBER && right == Type.NUMBER) {
+                    yield Type.NUMBER;
+                }
+                yield left == Type.STRING || right == Type.STRING ? Type.STRING : Type.UNKNOWN;
+            }
+            default -> Type.UNKNOWN;
+        };
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr)
+    {
+        infer(expr.callee);
+        for (Expr argument : expr.arguments) {
+            infer(argument);
+        }
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr)
+    {
+        infer(expr.object);
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr)
+    {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr)
+    {
+        return Type.of(expr.value);
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr)
+    {
+        Type left = infer(expr.left);
+        Map<Token, Type> shortCircuit = new HashMap<>(state);
+        Type right = infer(expr.right);
+        state = join(shortCircuit, state);
+        return left.join(right);
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr)
+    {
+        infer(expr.object);
+        return infer(expr.value);
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr)
+    {
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr)
+    {
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr)
+    {
+        infer(expr.right);
+        return expr.operator.type == TokenType.MINUS ? Type.NUMBER : Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitNumericUnaryExpr(Expr.NumericUnary expr)
+    {
+        infer(expr.right);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitClassGuardExpr(Expr.ClassGuard expr)
+    {
+        infer(expr.callee);
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitGlobalExpr(Expr.Global expr)
+    {
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitTernaryExpr(Expr.Ternary expr)
+    {
+        infer(expr.compare);
+        Map<Token, Type> before = new HashMap<>(state);
+        Type left = infer(expr.left);
+        Map<Token, Type> afterLeft = state;
+        state = before;
+        Type right = infer(expr.right);
+        state = join(afterLeft, state);
+        return left.join(right);
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr)
+    {
+        Token declaration = interpreter.declaration(expr);
+        if (declaration == null || shared.contains(declaration)) {
+            return Type.UNKNOWN;
+        }
+        return state.getOrDefault(declaration, Type.UNKNOWN);
+    }
+
+    @Override
+    public Type visitInlineExpr(Expr.Inline expr)
+    {
+        infer(expr.call.callee);
+        for (Expr argument : expr.call.arguments) {
+            infer(argument);
+        }
+        // The guard may make the call instead, which could return anything.
+        infer(expr.body);
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        scopeDepth++;
+        analyze(stmt.statements);
+        scopeDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt)
+    {
+        for (Stmt.Function method : stmt.methods) {
+            method.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt)
+    {
+        if (LazyBody.pending(stmt)) {
+            return null;
+        }
+        // Captured locals may change between calls, only the function's own are tracked.
+        Map<Token, Type> enclosing = state;
+        state = new HashMap<>();
+        scopeDepth++;
+        analyze(stmt.body);
+        scopeDepth--;
+        state = enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        infer(stmt.condition);
+        Map<Token, Type> before = new HashMap<>(state);
+        stmt.thenBranch.accept(this);
+        Map<Token, Type> afterThen = state;
+        state = before;
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch.accept(this);
+        }
+        state = join(afterThen, state);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        // Types only ever widen to unknown, so this settles after a few rounds.
+        while (true) {
+            Map<Token, Type> entry = new HashMap<>(state);
+            infer(stmt.condition);
+            stmt.body.accept(this);
+            if (stmt.increment != null) {
+                infer(stmt.increment);
+            }
+            state = join(entry, state);
+            if (state.equals(entry)) {
+                break;
+            }
+        }
+        infer(stmt.condition);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt)
+    {
+        if (stmt.value != null) {
+            infer(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        define(stmt.name, stmt.initializer == null ? Type.NIL : infer(stmt.initializer));
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.lox;
+
+import java.util.List;
+
+/**
+ * Replace the operators whose operands {@link TypeInference} proved to be
+ * numbers by their numeric forms, which the interpreter evaluates without
+ * checking or boxing the operands. Everything else keeps the generic nodes.
+ */
+class TypeSpecializer
+        extends AstRewriter
+{
+    private final TypeInference inference;
+    private final boolean dump;
+
+    TypeSpecializer(Interpreter interpreter, boolean dump)
+    {
+        super(interpreter);
+        this.inference = new TypeInference(interpreter);
+        this.dump = dump;
+    }
+
+    List<Stmt> specialize(List<Stmt> statements)
+    {
+        inference.infer(statements);
+        if (dump) {
+            inference.dump();
+        }
+        return rewrite(statements);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr)
+    {
+        Expr binary = super.visitBinaryExpr(expr);
+        if (isNumber(expr.left) && isNumber(expr.right) && binary instanceof Expr.Binary specializing) {
+            return copy(expr, new Expr.NumericBinary(specializing.left, specializing.operator, specializing.right));
+        }
+        return binary;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr)
+    {
+        Expr unary = super.visitUnaryExpr(expr);
+        if (expr.operator.type == TokenType.MINUS && isNumber(expr.right) && unary instanceof Expr.Unary specializing) {
+            return copy(expr, new Expr.NumericUnary(specializing.operator, specializing.right));
+        }
+        return unary;
+    }
+
+    private boolean isNumber(Expr expr)
+    {
+        return inference.type(expr) == TypeInference.Type.NUMBER;
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.lox.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Straight-line instructions, phis first, that end in a single terminator
+ */
+public final class BasicBlock
+{
+    private final int id;
+    final List<Instruction> instructions = new ArrayList<>();
+    final List<BasicBlock> predecessors = new ArrayList<>();
+    final List<BasicBlock> successors = new ArrayList<>();
+
+    BasicBlock(int id)
+    {
+        this.id = id;
+    }
+
+    public int id()
+    {
+        return id;
+    }
+
+    public List<Instruction> instructions()
+    {
+        return instructions;
+    }
+
+    public List<BasicBlock> predecessors()
+    {
+        return predecessors;
+    }
+
+    public List<BasicBlock> successors()
+    {
+        return successors;
+    }
+
+    public Instruction terminator()
+    {
+        if (instructions.isEmpty()) {
+            return null;
+        }
+        Instruction last = instructions.get(instructions.size() - 1);
+        return last.op().isTerminator() ? last : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "b" + id;
+    }
+}
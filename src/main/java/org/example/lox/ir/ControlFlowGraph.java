@@ -0,0 +1,167 @@
+package org.example.lox.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One function in SSA form: its blocks, starting at the entry block
+ */
+public final class ControlFlowGraph
+{
+    private final String name;
+    private final List<String> params;
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private int nextBlock = 0;
+    private int nextValue = 0;
+
+    public ControlFlowGraph(String name, List<String> params)
+    {
+        this.name = name;
+        this.params = List.copyOf(params);
+    }
+
+    public String name()
+    {
+        return name;
+    }
+
+    public List<String> params()
+    {
+        return params;
+    }
+
+    public List<BasicBlock> blocks()
+    {
+        return blocks;
+    }
+
+    public BasicBlock entry()
+    {
+        return blocks.get(0);
+    }
+
+    /**
+     * One more than the highest value id, the size a table indexed by id needs
+     */
+    public int valueCount()
+    {
+        return nextValue;
+    }
+
+    /**
+     * One more than the highest block id
+     */
+    public int blockCount()
+    {
+        return nextBlock;
+    }
+
+    BasicBlock newBlock()
+    {
+        BasicBlock block = new BasicBlock(nextBlock++);
+        blocks.add(block);
+        return block;
+    }
+
+    Instruction append(BasicBlock block, Op op, Object attribute, Object origin, List<Instruction> operands)
+    {
+        Instruction instruction = new Instruction(nextValue++, op, attribute, origin, operands, block);
+        block.instructions.add(instruction);
+        return instruction;
+    }
+
+    Instruction prependPhi(BasicBlock block)
+    {
+        Instruction phi = new Instruction(nextValue++, Op.PHI, null, null, List.of(), block);
+        block.instructions.add(0, phi);
+        return phi;
+    }
+
+    void link(BasicBlock from, BasicBlock to)
+    {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    /**
+     * Make every use of a key a use of its value, and drop the keys
+     */
+    void replace(Map<Instruction, Instruction> replacements)
+    {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        for (BasicBlock block : blocks) {
+            block.instructions.removeIf(replacements::containsKey);
+            for (Instruction instruction : block.instructions) {
+                instruction.operands.replaceAll(operand -> resolve(replacements, operand));
+            }
+        }
+    }
+
+    private static Instruction resolve(Map<Instruction, Instruction> replacements, Instruction value)
+    {
+        Instruction replacement = replacements.get(value);
+        while (replacement != null) {
+            value = replacement;
+            replacement = replacements.get(value);
+        }
+        return value;
+    }
+
+    /**
+     * Remove the blocks the entry can't reach, along with the phi operands
+     * that flowed in from them
+     */
+    void removeUnreachable()
+    {
+        Set<BasicBlock> reachable = new HashSet<>();
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        work.push(entry());
+        while (!work.isEmpty()) {
+            BasicBlock block = work.pop();
+            if (reachable.add(block)) {
+                block.successors.forEach(work::push);
+            }
+        }
+
+        blocks.removeIf(block -> !reachable.contains(block));
+        for (BasicBlock block : blocks) {
+            for (int i = block.predecessors.size() - 1; i >= 0; i--) {
+                if (!reachable.contains(block.predecessors.get(i))) {
+                    block.predecessors.remove(i);
+                    for (Instruction instruction : block.instructions) {
+                        if (instruction.op() == Op.PHI) {
+                            instruction.operands.remove(i);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Every value that some instruction reads
+     */
+    Set<Instruction> used()
+    {
+        Set<Instruction> used = new HashSet<>();
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.instructions) {
+                used.addAll(instruction.operands);
+            }
+        }
+        return used;
+    }
+
+    @Override
+    public String toString()
+    {
+        return IrPrinter.print(this);
+    }
+}
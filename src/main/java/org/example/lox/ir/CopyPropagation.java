@@ -0,0 +1,60 @@
+package org.example.lox.ir;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replace copies by the value they copy, and phis that only ever merge one
+ * value (besides themselves) by that value
+ */
+public final class CopyPropagation
+        implements Pass
+{
+    @Override
+    public String name()
+    {
+        return "copy propagation";
+    }
+
+    @Override
+    public boolean run(ControlFlowGraph graph)
+    {
+        boolean changed = false;
+        // Removing a phi can make the phis that used it trivial as well.
+        while (true) {
+            Map<Instruction, Instruction> replacements = new HashMap<>();
+            for (BasicBlock block : graph.blocks()) {
+                for (Instruction instruction : block.instructions()) {
+                    Instruction same = switch (instruction.op()) {
+                        case COPY -> instruction.operand(0);
+                        case PHI -> trivial(instruction);
+                        default -> null;
+                    };
+                    if (same != null) {
+                        replacements.put(instruction, same);
+                    }
+                }
+            }
+            if (replacements.isEmpty()) {
+                return changed;
+            }
+            graph.replace(replacements);
+            changed = true;
+        }
+    }
+
+    private static Instruction trivial(Instruction phi)
+    {
+        Instruction same = null;
+        for (Instruction operand : phi.operands()) {
+            if (operand == phi || operand == same) {
+                continue;
+            }
+            if (same != null) {
+                return null;
+            }
+            same = operand;
+        }
+        return same;
+    }
+}
@@ -0,0 +1,43 @@
+package org.example.lox.ir;
+
+import java.util.Set;
+
+/**
+ * Remove the pure instructions nothing reads, unless running them could
+ * raise an error, like arithmetic on operands that aren't numbers
+ */
+public final class DeadValueElimination
+        implements Pass
+{
+    private static final Set<Object> INFALLIBLE = Set.of("==", "!=", "!");
+
+    @Override
+    public String name()
+    {
+        return "dead value elimination";
+    }
+
+    @Override
+    public boolean run(ControlFlowGraph graph)
+    {
+        boolean changed = false;
+        boolean removed = true;
+        while (removed) {
+            Set<Instruction> used = graph.used();
+            removed = false;
+            for (BasicBlock block : graph.blocks()) {
+                removed |= block.instructions.removeIf(instruction -> removable(instruction) && !used.contains(instruction));
+            }
+            changed |= removed;
+        }
+        return changed;
+    }
+
+    private static boolean removable(Instruction instruction)
+    {
+        return switch (instruction.op()) {
+            case BINARY, UNARY -> INFALLIBLE.contains(instruction.attribute());
+            default -> instruction.op().isPure();
+        };
+    }
+}
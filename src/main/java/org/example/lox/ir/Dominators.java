@@ -0,0 +1,104 @@
+package org.example.lox.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The dominator tree of a graph, computed with the iterative algorithm of
+ * Cooper, Harvey and Kennedy, "A Simple, Fast Dominance Algorithm"
+ */
+public final class Dominators
+{
+    private final List<BasicBlock> reversePostorder = new ArrayList<>();
+    private final Map<BasicBlock, Integer> order = new HashMap<>();
+    private final Map<BasicBlock, BasicBlock> immediate = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+
+    public Dominators(ControlFlowGraph graph)
+    {
+        postorder(graph.entry(), new HashSet<>());
+        Collections.reverse(reversePostorder);
+        for (int i = 0; i < reversePostorder.size(); i++) {
+            order.put(reversePostorder.get(i), i);
+        }
+
+        BasicBlock entry = graph.entry();
+        immediate.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : reversePostorder) {
+                if (block == entry) {
+                    continue;
+                }
+                BasicBlock dominator = null;
+                for (BasicBlock predecessor : block.predecessors) {
+                    if (immediate.containsKey(predecessor)) {
+                        dominator = dominator == null ? predecessor : intersect(predecessor, dominator);
+                    }
+                }
+                if (dominator != immediate.get(block)) {
+                    immediate.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock block : reversePostorder) {
+            children.put(block, new ArrayList<>());
+        }
+        for (BasicBlock block : reversePostorder) {
+            if (block != entry) {
+                children.get(immediate.get(block)).add(block);
+            }
+        }
+    }
+
+    private void postorder(BasicBlock block, Set<BasicBlock> visited)
+    {
+        visited.add(block);
+        for (BasicBlock successor : block.successors) {
+            if (!visited.contains(successor)) {
+                postorder(successor, visited);
+            }
+        }
+        reversePostorder.add(block);
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b)
+    {
+        while (a != b) {
+            while (order.get(a) > order.get(b)) {
+                a = immediate.get(a);
+            }
+            while (order.get(b) > order.get(a)) {
+                b = immediate.get(b);
+            }
+        }
+        return a;
+    }
+
+    public List<BasicBlock> reversePostorder()
+    {
+        return reversePostorder;
+    }
+
+    /**
+     * The closest block every path from the entry to this one goes through,
+     * the entry itself for the entry
+     */
+    public BasicBlock immediateDominator(BasicBlock block)
+    {
+        return immediate.get(block);
+    }
+
+    public List<BasicBlock> children(BasicBlock block)
+    {
+        return children.getOrDefault(block, List.of());
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.lox.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dominator-based value numbering: walk the dominator tree with a scoped
+ * table of the pure instructions seen so far, and replace an instruction
+ * by an equal one that dominates it. That eliminates the common
+ * subexpressions of straight-line code and of everything an earlier block
+ * dominates.
+ */
+public final class GlobalValueNumbering
+        implements Pass
+{
+    private static final Set<Object> COMMUTATIVE = Set.of("*", "==", "!=");
+
+    @Override
+    public String name()
+    {
+        return "global value numbering";
+    }
+
+    @Override
+    public boolean run(ControlFlowGraph graph)
+    {
+        Dominators dominators = new Dominators(graph);
+        Map<List<Object>, Instruction> table = new HashMap<>();
+        Map<Instruction, Instruction> replacements = new HashMap<>();
+
+        // Explicit stack of (block, keys added in it), so deep trees don't recurse.
+        Deque<Object[]> work = new ArrayDeque<>();
+        work.push(new Object[] {graph.entry(), null});
+        while (!work.isEmpty()) {
+            Object[] frame = work.pop();
+            if (frame[1] != null) {
+                // Leaving the block's subtree, its values don't dominate the siblings.
+                @SuppressWarnings("unchecked")
+                List<List<Object>> added = (List<List<Object>>) frame[1];
+                added.forEach(table::remove);
+                continue;
+            }
+
+            BasicBlock block = (BasicBlock) frame[0];
+            List<List<Object>> added = new ArrayList<>();
+            for (Instruction instruction : block.instructions()) {
+                if (!instruction.op().isPure()) {
+                    continue;
+                }
+                List<Object> key = key(instruction, replacements);
+                Instruction existing = table.get(key);
+                if (existing != null) {
+                    replacements.put(instruction, existing);
+                }
+                else {
+                    table.put(key, instruction);
+                    added.add(key);
+                }
+            }
+            work.push(new Object[] {block, added});
+            List<BasicBlock> children = dominators.children(block);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                work.push(new Object[] {children.get(i), null});
+            }
+        }
+
+        graph.replace(replacements);
+        return !replacements.isEmpty();
+    }
+
+    private static List<Object> key(Instruction instruction, Map<Instruction, Instruction> replacements)
+    {
+        int[] operands = new int[instruction.operands().size()];
+        for (int i = 0; i < operands.length; i++) {
+            Instruction operand = instruction.operand(i);
+            operands[i] = replacements.getOrDefault(operand, operand).id();
+        }
+        if (instruction.op() == Op.BINARY && COMMUTATIVE.contains(instruction.attribute())) {
+            Arrays.sort(operands);
+        }
+
+        List<Object> key = new ArrayList<>();
+        key.add(instruction.op());
+        key.add(instruction.attribute());
+        if (instruction.op() == Op.PHI) {
+            // Phis only agree within the same block, where they merge the same edges.
+            key.add(instruction.block());
+        }
+        for (int operand : operands) {
+            key.add(operand);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.lox.ir;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Build a graph in SSA form straight from a front end's walk over its
+ * source, following Braun et al., "Simple and Efficient Construction of
+ * Static Single Assignment Form". The front end writes and reads variables
+ * by any key it likes, and seals each block once all its predecessors are
+ * linked; phis are only placed where a read needs one. Phis that turn out
+ * to be trivial are left for {@link CopyPropagation} to remove.
+ */
+public final class GraphBuilder
+{
+    private final ControlFlowGraph graph;
+    private final Map<BasicBlock, Map<Object, Instruction>> definitions = new HashMap<>();
+    private final Map<BasicBlock, Map<Object, Instruction>> incompletePhis = new HashMap<>();
+    private final Set<BasicBlock> sealed = new HashSet<>();
+
+    public GraphBuilder(String name, List<String> params)
+    {
+        this.graph = new ControlFlowGraph(name, params);
+        sealed.add(graph.newBlock());
+    }
+
+    public BasicBlock entry()
+    {
+        return graph.entry();
+    }
+
+    public BasicBlock newBlock()
+    {
+        return graph.newBlock();
+    }
+
+    public Instruction emit(BasicBlock block, Op op, Object attribute, Object origin, Instruction... operands)
+    {
+        return graph.append(block, op, attribute, origin, Arrays.asList(operands));
+    }
+
+    public void jump(BasicBlock from, BasicBlock to)
+    {
+        emit(from, Op.JUMP, null, null);
+        graph.link(from, to);
+    }
+
+    public void branch(BasicBlock from, Instruction condition, BasicBlock then, BasicBlock otherwise)
+    {
+        emit(from, Op.BRANCH, null, null, condition);
+        graph.link(from, then);
+        graph.link(from, otherwise);
+    }
+
+    public void ret(BasicBlock from, Instruction value)
+    {
+        emit(from, Op.RETURN, null, null, value);
+    }
+
+    public boolean isTerminated(BasicBlock block)
+    {
+        return block.terminator() != null;
+    }
+
+    public void write(Object variable, BasicBlock block, Instruction value)
+    {
+        definitions.computeIfAbsent(block, key -> new HashMap<>()).put(variable, value);
+    }
+
+    public Instruction read(Object variable, BasicBlock block)
+    {
+        Map<Object, Instruction> local = definitions.get(block);
+        if (local != null && local.containsKey(variable)) {
+            return local.get(variable);
+        }
+        return readRecursive(variable, block);
+    }
+
+    private Instruction readRecursive(Object variable, BasicBlock block)
+    {
+        Instruction value;
+        if (!sealed.contains(block)) {
+            // Not all predecessors are known yet, fill the phi in when they are.
+            value = graph.prependPhi(block);
+            incompletePhis.computeIfAbsent(block, key -> new HashMap<>()).put(variable, value);
+        }
+        else if (block.predecessors.size() == 1) {
+            value = read(variable, block.predecessors.get(0));
+        }
+        else {
+            // Break cycles through loops by defining the phi before reading its operands.
+            value = graph.prependPhi(block);
+            write(variable, block, value);
+            addPhiOperands(variable, value);
+        }
+        write(variable, block, value);
+        return value;
+    }
+
+    private void addPhiOperands(Object variable, Instruction phi)
+    {
+        for (BasicBlock predecessor : phi.block.predecessors) {
+            phi.operands.add(read(variable, predecessor));
+        }
+    }
+
+    /**
+     * Declare that all the block's predecessors are linked
+     */
+    public void seal(BasicBlock block)
+    {
+        Map<Object, Instruction> phis = incompletePhis.remove(block);
+        if (phis != null) {
+            phis.forEach(this::addPhiOperands);
+        }
+        sealed.add(block);
+    }
+
+    /**
+     * The graph, without the blocks that can't run, like those after a return
+     */
+    public ControlFlowGraph finish()
+    {
+        graph.removeUnreachable();
+        return graph;
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.lox.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single SSA value: defined once, by one operation on other values. The
+ * origin is opaque to the IR, the front end keeps whatever it needs there to
+ * report errors at run time.
+ */
+public final class Instruction
+{
+    private final int id;
+    private final Op op;
+    private final Object attribute;
+    private final Object origin;
+    final List<Instruction> operands;
+    BasicBlock block;
+
+    Instruction(int id, Op op, Object attribute, Object origin, List<Instruction> operands, BasicBlock block)
+    {
+        this.id = id;
+        this.op = op;
+        this.attribute = attribute;
+        this.origin = origin;
+        this.operands = new ArrayList<>(operands);
+        this.block = block;
+    }
+
+    public int id()
+    {
+        return id;
+    }
+
+    public Op op()
+    {
+        return op;
+    }
+
+    public Object attribute()
+    {
+        return attribute;
+    }
+
+    public Object origin()
+    {
+        return origin;
+    }
+
+    public List<Instruction> operands()
+    {
+        return operands;
+    }
+
+    public Instruction operand(int index)
+    {
+        return operands.get(index);
+    }
+
+    public BasicBlock block()
+    {
+        return block;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "v" + id;
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.lox.ir;
+
+import java.util.stream.Collectors;
+
+/**
+ * Text form of a graph, one instruction per line
+ */
+public final class IrPrinter
+{
+    private IrPrinter()
+    {
+    }
+
+    public static String print(ControlFlowGraph graph)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("function ").append(graph.name())
+                .append('(').append(String.join(", ", graph.params())).append(")\n");
+        for (BasicBlock block : graph.blocks()) {
+            builder.append(block).append(':');
+            if (!block.predecessors().isEmpty()) {
+                builder.append("  ; preds ").append(block.predecessors().stream()
+                        .map(BasicBlock::toString)
+                        .collect(Collectors.joining(" ")));
+            }
+            builder.append('\n');
+            for (Instruction instruction : block.instructions()) {
+                builder.append("  ").append(print(instruction)).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    public static String print(Instruction instruction)
+    {
+        StringBuilder builder = new StringBuilder();
+        if (!instruction.op().isTerminator()) {
+            builder.append(instruction).append(" = ");
+        }
+        builder.append(instruction.op().name().toLowerCase());
+        if (instruction.op() == Op.CONSTANT && instruction.attribute() instanceof String string) {
+            builder.append(" \"").append(string).append('"');
+        }
+        else if (instruction.attribute() != null || instruction.op() == Op.CONSTANT) {
+            builder.append(' ').append(instruction.attribute());
+        }
+        for (Instruction operand : instruction.operands()) {
+            builder.append(' ').append(operand);
+        }
+        if (instruction.op() == Op.JUMP || instruction.op() == Op.BRANCH) {
+            for (BasicBlock successor : instruction.block().successors()) {
+                builder.append(' ').append(successor);
+            }
+        }
+        return builder.toString();
+    }
+}
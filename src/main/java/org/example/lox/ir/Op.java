@@ -0,0 +1,53 @@
+package org.example.lox.ir;
+
+/**
+ * What an {@link Instruction} computes. Pure operations depend on nothing
+ * but their operands and attribute, so two of them with the same inputs
+ * produce the same value; the others read or change state, or end a block.
+ */
+public enum Op
+{
+    // attribute: the value
+    CONSTANT(true),
+    // attribute: the parameter index
+    PARAM(true),
+    THIS(true),
+    // one operand per predecessor of its block, in the same order
+    PHI(true),
+    COPY(true),
+    // attribute: the operator
+    BINARY(true),
+    UNARY(true),
+
+    // attribute: the name
+    GLOBAL(false),
+    SET_GLOBAL(false),
+    GET_PROPERTY(false),
+    // fails unless the operand can hold fields, before the value to store is computed
+    CHECK_INSTANCE(false),
+    SET_PROPERTY(false),
+    // callee followed by the arguments
+    CALL(false),
+    PRINT(false),
+
+    JUMP(false),
+    BRANCH(false),
+    RETURN(false);
+
+    private final boolean pure;
+
+    Op(boolean pure)
+    {
+        this.pure = pure;
+    }
+
+    public boolean isPure()
+    {
+        return pure;
+    }
+
+    public boolean isTerminator()
+    {
+        return this == JUMP || this == BRANCH || this == RETURN;
+    }
+}
@@ -0,0 +1,14 @@
+package org.example.lox.ir;
+
+/**
+ * A transformation of a graph in place
+ */
+public interface Pass
+{
+    String name();
+
+    /**
+     * Returns whether the graph changed
+     */
+    boolean run(ControlFlowGraph graph);
+}
@@ -0,0 +1,39 @@
+package org.example.lox.ir;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Passes to run on a graph in order, with an optional dump of the graph
+ * before the first and after each one
+ */
+public final class Pipeline
+{
+    private final List<Pass> passes;
+
+    public Pipeline(List<Pass> passes)
+    {
+        this.passes = List.copyOf(passes);
+    }
+
+    public static Pipeline standard()
+    {
+        return new Pipeline(List.of(
+                new CopyPropagation(),
+                new GlobalValueNumbering(),
+                new DeadValueElimination()));
+    }
+
+    public void run(ControlFlowGraph graph, Consumer<String> dump)
+    {
+        if (dump != null) {
+            dump.accept("-- " + graph.name() + ": lowered\n" + graph);
+        }
+        for (Pass pass : passes) {
+            boolean changed = pass.run(graph);
+            if (dump != null) {
+                dump.accept("-- " + graph.name() + ": after " + pass.name() + (changed ? "" : " (unchanged)") + "\n" + graph);
+            }
+        }
+    }
+}
@@ -29,7 +29,12 @@ public class GenerateAst
                 "This     : Token keyword",
                 "Unary    : Token operator, Expr right",
                 "Ternary  : Expr compare, Token question, Expr left, Token colon, Expr right",
-                "Variable : Token name"
+                "Variable : Token name",
+                "Inline   : Expr.Call call, Token function, Expr body",
+                "NumericBinary : Expr left, Token operator, Expr right",
+                "NumericUnary  : Token operator, Expr right",
+                "ClassGuard    : Expr callee, Token klass",
+                "Global        : Expr.Variable variable, Assumption assumption"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
@@ -38,7 +43,7 @@ public class GenerateAst
                 "Expression : Expr expression",
                 "Function   : Token name, List<Token> params, List<Stmt> body",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-                "While      : Expr condition, Stmt body",
+                "While      : Expr condition, Stmt body, Expr increment",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
                 "Var        : Token name, Expr initializer"
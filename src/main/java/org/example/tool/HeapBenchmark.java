@@ -0,0 +1,33 @@
+package org.example.tool;
+
+import org.example.lox.Lox;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Run a script and report the heap still in use once it's done, which is
+ * mostly what its globals keep alive
+ */
+public class HeapBenchmark
+{
+    public static void main(String[] args)
+            throws IOException
+    {
+        if (args.length == 0) {
+            System.err.println("Usage: heap_benchmark [jlox options] <script>");
+            System.exit(64);
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+
+        Lox.main(args);
+
+        memory.gc();
+        long after = memory.getHeapMemoryUsage().getUsed();
+        System.err.println("[heap] " + (after - before) / 1024 + " KiB retained");
+    }
+}
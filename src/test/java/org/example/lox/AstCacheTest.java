@@ -0,0 +1,106 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A script run from its .loxc must behave as when it's compiled, and a cache
+ * that's stale or damaged must be compiled over
+ */
+class AstCacheTest
+{
+    private static final String SOURCE = """
+            var total = 0;
+            fun add(n) { total = total + n; return total; }
+            class P { init(x) { this.x = x; } sq() { return this.x * this.x; } }
+            class Q { < P sq() { return super.sq() + 1; } }
+            for (var i = 0; i < 4; i = i + 1) { add(i); }
+            fun counter() { var c = 0; fun next() { c = c + 1; return c; } return next; }
+            var next = counter();
+            next();
+            print total;
+            print Q(3).sq();
+            print next();
+            print "done";
+            """;
+
+    // Old enough that a cache written again is newer
+    private static final FileTime OLD = FileTime.fromMillis(0);
+
+    @TempDir
+    Path directory;
+
+    private Path script(String source)
+            throws IOException
+    {
+        return Files.writeString(directory.resolve("script.lox"), source);
+    }
+
+    @Test
+    void loadedLikeCompiled()
+            throws IOException
+    {
+        Path script = script(SOURCE);
+        Path cache = AstCache.file(script);
+        Jlox.Result compiled = Jlox.files(List.of(script));
+        assertEquals("6\n10\n2\ndone\n", compiled.out());
+
+        assertEquals(compiled, Jlox.files(List.of(script), "--cache"));
+        assertTrue(Files.isRegularFile(cache));
+        Files.setLastModifiedTime(cache, OLD);
+        for (String[] flags : new String[][] {{}, {"--vm"}, {"--ir"}, {"--lazy"}, {"--no-opt", "--no-memo"}}) {
+            String[] cached = Arrays.copyOf(flags, flags.length + 1);
+            cached[flags.length] = "--cache";
+            String mode = String.join(" ", cached);
+            assertEquals(Jlox.files(List.of(script), flags), Jlox.files(List.of(script), cached), mode);
+            assertEquals(OLD, Files.getLastModifiedTime(cache), mode);
+        }
+    }
+
+    @Test
+    void editedSourceCompiledAgain()
+            throws IOException
+    {
+        Path script = script(SOURCE);
+        Path cache = AstCache.file(script);
+        Jlox.files(List.of(script), "--cache");
+        Files.setLastModifiedTime(cache, OLD);
+
+        script(SOURCE.replace("print \"done\";", "print \"edited\";"));
+        Jlox.Result edited = Jlox.files(List.of(script), "--cache");
+        assertEquals("6\n10\n2\nedited\n", edited.out());
+        assertNotEquals(OLD, Files.getLastModifiedTime(cache));
+        Files.setLastModifiedTime(cache, OLD);
+        assertEquals(edited, Jlox.files(List.of(script), "--cache"));
+        assertEquals(OLD, Files.getLastModifiedTime(cache));
+    }
+
+    @Test
+    void damagedCacheCompiledOver()
+            throws IOException
+    {
+        Path script = script(SOURCE);
+        Path cache = AstCache.file(script);
+        Jlox.Result compiled = Jlox.files(List.of(script), "--cache");
+        byte[] bytes = Files.readAllBytes(cache);
+
+        Files.write(cache, Arrays.copyOf(bytes, bytes.length / 2));
+        assertEquals(compiled, Jlox.files(List.of(script), "--cache"));
+        assertTrue(Arrays.equals(bytes, Files.readAllBytes(cache)));
+
+        Files.writeString(cache, "not a cache");
+        assertEquals(compiled, Jlox.files(List.of(script), "--cache"));
+        assertTrue(Arrays.equals(bytes, Files.readAllBytes(cache)));
+    }
+}
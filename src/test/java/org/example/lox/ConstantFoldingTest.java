@@ -0,0 +1,115 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Operators on literals are folded into their result, and locals that are
+ * never assigned after their declaration are replaced by their value. What
+ * would fail at run time is left to fail there.
+ */
+class ConstantFoldingTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void operatorsOnLiterals()
+    {
+        String source = """
+                var day = 60 * 60 * 24;
+                print "prefix" + "suffix";
+                print !true;
+                print -(3);
+                print (1 + 2) * 3 == 9;
+                print day;
+                """;
+        assertEquals("prefixsuffix\nfalse\n-3\ntrue\n86400\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source);
+        assertTrue(ast.startsWith("(var day 86400.0)\n(print prefixsuffix)\n(print false)\n(print -3.0)\n(print true)\n"), ast);
+        // Globals can be assigned anywhere, they stay.
+        assertTrue(ast.contains("(print day)"), ast);
+    }
+
+    @Test
+    void logicalOperatorsPickAnOperand()
+    {
+        String source = """
+                print nil or "x";
+                print false and 1;
+                print "a" and "b";
+                """;
+        assertEquals("x\nfalse\nb\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        assertEquals("(print x)\n(print false)\n(print b)\n", Jlox.ast(directory, source));
+    }
+
+    @Test
+    void neverAssignedLocalsArePropagated()
+    {
+        String source = """
+                fun scale(x) {
+                  var k = 10;
+                  var m = k * 2;
+                  return m * x;
+                }
+                print scale(2);
+                """;
+        assertEquals("40\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        assertTrue(Jlox.ast(directory, source).contains("(return (* 20.0 x))"));
+    }
+
+    @Test
+    void assignedLocalsKeepTheirReads()
+    {
+        String source = """
+                fun counter(x) {
+                  var n = 1;
+                  n = n + x;
+                  return n * 2;
+                }
+                print counter(2);
+                fun captured() {
+                  var c = 1;
+                  fun bump() { c = c + 1; }
+                  bump();
+                  return c * 2;
+                }
+                print captured();
+                """;
+        assertEquals("6\n4\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source);
+        assertTrue(ast.contains("(; (n (+ n x))) (return (* n 2.0))"), ast);
+        // Only a nested function assigns c.
+        assertTrue(ast.contains("(return (* c 2.0))"), ast);
+    }
+
+    @Test
+    void failingOperatorsAreLeftToFail()
+    {
+        String source = """
+                print "before";
+                print "a" - 1;
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertTrue(expected.err().startsWith("Operands must be numbers. a, 1.0\n[line 2]"), expected.err());
+        assertTrue(Jlox.ast(directory, source).contains("(print (- a 1.0))"));
+
+        String division = "print 1 / 0;";
+        expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, division);
+        assertTrue(expected.err().startsWith("Divided by the /0\n[line 1]"), expected.err());
+        assertTrue(Jlox.ast(directory, division).contains(" 1.0 0.0))"));
+    }
+
+    @Test
+    void statsCountTheFoldedNodes()
+    {
+        // Each product of two literals is three nodes folded into one.
+        String source = "print 2 * 3;\nprint 4 * 5;\n";
+        assertEquals(4, Jlox.optStats(directory, source).get("constant folding"));
+    }
+}
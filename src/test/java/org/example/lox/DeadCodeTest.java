@@ -0,0 +1,101 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Branches that can't run, code after a return and unused locals are
+ * removed, but never an initializer with side effects. The pass reports
+ * the nodes it removed with --opt-stats.
+ */
+class DeadCodeTest
+{
+    @TempDir
+    Path directory;
+
+    private int removed(String source)
+    {
+        return Jlox.optStats(directory, source).get("dead code elimination");
+    }
+
+    @Test
+    void constantConditions()
+    {
+        String source = """
+                if (false) { print "never"; } else { print "else"; }
+                if (true) print "then";
+                for (var i = 0; false; i = i + 1) print i;
+                while (false} print "loop";
+                if (1 > 2) print "folded first";
+                """;
+        assertEquals("else\nthen\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source);
+        assertFalse(ast.contains("never"), ast);
+        assertFalse(ast.contains("loop"), ast);
+        assertFalse(ast.contains("folded first"), ast);
+        assertTrue(removed(source) > 0);
+    }
+
+    @Test
+    void statementsAfterAReturn()
+    {
+        String source = """
+                fun g(x) { if (x > 0) { return 1; print "dead"; } else { return 2; } print "after if"; }
+                fun h(x) { { return x; } print "after block"; }
+                print g(1);
+                print h(3);
+                """;
+        assertEquals("1\n3\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source);
+        assertTrue(ast.contains("(fun g(x) (if (> x 0.0) (block (return 1.0)) (block (return 2.0))))"), ast);
+        assertTrue(ast.contains("(fun h(x) (block (return x)))"), ast);
+    }
+
+    @Test
+    void unusedLocalsButNotTheirSideEffects()
+    {
+        String source = """
+                fun noisy() { print "noisy"; return 1; }
+                fun f(x) {
+                  var unused = 3;
+                  var alsoUnused = x;
+                  var effect = noisy();
+                  return x;
+                }
+                print f(1);
+                """;
+        assertEquals("noisy\n1\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source);
+        assertTrue(ast.contains("(fun f(x) (var effect (call noisy)) (return x))"), ast);
+    }
+
+    @Test
+    void deadCodeThatWouldFail()
+    {
+        String source = """
+                fun f() { return 1; print nil - 1; }
+                if (false) print "a" - 1;
+                print f();
+                var g = 1 / 0;
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertEquals("1\n", expected.out());
+        assertTrue(expected.err().startsWith("Divided by the /0\n[line 4]"), expected.err());
+    }
+
+    @Test
+    void liveCodeIsLeftAlone()
+    {
+        String source = """
+                fun live(x) { var y = x * 2; print y; return y; }
+                live(2);
+                """;
+        assertEquals(0, removed(source));
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Method calls bound to the only method they can reach must still call
+ * whatever a field, an override or a reassigned method puts in the way
+ */
+class DevirtualizationTest
+{
+    private static final String SHAPES = """
+            class Shape { area() { return 0; } describe() { return "area " + this.area(); } name() { return "shape"; } }
+            class Square { < Shape init(s) { this.s = s; } area() { return this.s * this.s; } }
+            class Circle { < Shape init(r) { this.r = r; } area() { return 3 * this.r * this.r; } }
+            print Square(2).describe();
+            print Circle(1).describe();
+            print Shape().name();
+            """;
+
+    private static final String BOX = """
+            class Box { init(w) { this.w = w; } width() { return this.w; } total() { return this.width() + 1; } }
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void onlyCallsWithASingleTarget()
+    {
+        // A call on this reaches the overrides of area, one on any receiver
+        // finds two classes declaring width.
+        String source = SHAPES + BOX + """
+                class Other { width() { return "other"; } }
+                fun measure(x) { return x.width(); }
+                """;
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Jlox.resolve(interpreter, source);
+        new ClassHierarchy(interpreter).devirtualize(statements);
+        Map<String, Boolean> bound = new TreeMap<>();
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Expr visitCallExpr(Expr.Call expr)
+            {
+                if (expr.callee instanceof Expr.Get get) {
+                    bound.merge(get.name.lexeme, interpreter.boundMethod(expr) != null, Boolean::logicalAnd);
+                }
+                return super.visitCallExpr(expr);
+            }
+        }.rewrite(statements);
+        assertEquals(Map.of("area", false, "describe", true, "name", true, "width", false), bound);
+    }
+
+    @Test
+    void overridesAreCalled()
+    {
+        assertEquals("area 4\narea 3\nshape\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, SHAPES).out());
+    }
+
+    @Test
+    void fieldsShadowBoundMethods()
+    {
+        String source = BOX + """
+                var b = Box(5);
+                print b.total();
+                b.width = nil;
+                fun f() { return 7; }
+                b.width = f;
+                print b.width();
+                print b.total();
+                fun loop() { var t = 0; var x = Box(2); for (var i = 0; i < 5; i = i + 1) { t = t + x.width(); } return t; }
+                print loop();
+                """;
+        assertEquals("6\n7\n8\n10\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void fieldsReplacingAnInlinedMethod()
+    {
+        String source = """
+                fun seven() { return 7; }
+                class P { init(x) { this.x = x; } getX() { return this.x; } }
+                class Q { getX() { return "q"; } }
+                {
+                  var p = P(1);
+                  print p.getX();
+                  p.getX = seven;
+                  print p.getX();
+                  var q = Q();
+                  print q.getX();
+                }
+                """;
+        assertEquals("1\n7\nq\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void boundCallsCheckTheArity()
+    {
+        String source = BOX + "print Box(1).width(2);";
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertTrue(expected.err().startsWith("Expected 0 arguments but got 1."), expected.err());
+    }
+
+    @Test
+    void classesDeclaredInFunctionsOverride()
+    {
+        // Classes declared in functions aren't analyzed, but can override.
+        String source = """
+                class A { m() { return "A"; } n() { return this.m(); } }
+                fun make() { class L { < A m() { return "L"; } } return L(); }
+                print A().n();
+                print make().n();
+                class B { < A }
+                fun deeper() { class L2 { < B m() { return "L2"; } } class L3 { < L2 } return L3(); }
+                print deeper().n();
+                print B().n();
+                """;
+        assertEquals("A\nL\nL2\nA\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Blocks whose locals nothing captures run in the enclosing environment,
+ * which must keep shadowing and closures over loop locals as they were
+ */
+class ElidedBlockTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void onlyBlocksThatCanShareTheEnvironment()
+    {
+        String source = """
+                fun f(p) {
+                  { var x = p + 1; print x; }
+                  { print p; }
+                  var shadowed = 1;
+                  { var shadowed = 2; print shadowed; }
+                  { var captured = 3; fun g() { return captured; } print g(); }
+                }
+                { var top = 1; print top; }
+                """;
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Jlox.resolve(interpreter, source);
+        List<Boolean> elided = new ArrayList<>();
+        for (Stmt statement : ((Stmt.Function) statements.get(0)).body) {
+            if (statement instanceof Stmt.Block block) {
+                elided.add(interpreter.isElided(block));
+            }
+        }
+        // A local of its own, none, a shadowing local and a captured one.
+        assertEquals(List.of(true, true, false, false), elided);
+        // Its local would become a global.
+        assertFalse(interpreter.isElided((Stmt.Block) statements.get(1)));
+        assertEquals("1\n2\n1\n2\n3\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source + "f(1);").out());
+    }
+
+    @Test
+    void shadowing()
+    {
+        String source = """
+                var a = "global";
+                fun f(p) {
+                  { var x = p + 1; print x; }
+                  { var x = p + 2; print x; }
+                  var x = "outer";
+                  { var x = "shadow"; print x; }
+                  print x;
+                  { { var y = 3; print y + p; } }
+                  print a;
+                  { var a = "local a"; print a; }
+                  print a;
+                }
+                f(1);
+                { print a; }
+                class C { m() { { var z = 5; return z + 1; } } }
+                print C().m();
+                """;
+        String expected = "2\n3\nshadow\nouter\n4\nglobal\nlocal a\nglobal\nglobal\n6\n";
+        assertEquals(expected, Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void closuresOverLoopLocals()
+    {
+        String source = """
+                fun f() {
+                  var fs = nil;
+                  for (var i = 0; i < 3; i = i + 1) {
+                    var j = i * 2;
+                    fun g() { return j; }
+                    if (i == 1) fs = g;
+                  }
+                  print fs();
+                }
+                f();
+                """;
+        assertEquals("2\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void loopBodies()
+    {
+        String source = """
+                fun f(p) {
+                  var sum = 0;
+                  for (var i = 0; i < 20; i = i + 1) {
+                    var t = i * 2;
+                    var u = t * 3;
+                    sum = sum + u + p * 2;
+                  }
+                  print sum;
+                  for (var k = 0; k < 5; k = k + 1) {
+                    for (var m = 0; m < 5; m = m + 1) { sum = sum + k * m + p * 3; }
+                  }
+                  print sum;
+                }
+                f(1);
+                """;
+        assertEquals("1180\n1355\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fields are laid out from what the initializers assign, and fields outside
+ * the layout, conditional ones and ones shadowing methods must still work
+ */
+class FieldLayoutTest
+{
+    private static final String CLASSES = """
+            class A { init(a) { this.a = a; if (a > 1) { this.big = true; } } get() { return this.a; } }
+            class B { < A init(a, b) { super.init(a); this.b = b; } sum() { return this.a + this.b; } }
+            class C { < A extra() { this.later = 7; return this.later; } }
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void subclassesExtendTheLayout()
+    {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Jlox.resolve(interpreter, CLASSES);
+        interpreter.interpret(statements);
+        assertEquals(Map.of("a", 0, "big", 1), layout(interpreter, "A"));
+        assertEquals(Map.of("a", 0, "big", 1, "b", 2), layout(interpreter, "B"));
+        // Only initializers count.
+        assertEquals(Map.of("a", 0, "big", 1), layout(interpreter, "C"));
+    }
+
+    @Test
+    void fieldsOutsideTheLayout()
+    {
+        String source = CLASSES + """
+                var c = C(1);
+                print c.extra();
+                print c.later;
+                c.other = "other";
+                print c.other;
+                """;
+        assertEquals("7\n7\nother\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void fieldsShadowingMethods()
+    {
+        String source = CLASSES + """
+                var c = C(1);
+                c.get = "field";
+                print c.get;
+                print A(5).get();
+                """;
+        assertEquals("field\n5\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void conditionallyAssignedFields()
+    {
+        String source = CLASSES + """
+                var b = B(2, 3);
+                print b.sum();
+                print b.big;
+                b.b = nil;
+                print b.b;
+                print C(1).big;
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertEquals("5\ntrue\nnil\n", expected.out());
+        // C(1) was created with a = 1, so its initializer never set big.
+        assertTrue(expected.err().startsWith("Undefined property big .\n[line 9]"), expected.err());
+    }
+
+    private static Map<String, Integer> layout(Interpreter interpreter, String name)
+    {
+        return ((LoxClass) interpreter.globals.get(new Token(TokenType.IDENTIFIER, name, null, 0))).layout;
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads of globals the program never assigns use the value they were
+ * defined with, until a redefinition invalidates the assumption
+ */
+class GlobalSpeculationTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void onlyGlobalsNeverAssigned()
+    {
+        String source = """
+                fun f() { return 1; }
+                var k = 5;
+                var once = 1;
+                fun h(p) { return f() + k + once + p; }
+                k = 6;
+                """;
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Jlox.resolve(interpreter, source);
+        statements = new GlobalSpeculation(interpreter).speculate(statements);
+        Set<String> speculated = new TreeSet<>();
+        new AstRewriter(interpreter)
+        {
+            @Override
+            public Expr visitGlobalExpr(Expr.Global expr)
+            {
+                speculated.add(expr.variable.name.lexeme);
+                return expr;
+            }
+        }.rewrite(statements);
+        assertEquals(Set.of("f", "once"), speculated);
+    }
+
+    @Test
+    void redefinedFunctions()
+    {
+        String source = """
+                fun f() { return 1; }
+                fun g() { return f() + 1; }
+                print g();
+                fun f() { return 10; }
+                print g();
+                fun loop() { var s = 0; for (var i = 0; i < 1000; i = i + 1) s = s + f(); return s; }
+                print loop();
+                """;
+        assertEquals("2\n11\n10000\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void assignedVariables()
+    {
+        String source = """
+                var k = 5;
+                fun h() { return k; }
+                print h();
+                k = 6;
+                print h();
+                """;
+        assertEquals("5\n6\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void classes()
+    {
+        String source = """
+                class C { m() { return "m"; } }
+                fun make() { return C(); }
+                print make().m();
+                """;
+        assertEquals("m\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void undefinedGlobalsStillFail()
+    {
+        String source = """
+                fun f() { return undefinedThing; }
+                print f();
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertTrue(expected.err().startsWith("Undefined variable 'undefinedThing'.\n[line 1]"), expected.err());
+    }
+}
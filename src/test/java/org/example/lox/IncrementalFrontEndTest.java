@@ -0,0 +1,195 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * After every edit, what the incremental front end keeps must encode, with
+ * its resolution and the lines its tokens are on now, to the same cache as
+ * parsing the new source from scratch. --incremental runs each version.
+ */
+class IncrementalFrontEndTest
+{
+    private static final String SCRIPT = """
+            var total = 0;
+            fun add(a, b) {
+              return a + b;
+            }
+            fun counter() {
+              var count = 0;
+              fun next() {
+                count = count + 1;
+                return count;
+              }
+              return next;
+            }
+            class Point {
+              init(x, y) {
+                this.x = x;
+                this.y = y;
+              }
+              length() {
+                return this.x * this.x + this.y * this.y;
+              }
+            }
+            class Point3 { < Point
+              init(x, y, z) {
+                super.init(x, y);
+                this.z = z;
+              }
+            }
+            {
+              var i = 0;
+              while (i < 10} {
+                total = add(total, i);
+                i = i + 1;
+              }
+            }
+            for (var j = 1; j < 4; j = j + 1) {
+              var p = Point3(j, j + 1, j + 2);
+              print p.length();
+            }
+            print total;
+            """;
+
+    @TempDir
+    Path directory;
+    private PrintStream err;
+
+    @BeforeEach
+    void silenceErrors()
+    {
+        // Most random edits are syntax errors, which are reported.
+        err = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterEach
+    void restoreErrors()
+    {
+        System.setErr(err);
+        // Set by the edits with errors, and read by no one here.
+        Lox.hadError = false;
+    }
+
+    @Test
+    void randomEditsMatchFreshParses()
+    {
+        Random random = new Random(50);
+        List<String> lines = new ArrayList<>(Arrays.asList(SCRIPT.split("\n", -1)));
+        List<String> pool = List.copyOf(lines);
+        Interpreter interpreter = new Interpreter();
+        IncrementalFrontEnd session = new IncrementalFrontEnd(interpreter);
+        int compared = 0;
+        int partial = 0;
+
+        for (int step = 0; step < 400; step++) {
+            List<String> before = new ArrayList<>(lines);
+            int line = random.nextInt(lines.size());
+            switch (random.nextInt(6)) {
+                case 0 -> lines.add(line, pool.get(random.nextInt(pool.size())));
+                case 1 -> lines.remove(line);
+                case 2 -> lines.set(line, lines.get(line).replace("1", "7"));
+                case 3 -> lines.set(line, lines.get(line) + " ");
+                case 4 -> lines.add(line, "");
+                default -> {
+                    String text = lines.get(line);
+                    if (!text.isEmpty()) {
+                        int at = random.nextInt(text.length());
+                        lines.set(line, text.substring(0, at) + text.substring(at + 1));
+                    }
+                }
+            }
+            String source = String.join("\n", lines);
+
+            List<Stmt> updated = session.update(source);
+            Interpreter fresh = new Interpreter();
+            List<Stmt> expected = new IncrementalFrontEnd(fresh).update(source);
+            assertEquals(expected == null, updated == null, source);
+            if (updated == null) {
+                // Keep editing the last version without errors.
+                lines = before;
+                continue;
+            }
+
+            assertArrayEquals(encode(expected, fresh, token -> token.line), encode(updated, interpreter, session::line), source);
+            // Nothing is left of the declarations parsed again.
+            assertEquals(fresh.annotated(), interpreter.annotated(), source);
+            compared++;
+            if (session.reparsed < updated.size()) {
+                partial++;
+            }
+        }
+        assertTrue(compared > 100, "only " + compared + " edits parsed");
+        assertTrue(partial > compared / 2, "only " + partial + " of " + compared + " edits reused declarations");
+    }
+
+    @Test
+    void versionsRunInOrder()
+    {
+        String first = "var a = 1;\nfun f() { return a + 1; }\nprint f();";
+        String second = "var a = 1;\n\nfun f() { return a + 1; }\nprint f();\nprint a;";
+        String third = "var a = 5;\n\nfun f() { return a + 1; }\nprint f();\nprint a;";
+        Jlox.Result result = Jlox.versions(directory, List.of(first, second, third));
+        assertEquals("2\n\f\n2\n1\n\f\n6\n5\n\f\n", result.out());
+        assertEquals("", result.err());
+        assertEquals(0, result.status());
+    }
+
+    @Test
+    void runtimeErrorOnMovedLine()
+    {
+        String first = "var a = 1;\nfun f() {\n  return a - nil;\n}\nf();";
+        String second = "var a = 1;\nvar b = 2;\n\nfun f() {\n  return a - nil;\n}\nf();";
+        Jlox.Result result = Jlox.versions(directory, List.of(first, second));
+        assertEquals("\f\n\f\n", result.out());
+        // f was kept, with the tokens scanned for the first version.
+        assertEquals("Operands must be numbers. 1.0, null\n[line 3]\n"
+                + "Operands must be numbers. 1.0, null\n[line 5]\n", result.err());
+    }
+
+    @Test
+    void syntaxErrorKeepsLastVersion()
+    {
+        String first = "var a = 1;\nfun f() { return a; }\nprint f();";
+        String broken = "var a = 1;\nfun f() { return a; }\nprint f(;";
+        String fixed = "var a = 2;\nfun f() { return a; }\nprint f();";
+        Jlox.Result result = Jlox.versions(directory, List.of(first, broken, fixed));
+        assertEquals("1\n\f\n\f\n2\n\f\n", result.out());
+        assertEquals("[line 3] Error at ';': Expect expression.\n", result.err());
+        assertEquals(0, result.status());
+    }
+
+    @Test
+    void importsRunOnce()
+            throws IOException
+    {
+        Files.writeString(directory.resolve("lib.lox"), "print \"lib\";\nfun twice(x) { return 2 * x; }\n");
+        String first = "import \"lib.lox\";\nprint twice(1);";
+        String second = "import \"lib.lox\";\nprint twice(2);";
+        Jlox.Result result = Jlox.versions(directory, List.of(first, second));
+        assertEquals("lib\n2\n\f\n4\n\f\n", result.out());
+    }
+
+    private byte[] encode(List<Stmt> statements, Interpreter interpreter, ToIntFunction<Token> lines)
+    {
+        return AstCache.encode(new byte[32], new Modules.Module(List.of(), statements), interpreter, lines);
+    }
+}
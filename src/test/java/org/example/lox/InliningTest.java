@@ -0,0 +1,99 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Small functions and accessors are inlined behind a guard on the callee,
+ * which falls back to the call when the callee changed
+ */
+class InliningTest
+{
+    private static final String FUNCTIONS = """
+            fun sq(x) { return x * x; }
+            fun use(a) { return sq(a); }
+            print use(3);
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void smallFunctions()
+    {
+        assertEquals("9\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, FUNCTIONS).out());
+        String ast = Jlox.ast(directory, FUNCTIONS);
+        assertTrue(ast.contains("(fun use(a) (return (inline sq (* a a))))"), ast);
+        // Inlined twice over, and folded once the argument is a literal.
+        assertTrue(ast.contains("(print (inline use (inline sq 9.0)))"), ast);
+        assertTrue(Jlox.optStats(directory, FUNCTIONS).get("inlining") < 0);
+    }
+
+    @Test
+    void accessors()
+    {
+        String source = """
+                class P { init(x) { this.x = x; } getX() { return this.x; } }
+                fun read(q) { return q.getX(); }
+                print read(P(4));
+                """;
+        assertEquals("4\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        assertTrue(Jlox.ast(directory, source).contains("(fun read(q) (return (inline getX (x q))))"));
+    }
+
+    @Test
+    void fieldReplacingTheMethod()
+    {
+        String source = """
+                fun sq(x) { return x * x; }
+                class P { init(x) { this.x = x; } getX() { return this.x; } }
+                fun read(q) { return q.getX(); }
+                var q = P(3);
+                print read(q);
+                q.getX = sq;
+                print q.getX(4);
+                print read(q);
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        // The guard finds the field and calls it, with the wrong arity.
+        assertEquals("3\n16\n", expected.out());
+        assertTrue(expected.err().startsWith("Expected 1 arguments but got 0."), expected.err());
+    }
+
+    @Test
+    void assignedFunctionsAreCalled()
+    {
+        String source = """
+                fun sq2(x) { return x * x; }
+                fun useSq2() { return sq2(5); }
+                print useSq2();
+                fun add(a, b) { return a + b; }
+                sq2 = add;
+                print sq2(5, 1);
+                """;
+        assertEquals("25\n6\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        assertTrue(Jlox.ast(directory, source).contains("(fun useSq2() (return (call sq2 5.0)))"));
+    }
+
+    @Test
+    void budgetLimitsTheBodies()
+    {
+        String source = """
+                fun sq(x) { return x * x; }
+                fun poly(x) { return x * x + 2 * x + 1; }
+                fun use(a) { return sq(a) + poly(a); }
+                print use(3);
+                """;
+        assertEquals("25\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source, "--inline-budget=5").out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=5");
+        assertTrue(ast.contains("(fun use(a) (return (+ (inline sq (* a a)) (call poly a))))"), ast);
+        assertTrue(Jlox.ast(directory, source).contains("(inline poly "));
+        assertFalse(Jlox.ast(directory, source, "--inline-budget=0").contains("inline"));
+    }
+}
@@ -0,0 +1,144 @@
+package org.example.lox;
+
+import org.example.lox.ir.BasicBlock;
+import org.example.lox.ir.ControlFlowGraph;
+import org.example.lox.ir.Instruction;
+import org.example.lox.ir.Op;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Values speculated to be integers run as longs and must fall back to
+ * doubles on overflow, fractions, negative zero and integers past 2^53
+ */
+class IntegerSpeculationTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void exactValues()
+    {
+        assertTrue(IntegerSpeculation.exact(3.0));
+        assertTrue(IntegerSpeculation.exact(-9007199254740992.0));
+        assertFalse(IntegerSpeculation.exact(0.5));
+        assertFalse(IntegerSpeculation.exact(-0.0));
+        assertFalse(IntegerSpeculation.exact(9007199254740994.0));
+        assertFalse(IntegerSpeculation.exact("3"));
+    }
+
+    @Test
+    void phisThatOnlyHeldIntegers()
+    {
+        ControlFlowGraph graph = graph("fun sum(n) { var s = 0; for (var i = 0; i < n; i = i + 1) s = s + i; return s; }");
+        List<Instruction> phis = new ArrayList<>();
+        for (BasicBlock block : graph.blocks()) {
+            block.instructions().stream().filter(instruction -> instruction.op() == Op.PHI).forEach(phis::add);
+        }
+        assertEquals(2, phis.size());
+
+        IntegerSpeculation speculation = new IntegerSpeculation(graph);
+        for (int edge = 0; edge < IntegerSpeculation.WARMUP_EDGES; edge++) {
+            assertTrue(speculation.profiling());
+            speculation.observe(phis.get(0), 1.0);
+            speculation.observe(phis.get(1), edge == 500 ? 0.5 : 1.0);
+            speculation.tookEdge();
+        }
+        assertFalse(speculation.profiling());
+        assertTrue(speculation.speculated()[phis.get(0).id()]);
+        assertFalse(speculation.speculated()[phis.get(1).id()]);
+
+        speculation.fail();
+        assertNull(speculation.speculated());
+    }
+
+    @Test
+    void overflowingProducts()
+    {
+        String source = """
+                fun grow(n) { var x = 1; for (var i = 0; i < n; i = i + 1) x = x * 3; return x; }
+                print grow(10); print grow(40);
+                fun sum(n) { var s = 0; for (var i = 0; i < n; i = i + 1) s = s + i; return s; }
+                print sum(10); print sum(5000);
+                """;
+        assertEquals("59049\n1.2157665459056929E19\n45\n1.24975E7\n", speculated(source));
+    }
+
+    @Test
+    void fractionsAfterWarmingUp()
+    {
+        String source = """
+                fun half(n) { var x = 0; for (var i = 0; i < n; i = i + 1) { x = x + 1; if (i == 3000) x = x + 0.5; } return x; }
+                print half(4000);
+                fun frac(a) { var s = 0; for (var i = 0; i < 1500; i = i + 1) s = s + a; return s; }
+                print frac(1); print frac(0.25);
+                """;
+        assertEquals("4000.5\n1500\n375\n", speculated(source));
+    }
+
+    @Test
+    void negativeZero()
+    {
+        String source = """
+                fun neg(n) { var z = 0; for (var i = 0; i < n; i = i + 1) z = 0 * -1; return z; }
+                print neg(2000);
+                """;
+        assertEquals("-0\n", speculated(source));
+    }
+
+    @Test
+    void integersPastTwoToThe53()
+    {
+        String source = """
+                fun big(n) { var x = 9007199254740990; for (var i = 0; i < n; i = i + 1) x = x + 1; return x; }
+                print big(1500);
+                """;
+        assertEquals("9.007199254740992E15\n", speculated(source));
+    }
+
+    @Test
+    void otherValuesInTheLoop()
+    {
+        String source = """
+                fun mix(n) { var s = ""; var k = 0; for (var i = 0; i < n; i = i + 1) { k = k + 2; if (i > 1990) s = s + "x"; } print k; return s; }
+                print mix(2000);
+                fun cmp(n) { var c = 0; for (var i = 0; i < n; i = i + 1) { if (i == 500) c = c + 1; if (i != 7) c = c + 1; } return c; }
+                print cmp(2000);
+                """;
+        assertEquals("4000\nxxxxxxxxx\n2000\n", speculated(source));
+    }
+
+    @Test
+    void comparisonWithANonNumber()
+    {
+        String source = """
+                fun limit(n) { var c = 0; for (var i = 0; i < 3000; i = i + 1) { if (i == 2500) n = "x"; if (i < n) c = c + 1; } return c; }
+                print limit(5000);
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimized(directory, source, "--ir", "--int-speculation");
+        assertTrue(expected.err().startsWith("Operands must be numbers."), expected.err());
+        assertEquals(70, expected.status());
+    }
+
+    private String speculated(String source)
+    {
+        Jlox.assertLikeUnoptimized(directory, source, "--ir", "--int-speculation", "--no-opt");
+        return Jlox.assertLikeUnoptimized(directory, source, "--ir", "--int-speculation").out();
+    }
+
+    private static ControlFlowGraph graph(String source)
+    {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Jlox.resolve(interpreter, source);
+        return new IrLowering(interpreter).lowerAll(statements, null).values().iterator().next();
+    }
+}
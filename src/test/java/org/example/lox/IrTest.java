@@ -0,0 +1,118 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Functions run from their SSA graph with --ir must behave like the tree
+ * walker, and the graph passes must remove the redundancy they target
+ */
+class IrTest
+{
+    private static final String PRODUCTS = """
+            fun f(a, b) {
+              var x = a * b;
+              var y = a * b;
+              var z = x;
+              if (a > 0) { z = y + 1; } else { z = y - 1; }
+              for (var i = 0; i < 3; i = i + 1) { z = z + i; }
+              return z + (a * b);
+            }
+            print f(2, 3);
+            print f(-2, 3);
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void branchesAndLoops()
+    {
+        assertEquals("16\n-10\n", Jlox.assertLikeUnoptimized(directory, PRODUCTS, "--ir").out());
+        Jlox.assertLikeUnoptimized(directory, PRODUCTS, "--ir", "--no-opt");
+        String ir = Jlox.script(directory, PRODUCTS, "--ir", "--dump-ir").err();
+        assertTrue(ir.contains("-- f: lowered"), ir);
+    }
+
+    @Test
+    void recursionAndWhileLoops()
+    {
+        String source = """
+                fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+                print fib(15);
+                fun w() { var i = 0; var s = ""; while (i < 3 } { s = s + "w"; i = i + 1; } return s; }
+                print w();
+                """;
+        assertEquals("610\nwww\n", Jlox.assertLikeUnoptimized(directory, source, "--ir").out());
+        Jlox.assertLikeUnoptimized(directory, source, "--ir", "--no-opt");
+    }
+
+    @Test
+    void closuresAreLeftToTheTreeWalker()
+    {
+        String source = """
+                fun mk() { var c = 0; fun inc() { c = c + 1; return c; } return inc; }
+                var counter = mk(); counter(); print counter();
+                """;
+        assertEquals("2\n", Jlox.assertLikeUnoptimized(directory, source, "--ir").out());
+        String ir = Jlox.script(directory, source, "--ir", "--dump-ir").err();
+        assertTrue(ir.contains("-- mk: not lowered, declares function inc"), ir);
+        assertTrue(ir.contains("-- inc: not lowered, captures 'c'"), ir);
+    }
+
+    @Test
+    void methods()
+    {
+        String source = """
+                class A { init(v) { this.v = v; } get() { return this.v + 1; } }
+                print A(4).get();
+                """;
+        assertEquals("5\n", Jlox.assertLikeUnoptimized(directory, source, "--ir").out());
+    }
+
+    @Test
+    void thisOfAnEnclosingMethod()
+    {
+        String source = """
+                class A { m() { fun f() { return this; } return f(); } k() { return this; } }
+                print A().m();
+                print A().k();
+                class B { init() { this.v = 1; } m() { fun f() { return this.v; } return f(); } }
+                print B().m();
+                """;
+        assertEquals("A instance\nA instance\n1\n", Jlox.assertLikeUnoptimized(directory, source, "--ir").out());
+    }
+
+    @Test
+    void runtimeErrorsInAGraph()
+    {
+        String source = """
+                fun g(a) { return a - 1; }
+                print g(3);
+                print g("x");
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimized(directory, source, "--ir");
+        assertEquals("2\n", expected.out());
+        assertTrue(expected.err().startsWith("Operands must be numbers."), expected.err());
+        assertTrue(expected.err().contains("[line 1]"), expected.err());
+        assertEquals(70, expected.status());
+    }
+
+    @Test
+    void valueNumberingSharesProducts()
+    {
+        String ir = Jlox.script(directory, PRODUCTS, "--dump-ir").err();
+        int from = ir.indexOf("-- f: after global value numbering");
+        int to = ir.indexOf("-- f: after dead value elimination");
+        assertTrue(from >= 0 && to > from, ir);
+        String numbered = ir.substring(from, to);
+        assertEquals(1, numbered.split("binary \\* v0 v1", -1).length - 1, numbered);
+        assertFalse(numbered.contains("copy"), numbered);
+    }
+}
@@ -0,0 +1,210 @@
+package org.example.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Run the interpreter in a JVM of its own, since its state is static and it
+ * exits with the program's status
+ */
+final class Jlox
+{
+    record Result(String out, String err, int status)
+    {
+        /**
+         * The output without the prompts
+         */
+        String printed()
+        {
+            return out.replace("> ", "");
+        }
+    }
+
+    // The ways to run a program, each checked by assertLikeUnoptimizedInEveryMode
+    private static final List<List<String>> MODES = List.of(List.of(), List.of("--vm"), List.of("--ir"));
+    private static final Pattern STATS = Pattern.compile("\\[(.+)] (\\d+) nodes (removed|added)");
+
+    private Jlox() {}
+
+    /**
+     * Run a script written to a file in the directory
+     */
+    static Result script(Path directory, String source, String... flags)
+    {
+        try {
+            Path script = Files.createTempFile(directory, "script", ".lox");
+            Files.writeString(script, source);
+            return files(List.of(script), flags);
+        }
+        catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * Run a script unoptimized and then with the flags, which must print the
+     * same, report the same errors and exit the same. The unoptimized run is
+     * returned.
+     */
+    static Result assertLikeUnoptimized(Path directory, String source, String... flags)
+    {
+        Result expected = script(directory, source, "--no-opt", "--no-memo");
+        Result actual = script(directory, source, flags);
+        String mode = String.join(" ", flags);
+        assertEquals(expected.out(), actual.out(), mode);
+        assertEquals(expected.err(), actual.err(), mode);
+        assertEquals(expected.status(), actual.status(), mode);
+        return expected;
+    }
+
+    /**
+     * assertLikeUnoptimized in every mode, each with the flags
+     */
+    static Result assertLikeUnoptimizedInEveryMode(Path directory, String source, String... flags)
+    {
+        Result expected = null;
+        for (List<String> mode : MODES) {
+            List<String> arguments = new ArrayList<>(mode);
+            arguments.addAll(List.of(flags));
+            expected = assertLikeUnoptimized(directory, source, arguments.toArray(String[]::new));
+        }
+        return expected;
+    }
+
+    /**
+     * The tree the optimizer leaves, see --dump-ast
+     */
+    static String ast(Path directory, String source, String... flags)
+    {
+        List<String> arguments = new ArrayList<>(List.of(flags));
+        arguments.add("--dump-ast");
+        return script(directory, source, arguments.toArray(String[]::new)).err();
+    }
+
+    /**
+     * The nodes each optimizer pass removed, over all its runs, negative
+     * when it added some, see --opt-stats
+     */
+    static Map<String, Integer> optStats(Path directory, String source)
+    {
+        Map<String, Integer> removed = new HashMap<>();
+        Matcher matcher = STATS.matcher(script(directory, source, "--opt-stats").err());
+        while (matcher.find()) {
+            int nodes = Integer.parseInt(matcher.group(2));
+            removed.merge(matcher.group(1), matcher.group(3).equals("added") ? -nodes : nodes, Integer::sum);
+        }
+        return removed;
+    }
+
+    /**
+     * Parse and resolve a program in this JVM, to look at what gets recorded
+     * in the interpreter
+     */
+    static List<Stmt> resolve(Interpreter interpreter, String source)
+    {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(interpreter).resolve(statements);
+        return statements;
+    }
+
+    static Result files(List<Path> scripts, String... flags)
+    {
+        List<String> arguments = new ArrayList<>(List.of(flags));
+        scripts.forEach(script -> arguments.add(script.toString()));
+        return run(arguments, "", null);
+    }
+
+    /**
+     * Type the lines at the prompt, one at a time, and then exit
+     */
+    static Result prompt(Path directory, String lines, String... flags)
+    {
+        return run(List.of(flags), lines + "\nexit\n", directory);
+    }
+
+    /**
+     * Send versions of one script to --incremental, each ended by a form feed
+     */
+    static Result versions(Path directory, List<String> versions, String... flags)
+    {
+        List<String> arguments = new ArrayList<>(List.of(flags));
+        arguments.add("--incremental");
+        StringBuilder input = new StringBuilder();
+        versions.forEach(version -> input.append(version).append("\n\f\n"));
+        return run(arguments, input.toString(), directory);
+    }
+
+    private static Result run(List<String> arguments, String input, Path directory)
+    {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(classes());
+        command.add(Lox.class.getName());
+        command.addAll(arguments);
+        ProcessBuilder builder = new ProcessBuilder(command);
+        if (directory != null) {
+            builder.directory(directory.toFile());
+        }
+        try {
+            Process process = builder.start();
+            CompletableFuture<String> out = read(process.getInputStream());
+            CompletableFuture<String> err = read(process.getErrorStream());
+            process.getOutputStream().write(input.getBytes(StandardCharsets.UTF_8));
+            process.getOutputStream().close();
+            if (!process.waitFor(60, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new AssertionError("jlox " + arguments + " didn't finish");
+            }
+            return new Result(out.join(), err.join(), process.exitValue());
+        }
+        catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(error);
+        }
+    }
+
+    private static CompletableFuture<String> read(InputStream stream)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try (stream) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                stream.transferTo(bytes);
+                return bytes.toString(StandardCharsets.UTF_8);
+            }
+            catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        });
+    }
+
+    private static String classes()
+    {
+        try {
+            return Paths.get(Lox.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        }
+        catch (URISyntaxException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
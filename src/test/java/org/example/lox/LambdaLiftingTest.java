@@ -0,0 +1,111 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Local functions that capture nothing share one instance, the others keep
+ * a closure per run of their declaration
+ */
+class LambdaLiftingTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void onlyFunctionsThatCaptureNothing()
+    {
+        String source = """
+                fun outer(n) {
+                  fun sq(x) { return x * x; }
+                  fun adder(x) { return x + n; }
+                  fun fact(k) { if (k <= 1) return 1; return k * fact(k - 1); }
+                  var c = 0;
+                  fun inc() { c = c + 1; return c; }
+                }
+                """;
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Jlox.resolve(interpreter, source);
+        List<String> lifted = new ArrayList<>();
+        for (Stmt statement : ((Stmt.Function) statements.get(0)).body) {
+            if (statement instanceof Stmt.Function function && interpreter.isLifted(function)) {
+                lifted.add(function.name.lexeme);
+            }
+        }
+        // fact calls itself through the local its declaration defines.
+        assertEquals(List.of("sq"), lifted);
+    }
+
+    @Test
+    void liftedAndCapturingTogether()
+    {
+        String source = """
+                fun outer(n) {
+                  fun sq(x) { return x * x; }
+                  fun adder(x) { return x + n; }
+                  fun fact(k) { if (k <= 1) return 1; return k * fact(k - 1); }
+                  print sq(n) + adder(1) + fact(4);
+                  return sq;
+                }
+                var a = outer(3);
+                print a(5);
+                """;
+        assertEquals("37\n25\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void closuresKeepTheirOwnState()
+    {
+        String source = """
+                fun mk() {
+                  var c = 0;
+                  fun inc() { c = c + 1; return c; }
+                  return inc;
+                }
+                var i = mk(); i(); print i();
+                var j = mk(); print j();
+                """;
+        assertEquals("2\n1\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void nestedAndInLoops()
+    {
+        String source = """
+                class A { m() { fun f() { return this; } return f(); } }
+                print A().m();
+                { fun g() { fun h() { return 7; } return h; } print g()() + 1; }
+                fun counters() {
+                  var total = 0;
+                  for (var k = 0; k < 3; k = k + 1) {
+                    fun step(x) { return x + 1; }
+                    total = step(total);
+                  }
+                  return total;
+                }
+                print counters();
+                """;
+        assertEquals("A instance\n8\n3\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void liftedFunctionsAreShared()
+    {
+        String source = """
+                fun outer(n) { fun sq(x) { return x * x; } return sq; }
+                print outer(1) == outer(2);
+                fun mk(n) { fun add(x) { return x + n; } return add; }
+                print mk(1) == mk(1);
+                """;
+        assertEquals("true\nfalse\n", Jlox.script(directory, source).out());
+        assertEquals("true\nfalse\n", Jlox.script(directory, source, "--vm").out());
+        // Unoptimized, each run creates a function.
+        assertEquals("false\nfalse\n", Jlox.script(directory, source, "--no-opt").out());
+    }
+}
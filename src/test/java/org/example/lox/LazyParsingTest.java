@@ -0,0 +1,129 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A body skipped by --lazy must parse, when it's called, to what the eager
+ * parser builds, on the same lines
+ */
+class LazyParsingTest
+{
+    private static final String LOOPS = """
+            fun count(n) {
+              var i = 0;
+              var s = "";
+              while (i < n} {
+                s = s + "x";
+                i = i + 1;
+              }
+              return s;
+            }
+            class C { m(n) { var k = 0; while (k < n} k = k + 2; return k; } }
+            print count(3);
+            print C().m(5);
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void whileInsideFunction()
+    {
+        String expected = Jlox.script(directory, LOOPS).out();
+        assertEquals("xxx\n6\n", expected);
+        assertEquals(expected, Jlox.script(directory, LOOPS, "--lazy").out());
+        assertEquals(expected, Jlox.script(directory, LOOPS, "--lazy", "--strict").out());
+        assertEquals(expected, Jlox.script(directory, LOOPS, "--lazy", "--vm").out());
+    }
+
+    @Test
+    void roundTrip()
+    {
+        String source = """
+                var g = 0;
+                fun setg() { g = 5; }
+                fun f(n) { var s = 0; for (var i = 0; i < n; i = i + 1) { s = s + i; } return s; }
+                class P { init(x) { this.x = x; } get() { return this.x; } sq() { return this.x * this.x; } }
+                print f(10);
+                setg();
+                print g;
+                print P(3).sq();
+                fun outer() { fun inner() { return 1; } return inner() + 1; }
+                print outer();
+                """;
+        assertEquals("45\n5\n9\n2\n", Jlox.assertLikeUnoptimized(directory, source, "--lazy").out());
+        Jlox.assertLikeUnoptimized(directory, source, "--lazy", "--strict");
+        Jlox.assertLikeUnoptimized(directory, source, "--lazy", "--vm");
+        Jlox.assertLikeUnoptimized(directory, source, "--lazy", "--ir");
+    }
+
+    @Test
+    void syntaxErrorsInBodiesWaitForTheCall()
+    {
+        String source = """
+                fun never() { this is not valid syntax ( }
+                fun broken() { print 1 + ; }
+                print "before";
+                broken();
+                print "after";
+                """;
+        Jlox.Result lazy = Jlox.script(directory, source, "--lazy");
+        assertEquals("before\n", lazy.out());
+        assertEquals(65, lazy.status());
+        assertTrue(lazy.err().startsWith("[line 2] Error at ';': Expect expression."), lazy.err());
+
+        Jlox.Result strict = Jlox.script(directory, source, "--lazy", "--strict");
+        assertEquals("", strict.out());
+        assertTrue(strict.err().startsWith("[line 1] Error at 'is'"), strict.err());
+    }
+
+    @Test
+    void runtimeErrorsKeepTheirLines()
+    {
+        String source = """
+                fun f() {
+                  var s = "two
+                lines";
+                  while (false} {}
+                  return s - 1;
+                }
+                f();
+                """;
+        Jlox.Result eager = Jlox.script(directory, source);
+        assertEquals(70, eager.status());
+        assertEquals(eager.err(), Jlox.script(directory, source, "--lazy").err());
+    }
+
+    @Test
+    void tokenListsCaptureTheirBodies()
+    {
+        String source = """
+                fun f(n) {
+                  var s = "a
+                b";
+                  while (n > 0} n = n - 1;
+                  return s;
+                }
+                """;
+        Parser eager = new Parser(new Scanner(source).scanTokens());
+        Parser lazy = new Parser(new Scanner(source).scanTokens());
+        lazy.lazy = true;
+        Stmt.Function expected = (Stmt.Function) eager.parse().get(0);
+        Stmt.Function function = (Stmt.Function) lazy.parse().get(0);
+        assertInstanceOf(LazyBody.class, function.body);
+
+        // Parses the body.
+        List<Stmt> body = function.body;
+        assertEquals(5, ((Stmt.Return) body.get(body.size() - 1)).keyword.line);
+        AstPrinter printer = new AstPrinter();
+        assertEquals(printer.print(expected), printer.print(function));
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Desugared for loops are unrolled when their trip count is known and small,
+ * their invariants hoisted and their increments folded, which must not
+ * change what they print
+ */
+class LoopOptimizationTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void shortLoopsAreUnrolled()
+    {
+        String source = """
+                fun g() {
+                  var fs = "";
+                  for (var i = 0; i < 3; i = i + 1) {
+                    var k = i * 2;
+                    fs = fs + "x";
+                    print k;
+                  }
+                  print fs;
+                }
+                g();
+                """;
+        assertEquals("0\n2\n4\nxxx\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        assertTrue(ast.contains("(block (var k 2.0) (; (fs (+ fs x))) (print 2.0))"), ast);
+        assertTrue(Jlox.optStats(directory, source).get("loop optimization") < 0);
+    }
+
+    @Test
+    void invariantsAreHoisted()
+    {
+        String source = """
+                fun f(n) {
+                  var b = 3;
+                  b = b + 1;
+                  var total = 0;
+                  for (var i = 0; i < n; i = i + 1) {
+                    total = total + b * b + i;
+                  }
+                  return total;
+                }
+                print f(5);
+                """;
+        assertEquals("90\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        // The trip count is a parameter, so the loop stays, and the increment moves into it.
+        assertTrue(ast.contains("(var $inv0 (*# b b)) (while (< i n) "
+                + "(block (; (total (+# (+# total $inv0) i)))) (i (+# i 1.0)))"), ast);
+    }
+
+    @Test
+    void countingDown()
+    {
+        String source = """
+                fun down() { var m = 2; for (var i = 10; i > 0; i = i - 3) { print m * m + i; } }
+                down();
+                """;
+        assertEquals("14\n11\n8\n5\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        assertTrue(ast.contains("(print 14.0)"), ast);
+        assertTrue(ast.contains("(print 5.0)"), ast);
+        assertFalse(ast.contains("while"), ast);
+    }
+
+    @Test
+    void returnInsideAnUnrolledLoop()
+    {
+        String source = """
+                fun r() { for (var i = 0; i < 5; i = i + 1) { if (i == 2) return i * 100; } return -1; }
+                print r();
+                """;
+        assertEquals("200\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        assertTrue(ast.contains("(if true (return 200.0))"), ast);
+    }
+
+    @Test
+    void closuresOverTheLoopVariable()
+    {
+        String source = """
+                {
+                  var fs = "";
+                  for (var i = 0; i < 3; i = i + 1) {
+                    fun f() { return i; }
+                    fs = fs + f();
+                  }
+                  print fs;
+                }
+                fun h() {
+                  for (var i = 0; i < 3; i = i + 1) {
+                    fun show() { print i; }
+                    show();
+                  }
+                }
+                h();
+                """;
+        assertEquals("012\n0\n1\n2\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void localsAssignedInAClosure()
+    {
+        String source = """
+                fun capt() {
+                  var v = 1;
+                  fun bump() { v = v + 1; }
+                  for (var i = 0; i < 3; i = i + 1) { bump(); print v * 2; }
+                }
+                capt();
+                """;
+        assertEquals("4\n6\n8\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        // Unrolled, but the product is computed after each call.
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        assertTrue(ast.contains("(print (* v 2.0))"), ast);
+    }
+
+    @Test
+    void loopsThatNeverRun()
+    {
+        String source = """
+                fun z(n) { var t = 0; for (var i = 0; i < 0; i = i + 1) { t = t + n; } print "done"; return t; }
+                print z("str");
+                for (var i = 0; i < 0; i = i + 1) print "never";
+                """;
+        assertEquals("done\n0\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        assertTrue(ast.contains("(fun z(n) (var t 0.0) (print done) (return 0.0))"), ast);
+    }
+
+    @Test
+    void loopsOverOtherValues()
+    {
+        String source = """
+                fun strloop() { for (var s = "a"; s != "aaaa"; s = s + "a") print s; }
+                strloop();
+                fun w() { var i = 0; var s = 0; while (i < 5 } { s = s + i; i = i + 1; } return s; }
+                print w();
+                class A { init(v) { this.v = v; } get() { return this.v; } }
+                for (var i = 0; i < 20; i = i + 1) { var a = A(i); if (i == 19) print a.get(); }
+                var t = 0;
+                var u = 3;
+                for (;t < 5;) { t = t + u * 2; }
+                print t;
+                """;
+        assertEquals("a\naa\naaa\n10\n19\n6\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Calls to pure top-level functions are memoized, which must not change
+ * what a program prints
+ */
+class MemoizationTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void exponentialRecursionRunsInLinearTime()
+    {
+        String source = """
+                fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+                print fib(60);
+                """;
+        Jlox.Result result = Jlox.script(directory, source, "--memo-stats");
+        assertEquals("1.54800875592E12\n", result.out());
+        assertEquals("fib: 58 hits, 61 misses (48.7% hit rate)\n", result.err());
+    }
+
+    @Test
+    void impureFunctionsRunEveryTime()
+    {
+        String source = """
+                fun impure(x) { print x; return x; }
+                impure(1); impure(1);
+                var k = 2;
+                fun usesGlobal(x) { return x * k; }
+                print usesGlobal(2); k = 5; print usesGlobal(2);
+                """;
+        assertEquals("1\n1\n4\n10\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        Jlox.Result result = Jlox.script(directory, source, "--memo-stats");
+        assertEquals("", result.err());
+    }
+
+    @Test
+    void nilResultsAreMemoized()
+    {
+        String source = """
+                fun nilf(x) { if (x > 0) return nil; return 1; }
+                print nilf(1); print nilf(1); print nilf(0);
+                """;
+        assertEquals("nil\nnil\n1\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        assertEquals("nilf: 1 hits, 2 misses (33.3% hit rate)\n", Jlox.script(directory, source, "--memo-stats").err());
+    }
+
+    @Test
+    void onlyNumbersAndStringsAreKeys()
+    {
+        assertTrue(MemoTable.accepts(List.of(1.0, "a")));
+        assertTrue(MemoTable.accepts(List.of()));
+        // Anything else is either compared by identity or not worth it.
+        assertFalse(MemoTable.accepts(List.of(1.0, true)));
+        assertFalse(MemoTable.accepts(Arrays.asList("a", null)));
+        assertFalse(MemoTable.accepts(List.of(new Object())));
+    }
+
+    @Test
+    void loopsInPureFunctions()
+    {
+        String source = """
+                fun loop(n) { var s = 0; for (var i = 0; i < n; i = i + 1) s = s + i; return s; }
+                print loop(10) + loop(10);
+                """;
+        assertEquals("90\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String stats = Jlox.script(directory, source, "--memo-stats").err();
+        assertTrue(stats.startsWith("loop: 1 hits"), stats);
+        assertFalse(Jlox.script(directory, source, "--memo-stats", "--no-memo").err().contains("loop"));
+    }
+
+    @Test
+    void tailCallsMemoizedAtEveryHop()
+    {
+        String source = """
+                fun count(n, acc) {
+                  if (n == 0) return acc;
+                  return count(n - 1, acc + 1);
+                }
+                print count(10, 0);
+                print count(5, 5);
+                print count(3, 7);
+                """;
+        // The first call stores a result for each of its 11 hops, the others find theirs.
+        Jlox.Result walked = Jlox.script(directory, source, "--memo-stats");
+        assertEquals("10\n10\n10\n", walked.out());
+        assertEquals("count: 2 hits, 11 misses (15.4% hit rate)\n", walked.err());
+
+        Jlox.Result onTheVm = Jlox.script(directory, source, "--vm", "--memo-stats");
+        assertEquals(walked.out(), onTheVm.out());
+        assertEquals(walked.err(), onTheVm.err());
+    }
+}
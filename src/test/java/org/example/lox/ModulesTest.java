@@ -0,0 +1,104 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A module runs once however many files import it, and a cycle of imports
+ * is an error rather than a loop
+ */
+class ModulesTest
+{
+    @TempDir
+    Path directory;
+
+    private Path write(String name, String source)
+            throws IOException
+    {
+        Path file = directory.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, source);
+    }
+
+    private void diamond()
+            throws IOException
+    {
+        write("lib/shared.lox", "print \"shared\";\nvar s = 1;\n");
+        write("lib/left.lox", "import \"shared.lox\";\nvar l = s + 1;\n");
+        write("right.lox", "import \"lib/shared.lox\";\nvar r = s + 2;\n");
+    }
+
+    @Test
+    void diamondRunsSharedOnce()
+            throws IOException
+    {
+        diamond();
+        Path main = write("main.lox", "import \"lib/left.lox\";\nimport \"right.lox\";\nimport \"lib/left.lox\";\nprint l + r;\n");
+        for (String[] flags : new String[][] {{}, {"--no-opt", "--no-memo"}, {"--vm"}, {"--ir"}, {"--lazy"}, {"--cache"}, {"--cache"}}) {
+            Jlox.Result result = Jlox.files(List.of(main), flags);
+            String mode = String.join(" ", flags);
+            assertEquals("shared\n5\n", result.out(), mode);
+            assertEquals("", result.err(), mode);
+            assertEquals(0, result.status(), mode);
+        }
+    }
+
+    @Test
+    void promptImportsOnce()
+            throws IOException
+    {
+        diamond();
+        Jlox.Result result = Jlox.prompt(directory, """
+                import "lib/shared.lox";
+                print s;
+                import "lib/left.lox";
+                import "right.lox";
+                print l + r;""");
+        assertEquals("shared\n1\n5\n", result.printed().replace("\n\n", "\n"));
+    }
+
+    @Test
+    void cycleReported()
+            throws IOException
+    {
+        Path a = write("a.lox", "import \"b.lox\";\nprint \"a\";\n");
+        write("b.lox", "import \"c.lox\";\nprint \"b\";\n");
+        write("c.lox", "import \"a.lox\";\nprint \"c\";\n");
+        Jlox.Result result = Jlox.files(List.of(a));
+        assertEquals("", result.out());
+        assertEquals("""
+                [line 1] Error at '"a.lox"': Import cycle a.lox -> b.lox -> c.lox -> a.lox.
+                [line 1] Error at '"c.lox"': Errors in module 'c.lox'.
+                [line 1] Error at '"b.lox"': Errors in module 'b.lox'.
+                """, result.err());
+        assertEquals(65, result.status());
+    }
+
+    @Test
+    void selfImportReported()
+            throws IOException
+    {
+        Path a = write("a.lox", "import \"a.lox\";\nprint \"a\";\n");
+        Jlox.Result result = Jlox.files(List.of(a));
+        assertEquals("[line 1] Error at '\"a.lox\"': Import cycle a.lox -> a.lox.\n", result.err());
+        assertEquals(65, result.status());
+    }
+
+    @Test
+    void missingModuleReported()
+            throws IOException
+    {
+        Path main = write("main.lox", "import \"missing.lox\";\nprint 1;\n");
+        Jlox.Result result = Jlox.files(List.of(main));
+        assertEquals("", result.out());
+        assertEquals("[line 1] Error at '\"missing.lox\"': Can't find module 'missing.lox'.\n", result.err());
+        assertEquals(65, result.status());
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Files given together run as one program in their order, whichever was
+ * parsed first, and their errors are reported in that order too
+ */
+class ParallelFrontEndTest
+{
+    @TempDir
+    Path directory;
+
+    private Path write(String name, String source)
+            throws IOException
+    {
+        return Files.writeString(directory.resolve(name), source);
+    }
+
+    @Test
+    void filesRunInOrder()
+            throws IOException
+    {
+        Path a = write("a.lox", "fun add(a, b) { return a + b; }\nvar total = 1;\n");
+        Path b = write("b.lox", "total = add(total, 2);\nclass P { init(x) { this.x = x; } }\n");
+        Path c = write("c.lox", "print total;\nprint P(add(1, 1)).x;\n");
+        String concatenated = Files.readString(a) + Files.readString(b) + Files.readString(c);
+        String expected = Jlox.script(directory, concatenated).out();
+        assertEquals("3\n2\n", expected);
+        for (int run = 0; run < 5; run++) {
+            assertEquals(expected, Jlox.files(List.of(a, b, c)).out());
+        }
+        assertEquals(expected, Jlox.files(List.of(a, b, c), "--lazy").out());
+        assertEquals(expected, Jlox.files(List.of(a, b, c), "--vm").out());
+    }
+
+    @Test
+    void errorsReportedByFile()
+            throws IOException
+    {
+        Path a = write("a.lox", "var ok = 1;\n");
+        Path second = write("second.lox", "var = 3;\n");
+        Path first = write("first.lox", "print 1 +;\n");
+        for (int run = 0; run < 5; run++) {
+            Jlox.Result result = Jlox.files(List.of(a, second, first));
+            assertEquals(second + " [line 1] Error at '=': Expect variable name.\n"
+                    + first + " [line 1] Error at ';': Expect expression.\n", result.err());
+            assertEquals(65, result.status());
+        }
+    }
+}
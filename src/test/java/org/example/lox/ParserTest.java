@@ -0,0 +1,62 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The precedence and associativity of every operator, parsed by precedence
+ * climbing
+ */
+class ParserTest
+{
+    @AfterEach
+    void clearErrors()
+    {
+        Lox.hadError = false;
+    }
+
+    private static String parse(String source)
+    {
+        List<Stmt> statements = new Parser(new Scanner(source).scanArrays()).parse();
+        AstPrinter printer = new AstPrinter();
+        return statements.stream().map(printer::print).collect(Collectors.joining("\n"));
+    }
+
+    @Test
+    void binaryOperators()
+    {
+        assertEquals("(print (- (+ 1.0 (* 2.0 3.0)) (/ 4.0 2.0)))", parse("print 1 + 2 * 3 - 4 / 2;"));
+        assertEquals("(print (== (< a b) (>= c d)))", parse("print a < b == c >= d;"));
+        assertEquals("(print (or (== (! x) y) (and z w)))", parse("print !x == y or z and w;"));
+        assertEquals("(print (or (or a b) c))", parse("print a or b or c;"));
+        assertEquals("(print (* (group (+ 1.0 2.0)) (- (group (- 3.0)))))", parse("print (1 + 2) * -(-3);"));
+    }
+
+    @Test
+    void callsAndProperties()
+    {
+        assertEquals("(print (- (d (call (b a) c))))", parse("print -a.b(c).d;"));
+        assertEquals("(; (call (call f 1.0) 2.0 3.0))", parse("f(1)(2, 3);"));
+    }
+
+    @Test
+    void assignmentIsRightAssociative()
+    {
+        assertEquals("(; (a (b c)))", parse("a = b = c;"));
+        assertEquals("(; (y x (w z 1.0)))", parse("x.y = z.w = 1;"));
+    }
+
+    @Test
+    void syntaxErrors()
+    {
+        assertThrows(Interpreter.RuntimeError.class, () -> parse("1 = 2;"));
+        assertThrows(Interpreter.RuntimeError.class, () -> parse("print (1 + 2;"));
+        assertThrows(Interpreter.RuntimeError.class, () -> parse("print 1 +;"));
+    }
+}
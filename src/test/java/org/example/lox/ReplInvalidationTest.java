@@ -0,0 +1,109 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Lines typed at the prompt are optimized one at a time, so what an earlier
+ * line was optimized for can stop holding on a later one. Each case runs
+ * in every mode and must print what the unoptimized walker prints.
+ */
+class ReplInvalidationTest
+{
+    private static final String[][] MODES = {{"--no-opt", "--no-memo"}, {}, {"--vm"}, {"--ir"}};
+
+    @TempDir
+    Path directory;
+
+    private void assertPrints(String expected, String lines)
+    {
+        for (String[] mode : MODES) {
+            assertEquals(expected, Jlox.prompt(directory, lines, mode).printed(), String.join(" ", mode));
+        }
+    }
+
+    @Test
+    void memoizedFunctionRedefined()
+    {
+        assertPrints("2\n2\n10\n4\n10\n", """
+                fun f(x) { return x + 1; }
+                print f(1);
+                print f(1);
+                fun f(x) { return x * 10; }
+                print f(1);
+                var k = 2;
+                fun g(x) { return x * k; }
+                print g(2);
+                k = 5;
+                print g(2);""");
+    }
+
+    @Test
+    void inlinedFunctionRedefined()
+    {
+        assertPrints("9\n4\n5\n-5\n", """
+                fun sq(x) { return x * x; }
+                fun g() { return sq(3); }
+                print g();
+                fun sq(x) { return x + 1; }
+                print g();
+                class P { init(x) { this.x = x; } getX() { return this.x; } }
+                fun h(p) { return p.getX(); }
+                print h(P(5));
+                class P { init(x) { this.x = x; } getX() { return -this.x; } }
+                print h(P(5));""");
+    }
+
+    @Test
+    void replacedInstanceOfRedefinedClass()
+    {
+        assertPrints("2\n102\n", """
+                class A { init(v) { this.v = v; } }
+                fun f() { var a = A(2); print a.v; }
+                f();
+                class A { init(v) { this.v = v + 100; } }
+                f();""");
+    }
+
+    @Test
+    void assumedGlobalsChanged()
+    {
+        assertPrints("5\n6\n7\n3\n30\n", """
+                var k = 5;
+                fun h() { return k; }
+                print h();
+                k = 6;
+                print h();
+                var k = 7;
+                print h();
+                fun f() { return 1; }
+                fun loop() { var s = 0; for (var i = 0; i < 3; i = i + 1) s = s + f(); return s; }
+                print loop();
+                fun f() { return 10; }
+                print loop();""");
+    }
+
+    @Test
+    void subclassOnLaterLineOverridesBoundMethod()
+    {
+        assertPrints("B.m\n2\n", """
+                class A { m() { print "A.m"; return 1; } n() { var r = this.m(); return r; } }
+                class B { < A m() { print "B.m"; return 2; } }
+                print B().n();""");
+    }
+
+    @Test
+    void overrideFurtherDownLaterLines()
+    {
+        assertPrints("A.m\n1\nC.m\n3\n", """
+                class A { m() { print "A.m"; return 1; } n() { return this.m() + 0; } }
+                class B { < A }
+                print B().n();
+                class C { < B m() { print "C.m"; return 3; } }
+                print C().n();""");
+    }
+}
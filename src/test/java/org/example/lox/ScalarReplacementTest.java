@@ -0,0 +1,142 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Instances that don't escape their function are replaced by a local per
+ * field, behind a guard that the class is still the one analyzed
+ */
+class ScalarReplacementTest
+{
+    private static final String POINT = """
+            class Point {
+              init(x, y) { this.x = x; this.y = y; }
+              len2() { return this.x * this.x + this.y * this.y; }
+              show() { print this.x; }
+            }
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void fieldsBecomeLocals()
+    {
+        String source = POINT + """
+                fun f(n) {
+                  var total = 0;
+                  for (var i = 0; i < n; i = i + 1) {
+                    var p = Point(i, i + 1);
+                    p.x = p.x + 1;
+                    total = total + p.len2();
+                  }
+                  return total;
+                }
+                print f(10);
+                """;
+        assertEquals("770\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source);
+        assertTrue(ast.contains("(if (guard Point Point) (block (var p$x i) (var p$y (+# i 1.0))"), ast);
+        assertTrue(Jlox.optStats(directory, source).get("scalar replacement") < 0);
+    }
+
+    @Test
+    void escapingInstancesStay()
+    {
+        String source = POINT + """
+                fun escapes() { var p = Point(1, 2); return p; }
+                print escapes().y;
+                fun receiver() { var p = Point(3, 4); p.show(); }
+                receiver();
+                """;
+        assertEquals("2\n3\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        assertTrue(ast.contains("(fun escapes() (var p (call Point 1.0 2.0)) (return p))"), ast);
+        assertTrue(ast.contains("(fun receiver() (var p (call Point 3.0 4.0)) (; (call (show p))))"), ast);
+    }
+
+    @Test
+    void argumentsRunOnceInOrder()
+    {
+        String source = POINT + """
+                fun h() {
+                  var calls = 0;
+                  var p = Point(calls = calls + 1, calls = calls + 1);
+                  print p.x; print p.y; print calls;
+                }
+                h();
+                """;
+        assertEquals("1\n2\n2\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        assertTrue(ast.contains("(var p$x (calls (+# calls 1.0))) (var p$y (calls (+# calls 1.0)))"), ast);
+    }
+
+    @Test
+    void fieldsCapturedByAClosure()
+    {
+        String source = POINT + """
+                fun g() {
+                  var p = Point(1, 2);
+                  fun get() { return p.x; }
+                  p.x = 10;
+                  print get();
+                  return get;
+                }
+                var gg = g();
+                print gg();
+                """;
+        assertEquals("10\n10\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void classesDeclaredAfterTheFunction()
+    {
+        String source = """
+                fun early() { var p = Late(1); print p.v; }
+                fun run() { var q = Late(5); print q.v + 1; }
+                class Late { init(v) { this.v = v * 10; } }
+                run();
+                early();
+                """;
+        assertEquals("51\n10\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String ast = Jlox.ast(directory, source, "--inline-budget=0");
+        assertTrue(ast.contains("(fun run() (if (guard Late Late) (block (var q.v 50.0) (print 51.0))"), ast);
+    }
+
+    @Test
+    void fieldsOfOtherTypes()
+    {
+        String source = POINT + """
+                fun k() {
+                  var p = Point("a", 2);
+                  print p.x + p.y;
+                }
+                k();
+                class Empty {}
+                fun empty() { var e = Empty(); print "empty"; }
+                empty();
+                """;
+        assertEquals("a2\nempty\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void missingFieldStillFails()
+    {
+        String source = """
+                class Point { init(x, y) { this.x = x; this.y = y; } }
+                fun bad() {
+                  var p = Point(1, 2);
+                  print p.z;
+                }
+                bad();
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertTrue(expected.err().startsWith("Undefined property z .\n[line 4]"), expected.err());
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Every way of scanning a source must produce the same tokens, on the same
+ * lines, as the scanner that builds a list of them
+ */
+class ScannerTest
+{
+    static final String SOURCE = """
+            // comment with "quote
+            class classy { orchid() { return "é multi
+            line ✓"; } }
+            var fun_ = 12.5 + .5 + 3. ; import "a.lox"; and andy or oracle nil nilly this thistle
+            != == <= >= < > ! = / * - + ; , . ( ) { } ? :
+            var x = 1; // trailing
+            "unicode ñ"
+            """;
+
+    @TempDir
+    Path directory;
+
+    static void assertSameTokens(List<Token> expected, TokenSource actual)
+    {
+        for (int i = 0; i < expected.size(); i++) {
+            Token token = expected.get(i);
+            Token scanned = actual.token(i);
+            assertEquals(token.type, actual.type(i), "type of token " + i);
+            assertEquals(token.lexeme, scanned.lexeme, "lexeme of token " + i);
+            assertEquals(token.literal, scanned.literal, "literal of token " + i);
+            assertEquals(token.literal, actual.literal(i), "literal of token " + i);
+            assertEquals(token.line, scanned.line, "line of token " + i);
+        }
+    }
+
+    @Test
+    void arraysMatchTheList()
+    {
+        List<Token> tokens = new Scanner(SOURCE).scanTokens();
+        TokenArrays arrays = new Scanner(SOURCE).scanArrays();
+        assertEquals(tokens.size(), arrays.size());
+        assertSameTokens(tokens, arrays);
+    }
+
+    @Test
+    void streamedMatchesTheList()
+            throws IOException
+    {
+        // Long enough for the multi-byte characters to straddle the chunks decoded at a time.
+        String source = SOURCE.repeat(1000);
+        Path file = directory.resolve("streamed.lox");
+        Files.writeString(file, source);
+        List<Token> tokens = new Scanner(source).scanTokens();
+        try (StreamingScanner scanner = new StreamingScanner(file)) {
+            assertSameTokens(tokens, scanner);
+        }
+    }
+}
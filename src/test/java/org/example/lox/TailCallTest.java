@@ -0,0 +1,78 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Calls in tail position run in constant Java stack, far deeper than the
+ * stack would allow one frame per call
+ */
+class TailCallTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void selfRecursion()
+    {
+        String source = """
+                fun count(n, acc) {
+                  if (n == 0) return acc;
+                  return count(n - 1, acc + 1);
+                }
+                print count(200000, 0);
+                """;
+        assertEquals("200000\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void mutualRecursion()
+    {
+        String source = """
+                fun even(n) { if (n == 0) return true; return odd(n - 1); }
+                fun odd(n) { if (n == 0) return false; return even(n - 1); }
+                print even(100001);
+                """;
+        assertEquals("false\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void methodCallingItself()
+    {
+        String source = """
+                class A { init() { this.v = 3; } get(n) { if (n == 0) return this.v; return this.get(n - 1); } }
+                print A().get(50000);
+                """;
+        assertEquals("3\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void onlyCallsInTailPositionAreMarked()
+    {
+        String source = """
+                fun tail(n) { if (n == 0) return 0; return tail(n - 1); }
+                fun notTail(n) { if (n == 0) return 0; return 1 + notTail(n - 1); }
+                fun argument(n) { return tail(tail(n)); }
+                fun init() { tail(1); return nil; }
+                """;
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Jlox.resolve(interpreter, source);
+        List<String> marked = new ArrayList<>();
+        for (Stmt statement : statements) {
+            Stmt.Function function = (Stmt.Function) statement;
+            Stmt.Return last = (Stmt.Return) function.body.get(function.body.size() - 1);
+            if (last.value instanceof Expr.Call call && interpreter.isTailCall(call)) {
+                marked.add(function.name.lexeme);
+            }
+        }
+        // The outer call of argument is in tail position, its argument isn't.
+        assertEquals(List.of("tail", "argument"), marked);
+        assertEquals("100\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source + "print notTail(100);").out());
+    }
+}
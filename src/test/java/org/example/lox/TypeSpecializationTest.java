@@ -0,0 +1,89 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Operators on locals inferred to be numbers are specialized, and only
+ * those. --dump-types shows what was inferred for each local.
+ */
+class TypeSpecializationTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void numericLocals()
+    {
+        String source = """
+                {
+                  var sum = 0;
+                  for (var i = 0; i < 20; i = i + 1) {
+                    var t = i * 2 - 1;
+                    sum = sum + t / 2 + -i;
+                  }
+                  print sum;
+                }
+                """;
+        assertEquals("-10\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String types = Jlox.script(directory, source, "--dump-types").err();
+        assertEquals("[line 2] sum: number\n[line 3] i: number\n[line 4] t: number\n", types);
+        String ast = Jlox.ast(directory, source);
+        assertTrue(ast.contains("(var t (-# (*# i 2.0) 1.0))"), ast);
+        assertTrue(ast.contains("(sum (+# (+# sum (/# t 2.0)) (-# i)))"), ast);
+    }
+
+    @Test
+    void localsOfSeveralTypes()
+    {
+        String source = """
+                {
+                  var x;
+                  var s = "a";
+                  for (var i = 0; i < 3; i = i + 1) {
+                    if (i > 1) x = 1; else x = "s";
+                  }
+                  s = s + x;
+                  print s;
+                  print x + x;
+                }
+                """;
+        assertEquals("a1\n2\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        String types = Jlox.script(directory, source, "--dump-types").err();
+        assertTrue(types.startsWith("[line 2] x: unknown\n[line 3] s: string\n"), types);
+        String ast = Jlox.ast(directory, source);
+        assertTrue(ast.contains("(; (s (+ s x))) (print s) (print (+ x x))"), ast);
+    }
+
+    @Test
+    void parametersAreUnknown()
+    {
+        String source = """
+                fun f(n) { var k = n; return k + 1; }
+                print f("str");
+                print f(2);
+                """;
+        assertEquals("str1\n3\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+        assertEquals("[line 1] k: unknown\n", Jlox.script(directory, source, "--dump-types").err());
+        assertTrue(Jlox.ast(directory, source).contains("(fun f(n) (var k n) (return (+ k 1.0)))"));
+    }
+
+    @Test
+    void specializedOperatorsFailLikeTheOthers()
+    {
+        String source = """
+                {
+                  var n = 1;
+                  print n / 0;
+                }
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertTrue(expected.err().startsWith("Divided by the /0\n[line 3]"), expected.err());
+        assertTrue(Jlox.ast(directory, source).contains("(/# "));
+    }
+}
@@ -0,0 +1,125 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fields stored as numbers are read by operators without boxing them, and
+ * must still behave like any other field when they aren't numbers
+ */
+class UnboxedFieldsTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void classesBoxAFieldOnceItHoldsSomethingElse()
+    {
+        String source = """
+                class P { init(x, y) { this.x = x; this.y = y; } }
+                var p = P(1, 2);
+                """;
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Jlox.resolve(interpreter, source);
+        interpreter.interpret(statements);
+        LoxClass type = (LoxClass) interpreter.globals.get(new Token(TokenType.IDENTIFIER, "P", null, 0));
+        Shape numeric = type.shape;
+        assertEquals(2, numeric.numbers);
+        assertEquals(0, numeric.objects);
+
+        List<Stmt> assignment = Jlox.resolve(interpreter, "p.x = \"a\";");
+        interpreter.interpret(assignment);
+        // New instances start out with x boxed, y stays a number.
+        assertTrue(type.shape.slot("x") < 0);
+        assertTrue(type.shape.slot("y") >= 0);
+        assertSame(numeric.boxing("x"), type.shape);
+    }
+
+    @Test
+    void arithmeticOnNumericFields()
+    {
+        String source = """
+                class P { init(x, y) { this.x = x; this.y = y; } }
+                var p = P(3, 4);
+                print p.x * p.x + p.y * p.y;
+                print p.x < p.y;
+                print p.x == 3;
+                print p.y - 1;
+                p.x = p.x + 1;
+                print p.x == p.y;
+                """;
+        assertEquals("25\ntrue\ntrue\n3\ntrue\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void boxedAndMissingFields()
+    {
+        String source = """
+                class P { init(x) { this.x = x; } m() { return 1; } }
+                var p = P(1);
+                p.x = "a";
+                print p.x + "b";
+                print P(2).x + p.x;
+                print p.x == nil;
+                p.other = 5;
+                print p.other * 2;
+                print p.m + 1;
+                """;
+        // The language adds a function and a number to nil.
+        assertEquals("ab\n2a\nfalse\n10\nnil\n", Jlox.assertLikeUnoptimizedInEveryMode(directory, source).out());
+    }
+
+    @Test
+    void fieldsMovedToTheObjects()
+    {
+        String source = """
+                class P { init(a, b) { this.a = a; if (b) this.b = b; } }
+                var p = P(1, 2);
+                var q = P(3, nil);
+                print q.a;
+                p.a = "str";
+                print p.a;
+                print p.b;
+                print q.a;
+                var r = P(5, 6);
+                print r.a;
+                r.a = r.a + 1;
+                print r.a;
+                r.a = nil;
+                print r.a;
+                r.extra = 4;
+                print r.extra;
+                q.b = "late";
+                print q.b;
+                print p.b + r.b;
+                fun show() { print "m"; }
+                class M { init() { this.f = 1; } f() { return 0; } }
+                var m = M();
+                print m.f;
+                print P(1, nil).b;
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertEquals("3\nstr\n2\n3\n5\n6\nnil\n4\nlate\n8\n1\n", expected.out());
+        assertEquals(70, expected.status());
+    }
+
+    @Test
+    void undefinedFieldFailsBeforeTheRightOperandRuns()
+    {
+        String source = """
+                class P {}
+                fun side() { print "side"; return 1; }
+                print P().x + side();
+                """;
+        Jlox.Result result = Jlox.assertLikeUnoptimizedInEveryMode(directory, source);
+        assertEquals("", result.out());
+        assertEquals(70, result.status());
+    }
+}
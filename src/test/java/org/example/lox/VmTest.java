@@ -0,0 +1,102 @@
+package org.example.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The --vm mode must run programs like the tree-walking interpreter, and
+ * keep its frames on the heap so only --max-depth limits recursion
+ */
+class VmTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    void scopesAndClosures()
+    {
+        String source = """
+                var a = 1;
+                { var b = 2; print a + b; }
+                for (var i = 0; i < 3; i = i + 1) { print i; }
+                fun mk() { var c = 0; fun inc() { c = c + 1; return c; } return inc; }
+                var f = mk(); f(); print f();
+                var s = 0; var j = 0; while (j < 10 } { s = s + j; j = j + 1; } print s;
+                """;
+        assertEquals("3\n0\n1\n2\n2\n45\n", Jlox.assertLikeUnoptimized(directory, source, "--vm").out());
+    }
+
+    @Test
+    void classesAndSuper()
+    {
+        String source = """
+                class A { init(x) { this.x = x; } get() { return this.x; } }
+                class B { < A init(x) { super.init(x); this.y = 2; } get() { return super.get() + this.y; } }
+                var b = B(3);
+                print b.get();
+                print b.x;
+                print B(1).init(5).x;
+                """;
+        assertEquals("5\n3\n5\n", Jlox.assertLikeUnoptimized(directory, source, "--vm").out());
+    }
+
+    @Test
+    void operators()
+    {
+        String source = """
+                print "a" + "b";
+                print !true;
+                print -(3);
+                print 1 == 1;
+                print 3 == "3";
+                print nil or "d";
+                print true and false;
+                print 7 / 2;
+                print 0.1 + 0.2;
+                """;
+        String expected = "ab\nfalse\n-3\ntrue\nfalse\nd\nfalse\n3.5\n0.30000000000000004\n";
+        assertEquals(expected, Jlox.assertLikeUnoptimized(directory, source, "--vm").out());
+    }
+
+    @Test
+    void runtimeErrorStopsTheProgram()
+    {
+        String source = """
+                class A {}
+                print "before";
+                print A().missing;
+                print "after";
+                """;
+        Jlox.Result expected = Jlox.assertLikeUnoptimized(directory, source, "--vm");
+        assertEquals("before\n", expected.out());
+        assertEquals(70, expected.status());
+    }
+
+    @Test
+    void recursionDeeperThanTheJavaStack()
+    {
+        String source = """
+                fun sum(n) { if (n == 0) return 0; return n + sum(n - 1); }
+                print sum(100000);
+                """;
+        assertEquals("5.00005E9\n", Jlox.script(directory, source, "--vm").out());
+    }
+
+    @Test
+    void maxDepthLimitsTheFrames()
+    {
+        String sum = "fun sum(n) { if (n == 0) return 0; return n + sum(n - 1); }\n";
+        // The script has a frame too.
+        assertEquals("498501\n", Jlox.script(directory, sum + "print sum(998);", "--vm", "--max-depth=1000").out());
+
+        Jlox.Result limited = Jlox.script(directory, sum + "print sum(999);", "--vm", "--max-depth=1000");
+        assertEquals("", limited.out());
+        assertTrue(limited.err().startsWith("Stack overflow, call depth exceeds 1000.\n[line 1]"), limited.err());
+        assertEquals(70, limited.status());
+    }
+}